@@ -87,6 +87,32 @@ public class LoginActivity extends AppCompatActivity {
 
     }
 
+    /**
+     * keep the recorder warm while the app is in the foreground and signed in
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (FirebaseAuth.getInstance().getCurrentUser() != null) {
+            myFirebaseHelper.warmUpRecorder();
+        }
+    }
+
+    /**
+     * give up the microphone when the app leaves the foreground
+     */
+    @Override
+    protected void onStop() {
+        myFirebaseHelper.releaseRecorder();
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        myFirebaseHelper.releaseRecorder();
+        super.onDestroy();
+    }
+
     /**
      * performed when user has returned from permission request prompt
     */
@@ -161,6 +187,7 @@ public class LoginActivity extends AppCompatActivity {
         gsiButton.setOnClickListener(v-> launchFirebaseUIAuth());
 
         soButton.setOnClickListener(v-> signOut(() -> {
+            myFirebaseHelper.releaseRecorder();
             toast("You have been signed out.", false);
             initView();
         }));
@@ -0,0 +1,8 @@
+package chirp.me.in.base;
+
+/**
+ * interface callback to simulate lambda function behavior, for operations that can fail
+ */
+public interface OnFailureCallback {
+    void OnFailure(Exception e);
+}
@@ -0,0 +1,35 @@
+package chirp.me.in.utils;
+
+import android.os.Build;
+import android.os.Debug;
+import android.os.Trace;
+
+/**
+ * Reports the sections of PipelineMetrics as android.os.Trace sections, so the stages of an
+ * authentication show up in systrace / Perfetto. Allocations are read from ART's count of bytes
+ * allocated by the whole process (API 23+), so sections running next to other work over count.
+ */
+public class AndroidTraceProbe implements PipelineMetrics.Probe {
+    @Override
+    public void beginSection(final String name) {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+
+    @Override
+    public long allocatedBytes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        String allocated = Debug.getRuntimeStat("art.gc.bytes-allocated");
+        try {
+            return allocated == null ? -1 : Long.parseLong(allocated);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
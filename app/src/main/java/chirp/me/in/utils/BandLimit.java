@@ -0,0 +1,120 @@
+package chirp.me.in.utils;
+
+/**
+ * How a recording is reduced to the band the chirp occupies before the STFT (see
+ * ChirpAnalysisConfig.withBand), worked out for one sampling rate.
+ *
+ * With a decimation factor M, the band is band pass filtered and decimated. If the band lies
+ * within one nyquist zone [z fs / 2M, (z + 1) fs / 2M] of the decimated rate, decimation aliases
+ * it down to [0, fs / 2M] without overlap (mirrored when z is odd), so the chirp ends up at
+ * baseband without any mixing. Peak frequencies are mapped back with frequencyOffset and
+ * frequencyScale, which leaves r^2 unchanged and the slope in the original units.
+ */
+final class BandLimit {
+    /**
+     * number of taps of the band pass filter per decimation phase
+     */
+    private static final int TAPS_PER_PHASE = 32;
+
+    private final int decimation;
+    private final double outputRate;
+    private final double frequencyOffset;
+    private final double frequencyScale;
+    /**
+     * band pass filter taps, null without decimation
+     */
+    private final double[] taps;
+    /**
+     * range of bins the peak is searched in
+     */
+    private final int fromBin;
+    private final int toBin;
+
+    private BandLimit(final ChirpAnalysisConfig config, final double sampleRate) {
+        decimation = config.getDecimation();
+        outputRate = sampleRate / decimation;
+        double zoneWidth = outputRate / 2;
+        double low = config.getBandLow();
+        double high = Math.min(config.getBandHigh(), sampleRate / 2);
+
+        // aliased band in the decimated signal
+        double aliasLow = low;
+        double aliasHigh = high;
+        if (decimation > 1) {
+            int zone = (int) Math.floor(low / zoneWidth);
+            double zoneLow = zone * zoneWidth;
+            double zoneHigh = zoneLow + zoneWidth;
+            if (high > zoneHigh) {
+                throw new IllegalArgumentException("band " + low + "-" + high
+                        + " Hz does not fit in one nyquist zone of the decimated rate");
+            }
+            if (zone % 2 == 0) {
+                frequencyOffset = zoneLow;
+                frequencyScale = 1.0;
+                aliasLow = low - zoneLow;
+                aliasHigh = high - zoneLow;
+            } else {
+                frequencyOffset = zoneHigh;
+                frequencyScale = -1.0;
+                aliasLow = zoneHigh - high;
+                aliasHigh = zoneHigh - low;
+            }
+            // cut off half way between band and zone edges, so transitions stay in the zone
+            taps = PolyphaseDecimator.bandPass(sampleRate, (zoneLow + low) / 2,
+                    (high + zoneHigh) / 2, TAPS_PER_PHASE * decimation + 1);
+        } else {
+            frequencyOffset = 0.0;
+            frequencyScale = 1.0;
+            taps = null;
+        }
+
+        int windowSize = config.getWindowSize();
+        int lastBin = windowSize / 2;
+        fromBin = Math.max(0, (int) Math.floor(aliasLow * windowSize / outputRate));
+        toBin = Math.min(lastBin, (int) Math.ceil(aliasHigh * windowSize / outputRate));
+    }
+
+    /**
+     * @param config - analysis settings
+     * @param sampleRate - sampling rate of the recording
+     * @return band limit for config at sampleRate
+     * @throws IllegalArgumentException if the band does not fit in one nyquist zone
+     */
+    static BandLimit forConfig(final ChirpAnalysisConfig config, final double sampleRate) {
+        return new BandLimit(config, sampleRate);
+    }
+
+    int getDecimation() {
+        return decimation;
+    }
+
+    /**
+     * @return sampling rate after decimation
+     */
+    double getOutputRate() {
+        return outputRate;
+    }
+
+    double getFrequencyOffset() {
+        return frequencyOffset;
+    }
+
+    double getFrequencyScale() {
+        return frequencyScale;
+    }
+
+    int getFromBin() {
+        return fromBin;
+    }
+
+    int getToBin() {
+        return toBin;
+    }
+
+    /**
+     * @return new decimator (with its own state) for one stream, or null without decimation
+     */
+    PolyphaseDecimator newDecimator() {
+        return taps == null ? null : new PolyphaseDecimator(taps, decimation);
+    }
+}
@@ -0,0 +1,126 @@
+package chirp.me.in.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands blocks of recorded pcm from the thread reading the recorder to the thread writing and
+ * analyzing them, so that a slow write or STFT never delays the next read. The blocks are
+ * allocated once and cycle between a free and a filled queue: the reader fills one while the
+ * writer drains another.
+ *
+ * For exactly one reader (acquire, publish, finish) and one writer (take, recycle). The reader
+ * waits when every block is still being written, which is counted as a stall. It only waits up
+ * to a timeout at a time, so a writer that stopped recycling cannot keep it from noticing the
+ * recording was stopped.
+ */
+public class CaptureHandoff {
+    /**
+     * one block of pcm and how many of its bytes are valid
+     */
+    public static final class Block {
+        private final byte[] data;
+        private int length = 0;
+
+        private Block(final int size) {
+            this.data = new byte[size];
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * marks the end of a recording in the filled queue
+     */
+    private static final Block END = new Block(0);
+    private final ArrayBlockingQueue<Block> free;
+    private final ArrayBlockingQueue<Block> filled;
+    /**
+     * number of times acquire found no free block, only touched by the reader
+     */
+    private int stalls = 0;
+
+    /**
+     * @param blocks - number of blocks, at least 2
+     * @param blockSize - bytes per block, the most read at once
+     */
+    public CaptureHandoff(final int blocks, final int blockSize) {
+        free = new ArrayBlockingQueue<>(blocks);
+        filled = new ArrayBlockingQueue<>(blocks + 1);
+        for (int i = 0; i < blocks; i++) {
+            free.add(new Block(blockSize));
+        }
+    }
+
+    /**
+     * reader: get a block to read into, waiting for the writer to recycle one if none is free
+     * @param timeoutMS - longest time to wait (ms)
+     * @return empty block, null if none was recycled in time
+     * @throws InterruptedException - if interrupted while waiting
+     */
+    public Block acquire(final long timeoutMS) throws InterruptedException {
+        Block block = free.poll();
+        if (block == null) {
+            stalls++;
+            block = free.poll(timeoutMS, TimeUnit.MILLISECONDS);
+        }
+        return block;
+    }
+
+    /**
+     * reader: pass a block on to the writer
+     * @param block - block from acquire
+     * @param length - number of bytes read into it
+     */
+    public void publish(final Block block, final int length) {
+        block.length = length;
+        filled.add(block);
+    }
+
+    /**
+     * reader: tell the writer no more blocks will follow
+     */
+    public void finish() {
+        filled.add(END);
+    }
+
+    /**
+     * writer: get the next block read, waiting for one if necessary
+     * @return block to write, null once the reader has finished and all blocks were taken
+     * @throws InterruptedException - if interrupted while waiting
+     */
+    public Block take() throws InterruptedException {
+        Block block = filled.take();
+        return block == END ? null : block;
+    }
+
+    /**
+     * return a block to be read into again, by the writer once written or by the reader if
+     * nothing was read into it
+     * @param block - block from acquire or take
+     */
+    public void recycle(final Block block) {
+        block.length = 0;
+        free.add(block);
+    }
+
+    /**
+     * @return number of times the reader had to wait for the writer since the last reset
+     */
+    public int getStalls() {
+        return stalls;
+    }
+
+    /**
+     * reader: start counting stalls anew, between recordings
+     */
+    public void reset() {
+        stalls = 0;
+    }
+}
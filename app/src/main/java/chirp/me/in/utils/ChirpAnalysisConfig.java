@@ -0,0 +1,336 @@
+package chirp.me.in.utils;
+
+/**
+ * Immutable settings for ChirpAnalyzer: how the recording is cut into windows, how the peak
+ * track is cropped, and the thresholds the regression has to meet for authentication to succeed.
+ * Start from DEFAULT and derive variants with the with* methods, e.g.
+ *  ChirpAnalysisConfig.DEFAULT.withWindowSize(512).withOverlap(4)
+ *
+ * Each with* method sets its setting on a copy (see copy) and checks the result, so a new setting
+ * is a field with its default, a getter and a with* method. Fields are only assigned before a
+ * config is returned, never after.
+ */
+public final class ChirpAnalysisConfig implements Cloneable {
+    /**
+     * settings the application has always used
+     */
+    public static final ChirpAnalysisConfig DEFAULT = new ChirpAnalysisConfig();
+
+    /**
+     * fft window size, power of 2
+     */
+    private int windowSize = 1024;
+    /**
+     * fft overlap factor (windows start every windowSize / overlap samples)
+     */
+    private int overlap = 8;
+    /**
+     * scaling factor for cropping (sigma * latencyMS from start and end of recording)
+     */
+    private double sigma = 1.4;
+    /**
+     * power below which bins are treated as silent when looking for the peak
+     */
+    private double powerFloor = 1.0;
+    /**
+     * r^2 threshold we must pass to allow for auth success
+     */
+    private double tau = 0.95;
+    /**
+     * greatest percent deviation we allow between true slope and regression calculated slope
+     */
+    private double delta = 0.05;
+    /**
+     * whether windows are transformed in float instead of double (see FloatRealFFTPlan)
+     */
+    private boolean singlePrecision = false;
+    /**
+     * lowest frequency of the chirp band in Hz
+     */
+    private double bandLow = 0.0;
+    /**
+     * highest frequency of the chirp band in Hz, infinite if the chirp may be anywhere
+     */
+    private double bandHigh = Double.POSITIVE_INFINITY;
+    /**
+     * factor the recording is decimated by (after band pass filtering) before the STFT, 1 = none
+     */
+    private int decimation = 1;
+    /**
+     * points per fft bin the band is evaluated at by ZoomSpectrum, 0 = full FFT of every window
+     */
+    private int zoom = 0;
+    /**
+     * window applied to each time slice before its fft
+     */
+    private WindowFunction window = WindowFunction.RECTANGULAR;
+    /**
+     * how peak frequencies are refined between bins
+     */
+    private PeakInterpolation interpolation = PeakInterpolation.NONE;
+    /**
+     * how the line is fitted to the cropped peaks
+     */
+    private RegressionEstimator estimator = RegressionEstimator.LEAST_SQUARES;
+    /**
+     * share of the cropped peaks a robust fit must keep as inliers to be accepted
+     */
+    private double minInlierFraction = 0.8;
+
+    private ChirpAnalysisConfig() {
+    }
+
+    /**
+     * @return copy of this config, to set one setting on before it is checked and returned
+     */
+    private ChirpAnalysisConfig copy() {
+        try {
+            return (ChirpAnalysisConfig) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * @return this config, once its settings are known to be consistent
+     */
+    private ChirpAnalysisConfig checked() {
+        if (windowSize < 2 || (windowSize & (windowSize - 1)) != 0) {
+            throw new IllegalArgumentException("window size is not a power of 2");
+        }
+        if (overlap < 1 || windowSize % overlap != 0) {
+            throw new IllegalArgumentException("overlap does not divide window size");
+        }
+        if (decimation < 1) {
+            throw new IllegalArgumentException("decimation factor must be at least 1");
+        }
+        if (bandLow < 0 || bandHigh <= bandLow) {
+            throw new IllegalArgumentException("band must satisfy 0 <= low < high");
+        }
+        if (zoom < 0) {
+            throw new IllegalArgumentException("zoom must not be negative");
+        }
+        if (minInlierFraction < 0 || minInlierFraction > 1) {
+            throw new IllegalArgumentException("inlier fraction must lie in [0, 1]");
+        }
+        if (zoom > 0 && window != WindowFunction.RECTANGULAR) {
+            throw new IllegalArgumentException("zoom only supports the rectangular window");
+        }
+        return this;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getOverlap() {
+        return overlap;
+    }
+
+    /**
+     * @return number of samples between the starts of consecutive windows
+     */
+    public int getWindowStep() {
+        return windowSize / overlap;
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    public double getPowerFloor() {
+        return powerFloor;
+    }
+
+    public double getTau() {
+        return tau;
+    }
+
+    public double getDelta() {
+        return delta;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    public double getBandLow() {
+        return bandLow;
+    }
+
+    public double getBandHigh() {
+        return bandHigh;
+    }
+
+    /**
+     * @return whether the chirp is known to lie in [bandLow, bandHigh]
+     */
+    public boolean hasBand() {
+        return bandHigh != Double.POSITIVE_INFINITY;
+    }
+
+    public int getDecimation() {
+        return decimation;
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public WindowFunction getWindow() {
+        return window;
+    }
+
+    public PeakInterpolation getInterpolation() {
+        return interpolation;
+    }
+
+    public RegressionEstimator getEstimator() {
+        return estimator;
+    }
+
+    public double getMinInlierFraction() {
+        return minInlierFraction;
+    }
+
+    public ChirpAnalysisConfig withWindowSize(int windowSize) {
+        ChirpAnalysisConfig config = copy();
+        config.windowSize = windowSize;
+        return config.checked();
+    }
+
+    public ChirpAnalysisConfig withOverlap(int overlap) {
+        ChirpAnalysisConfig config = copy();
+        config.overlap = overlap;
+        return config.checked();
+    }
+
+    public ChirpAnalysisConfig withSigma(double sigma) {
+        ChirpAnalysisConfig config = copy();
+        config.sigma = sigma;
+        return config.checked();
+    }
+
+    public ChirpAnalysisConfig withPowerFloor(double powerFloor) {
+        ChirpAnalysisConfig config = copy();
+        config.powerFloor = powerFloor;
+        return config.checked();
+    }
+
+    public ChirpAnalysisConfig withTau(double tau) {
+        ChirpAnalysisConfig config = copy();
+        config.tau = tau;
+        return config.checked();
+    }
+
+    public ChirpAnalysisConfig withDelta(double delta) {
+        ChirpAnalysisConfig config = copy();
+        config.delta = delta;
+        return config.checked();
+    }
+
+    public ChirpAnalysisConfig withSinglePrecision(boolean singlePrecision) {
+        ChirpAnalysisConfig config = copy();
+        config.singlePrecision = singlePrecision;
+        return config.checked();
+    }
+
+    /**
+     * restrict analysis to the band the chirp occupies. Only peaks inside the band are searched
+     * for, and with a decimation factor above 1 the recording is band pass filtered and decimated
+     * first (see BandLimit), so windowSize applies to the decimated rate: the same frequency
+     * resolution then needs a decimation times smaller window
+     * @param low - lowest chirp frequency in Hz
+     * @param high - highest chirp frequency in Hz
+     * @param decimation - decimation factor, 1 for none. With a factor M the band must lie within
+     *                   one multiple of sampleRate / (2M), e.g. [0, 5512] or [5513, 11025] Hz
+     *                   for 44100 Hz and M = 4
+     * @return config with band set
+     */
+    public ChirpAnalysisConfig withBand(double low, double high, int decimation) {
+        ChirpAnalysisConfig config = copy();
+        config.bandLow = low;
+        config.bandHigh = high;
+        config.decimation = decimation;
+        return config.checked();
+    }
+
+    /**
+     * evaluate only the band (see withBand) of each window, with ZoomSpectrum instead of a full
+     * FFT. A new window then costs windowStep operations per point rather than a transform of
+     * windowSize samples, so this pays off for narrow bands, and the peak is found on a grid
+     * zoom times finer than the fft bins. Always done in double precision
+     * @param zoom - points per fft bin, 0 for a full FFT of every window
+     * @return config with zoom set
+     */
+    public ChirpAnalysisConfig withZoom(int zoom) {
+        ChirpAnalysisConfig config = copy();
+        config.zoom = zoom;
+        return config.checked();
+    }
+
+    /**
+     * taper each time slice with a window function before its fft. Needed for useful
+     * interpolation (see withInterpolation), as without one a tone leaks into every bin
+     * @param window - window function, RECTANGULAR for none
+     * @return config with window set
+     */
+    public ChirpAnalysisConfig withWindow(WindowFunction window) {
+        ChirpAnalysisConfig config = copy();
+        config.window = window;
+        return config.checked();
+    }
+
+    /**
+     * refine the peak frequency of each window between bins, so smaller windows with less
+     * overlap can reach the slope accuracy of larger ones. Interpolated peaks are regressed at
+     * their exact frequency and window center time
+     * @param interpolation - interpolation method, NONE to use the peak bin
+     * @return config with interpolation set
+     */
+    public ChirpAnalysisConfig withInterpolation(PeakInterpolation interpolation) {
+        ChirpAnalysisConfig config = copy();
+        config.interpolation = interpolation;
+        return config.checked();
+    }
+
+    /**
+     * choose how the line is fitted to the cropped peak track. THEIL_SEN ignores the odd stray
+     * peak that would drag the r^2 of a least squares fit below tau, at the cost of a few
+     * O(n log n) passes over the peaks instead of one O(n) pass
+     * @param estimator - line fit, LEAST_SQUARES for ordinary least squares
+     * @return config with estimator set
+     */
+    public ChirpAnalysisConfig withEstimator(RegressionEstimator estimator) {
+        ChirpAnalysisConfig config = copy();
+        config.estimator = estimator;
+        return config.checked();
+    }
+
+    /**
+     * least share of the cropped peaks a THEIL_SEN fit must keep as inliers to be accepted.
+     * Its r^2 is taken over the inliers only, so without this a track of which nearly half the
+     * peaks were thrown away could still pass tau. Least squares keeps every peak
+     * @param minInlierFraction - share in [0, 1], 0 to judge on r^2 alone
+     * @return config with the inlier fraction set
+     */
+    public ChirpAnalysisConfig withMinInlierFraction(double minInlierFraction) {
+        ChirpAnalysisConfig config = copy();
+        config.minInlierFraction = minInlierFraction;
+        return config.checked();
+    }
+
+    @Override
+    public String toString() {
+        return "window " + windowSize + ", overlap " + overlap + ", sigma " + sigma
+                + ", tau " + tau + ", delta " + delta + (singlePrecision ? ", single precision" : "")
+                + (hasBand() ? ", band " + bandLow + "-" + bandHigh + " Hz" : "")
+                + (decimation > 1 ? ", decimation " + decimation : "")
+                + (zoom > 0 ? ", zoom " + zoom : "")
+                + (window != WindowFunction.RECTANGULAR ? ", " + window + " window" : "")
+                + (interpolation != PeakInterpolation.NONE
+                        ? ", " + interpolation + " interpolation" : "")
+                + (estimator != RegressionEstimator.LEAST_SQUARES
+                        ? ", " + estimator + " fit, " + minInlierFraction + " inliers" : "");
+    }
+}
@@ -0,0 +1,574 @@
+package chirp.me.in.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Android independent chirp analysis: windowed real FFT over a PcmSource, peak frequency per
+ * window, crop by latency and linear regression of frequency over time, and the auth decision on
+ * the result. SoundProcessor and StreamingSpectrumAnalyzer are thin wrappers around the same
+ * steps, so the whole pipeline can also be run (and tuned) on a plain JVM against recorded wavs.
+ *
+ * Given a pool, the windows of a recording are split across its threads (see FrameRange), with
+ * output identical to the sequential path. The pcm source must then support concurrent reads,
+ * which WavFileSource and PcmRingBuffer (once recording has stopped) do.
+ *
+ * Instances only hold their config and pool and are safe to share between threads.
+ */
+public class ChirpAnalyzer {
+    /**
+     * smallest number of windows handed to one fork/join task, below this the overhead of
+     * splitting outweighs the transforms saved
+     */
+    private static final int MIN_FRAMES_PER_TASK = 64;
+    /**
+     * most threads used by sharedPool, more than this only adds contention for memory bandwidth
+     */
+    private static final int MAX_POOL_THREADS = 8;
+    private static ForkJoinPool sharedPool;
+
+    private final ChirpAnalysisConfig config;
+    /**
+     * pool to analyze windows on, null to analyze on the calling thread
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * analyzer that runs on the calling thread
+     * @param config - window, crop and threshold settings
+     */
+    public ChirpAnalyzer(final ChirpAnalysisConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param config - window, crop and threshold settings
+     * @param pool - pool to split the windows of a recording across, or null to run on the
+     *             calling thread
+     */
+    public ChirpAnalyzer(final ChirpAnalysisConfig config, final ForkJoinPool pool) {
+        this.config = config;
+        this.pool = pool;
+    }
+
+    /**
+     * @return pool with one thread per core (at most MAX_POOL_THREADS), created on first use and
+     * shared by all analyzers. ForkJoinPool.commonPool is not used as it needs API level 24
+     */
+    public static synchronized ForkJoinPool sharedPool() {
+        if (sharedPool == null) {
+            int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_POOL_THREADS);
+            sharedPool = new ForkJoinPool(Math.max(threads, 1));
+        }
+        return sharedPool;
+    }
+
+    public ChirpAnalysisConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * number of windows analyzed for a recording. The last window that fits is left out, as the
+     * spectrogram based analysis always has
+     * @param length - number of mono samples in the recording (before any decimation)
+     * @return number of windows
+     */
+    public int frames(final int length) {
+        int decimated = length / config.getDecimation();
+        return Math.max(0, (decimated - config.getWindowSize()) / config.getWindowStep());
+    }
+
+    /**
+     * @return number of frequency bins per window (windowSize / 2 + 1)
+     */
+    public int bins() {
+        return config.getWindowSize() / 2 + 1;
+    }
+
+    /**
+     * number of frequency values per window in the spectrogram peaks fills in: bins(), or with
+     * a zoom set the number of points ZoomSpectrum evaluates in the band
+     * @param sampleRate - sampling rate of the recording
+     * @return number of spectrogram rows per window
+     */
+    public int bins(final double sampleRate) {
+        if (config.getZoom() == 0) {
+            return bins();
+        }
+        BandLimit band = BandLimit.forConfig(config, sampleRate);
+        return (band.getToBin() - band.getFromBin()) * config.getZoom() + 1;
+    }
+
+    /**
+     * find peak frequency of every window of the recording
+     * @param pcm - recorded samples
+     * @return peak track of the recording
+     */
+    public PeakTrack peaks(final PcmSource pcm) {
+        return peaks(pcm, null);
+    }
+
+    /**
+     * find peak frequency of every window of the recording, optionally filling in the spectrogram
+     * on the way. With a band configured only bins inside it are searched, with a zoom only
+     * points inside it are evaluated (see ZoomSpectrum), and with a decimation factor the windows
+     * are taken from the band limited, decimated recording
+     * @param recording - recorded samples
+     * @param spectrogram - null, or frames(recording.length()) rows of bins(sampleRate) entries which
+     *                    receive the power of each window normalized to [0,1], lowest frequency last
+     * @return peak track of the recording
+     */
+    public PeakTrack peaks(final PcmSource recording, final double[][] spectrogram) {
+        PipelineMetrics.Section section = PipelineMetrics.get().begin(PipelineMetrics.STFT);
+        // reduce recording to the chirp band first if configured
+        BandLimit band = BandLimit.forConfig(config, recording.getSampleRate());
+        PolyphaseDecimator decimator = band.newDecimator();
+        PcmSource pcm = decimator == null ? recording : new DecimatedPcmSource(recording, decimator);
+        int length = pcm.length();
+        int nX = Math.max(0, (length - config.getWindowSize()) / config.getWindowStep());
+        int[] peakBins = new int[nX];
+        double[] peakOffsets = config.getInterpolation() == PeakInterpolation.NONE
+                ? null : new double[nX];
+        double[] range = {Double.MAX_VALUE, Double.MIN_VALUE};   // min and max power
+
+        if (pool != null && nX >= 2 * MIN_FRAMES_PER_TASK) {
+            // windows are independent, split them into contiguous ranges across the pool
+            int grain = Math.max(MIN_FRAMES_PER_TASK, nX / (4 * pool.getParallelism()));
+            FrameRange all = new FrameRange(config, pcm, band, 0, nX, grain, peakBins,
+                    peakOffsets, spectrogram);
+            pool.invoke(all);
+            range[0] = all.range[0];
+            range[1] = all.range[1];
+        } else {
+            analyzeFrames(config, pcm, band, 0, nX, peakBins, peakOffsets, spectrogram, range);
+        }
+
+        // normalize by max/min amplitudes (monotonic, so it does not change the peaks)
+        if (spectrogram != null) {
+            double minAmp = range[0];
+            double diff = range[1] - minAmp;
+            for (int i = 0; i < nX; i++) {
+                for (int j = 0; j < spectrogram[i].length; j++) {
+                    spectrogram[i][j] = (spectrogram[i][j] - minAmp) / diff;
+                }
+            }
+        }
+        section.end(2L * recording.length() * recording.getChannels());
+        return new PeakTrack(peakBins, nX, config.getWindowSize(), length, band.getOutputRate())
+                .withBand(band.getFrequencyOffset(), band.getFrequencyScale(),
+                        band.getDecimation())
+                .withZoom(Math.max(config.getZoom(), 1))
+                .withInterpolation(peakOffsets, config.getWindowStep());
+    }
+
+    /**
+     * transform windows [from, to) of the recording and store their peak bins. Only touches
+     * entries from..to-1 of peakBins, peakOffsets and spectrogram, and allocates its own scratch
+     * buffers, so disjoint ranges can be analyzed concurrently
+     * @param config - window, overlap, floor and precision settings
+     * @param pcm - recorded samples
+     * @param band - range of bins to search for the peak
+     * @param from - first window
+     * @param to - window after the last one
+     * @param peakBins - receives peak bin of each window
+     * @param peakOffsets - null, or receives the interpolated offset of each peak from its bin
+     * @param spectrogram - null, or receives the (unnormalized) power of each window
+     * @param range - min and max power written to spectrogram, updated in place
+     */
+    private static void analyzeFrames(final ChirpAnalysisConfig config, final PcmSource pcm,
+                                      final BandLimit band, final int from, final int to,
+                                      final int[] peakBins, final double[] peakOffsets,
+                                      final double[][] spectrogram, final double[] range) {
+        if (config.getZoom() > 0) {
+            analyzeFramesZoom(config, pcm, band, from, to, peakBins, peakOffsets, spectrogram,
+                    range);
+            return;
+        }
+        WindowTransform transform = config.isSinglePrecision()
+                ? new FloatWindowTransform(config, pcm, band)
+                : new DoubleWindowTransform(config, pcm, band);
+        int nY = config.getWindowSize() / 2 + 1;
+
+        double minAmp = range[0];
+        double maxAmp = range[1];
+        for (int i = from; i < to; i++) {
+            transform.load(i, i == from);
+            peakBins[i] = transform.peakBin();
+            if (peakOffsets != null) {
+                peakOffsets[i] = transform.peakOffset(peakBins[i]);
+            }
+
+            if (spectrogram != null) {
+                // perform thresholding, indexing in reverse so low frequencies are at the bottom
+                for (int j = 0; j < nY; j++) {
+                    double value = transform.power(j);
+                    spectrogram[i][nY - j - 1] = value;
+                    maxAmp = Math.max(maxAmp, value);
+                    minAmp = Math.min(minAmp, value);
+                }
+            }
+        }
+        range[0] = minAmp;
+        range[1] = maxAmp;
+    }
+
+    /**
+     * window of analyzeFrames in one precision: slides along the recording decoding only the
+     * samples it has not seen yet, is tapered and transformed, and finds the peak of its half
+     * spectrum. Holds its own scratch buffers, so one per range of windows
+     */
+    private abstract static class WindowTransform {
+        final PcmSource pcm;
+        final BandLimit band;
+        final PeakInterpolation interpolation;
+        final int windowSize;
+        final int windowStep;
+        /**
+         * samples shared with the previous time slice
+         */
+        final int kept;
+
+        WindowTransform(final ChirpAnalysisConfig config, final PcmSource pcm,
+                        final BandLimit band) {
+            this.pcm = pcm;
+            this.band = band;
+            this.interpolation = config.getInterpolation();
+            this.windowSize = config.getWindowSize();
+            this.windowStep = config.getWindowStep();
+            this.kept = windowSize - windowStep;
+        }
+
+        /**
+         * move to window i and transform it
+         * @param i - window index
+         * @param first - whether nothing was loaded yet, or window i - 1 was
+         */
+        void load(final int i, final boolean first) {
+            if (first) {
+                read(i * windowStep, 0, windowSize);
+            } else {
+                shift();
+                read(i * windowStep + kept, kept, windowStep);
+            }
+            transform();
+        }
+
+        /**
+         * decode count samples from start into the window at offset
+         */
+        abstract void read(int start, int offset, int count);
+
+        /**
+         * move the last kept samples of the window to its start
+         */
+        abstract void shift();
+
+        /**
+         * taper the window and compute its half spectrum
+         */
+        abstract void transform();
+
+        /**
+         * @return peak bin of the half spectrum within the band
+         */
+        abstract int peakBin();
+
+        /**
+         * @return interpolated offset of the peak from bin
+         */
+        abstract double peakOffset(int bin);
+
+        /**
+         * @return power of bin j of the half spectrum, at least the power floor
+         */
+        abstract double power(int j);
+    }
+
+    private static final class DoubleWindowTransform extends WindowTransform {
+        private final double floor;
+        /**
+         * null for the rectangular window, which needs no multiply
+         */
+        private final double[] taper;
+        private final RealFFTPlan plan;
+        private final double[] window;  // mono samples of current time slice
+        private final double[] tapered;
+        private final double[] real;    // half spectrum, reused for every time slice
+        private final double[] imag;
+
+        DoubleWindowTransform(final ChirpAnalysisConfig config, final PcmSource pcm,
+                              final BandLimit band) {
+            super(config, pcm, band);
+            floor = config.getPowerFloor();
+            taper = config.getWindow() == WindowFunction.RECTANGULAR
+                    ? null : config.getWindow().coefficients(windowSize);
+            plan = RealFFTPlan.forSize(windowSize);
+            window = new double[windowSize];
+            tapered = taper == null ? window : new double[windowSize];
+            real = new double[windowSize / 2 + 1];
+            imag = new double[windowSize / 2 + 1];
+        }
+
+        @Override
+        void read(final int start, final int offset, final int count) {
+            pcm.read(start, window, offset, count);
+        }
+
+        @Override
+        void shift() {
+            System.arraycopy(window, windowStep, window, 0, kept);
+        }
+
+        @Override
+        void transform() {
+            if (taper != null) {
+                for (int j = 0; j < windowSize; j++) {
+                    tapered[j] = window[j] * taper[j];
+                }
+            }
+            plan.transform(tapered, 0, real, imag);
+        }
+
+        @Override
+        int peakBin() {
+            return SpectralPeaks.peakBin(real, imag, floor, band.getFromBin(), band.getToBin());
+        }
+
+        @Override
+        double peakOffset(final int bin) {
+            return SpectralPeaks.peakOffset(real, imag, bin, floor, band.getFromBin(),
+                    band.getToBin(), interpolation);
+        }
+
+        @Override
+        double power(final int j) {
+            return Math.max(real[j] * real[j] + imag[j] * imag[j], floor);
+        }
+    }
+
+    /**
+     * single precision window: samples, spectrum and peak search are all in float, only the
+     * (debug) spectrogram is widened to double
+     */
+    private static final class FloatWindowTransform extends WindowTransform {
+        private final float floor;
+        private final float[] taper;
+        private final FloatRealFFTPlan plan;
+        private final float[] window;
+        private final float[] tapered;
+        private final float[] real;
+        private final float[] imag;
+
+        FloatWindowTransform(final ChirpAnalysisConfig config, final PcmSource pcm,
+                             final BandLimit band) {
+            super(config, pcm, band);
+            floor = (float) config.getPowerFloor();
+            taper = config.getWindow() == WindowFunction.RECTANGULAR
+                    ? null : config.getWindow().floatCoefficients(windowSize);
+            plan = FloatRealFFTPlan.forSize(windowSize);
+            window = new float[windowSize];
+            tapered = taper == null ? window : new float[windowSize];
+            real = new float[windowSize / 2 + 1];
+            imag = new float[windowSize / 2 + 1];
+        }
+
+        @Override
+        void read(final int start, final int offset, final int count) {
+            pcm.read(start, window, offset, count);
+        }
+
+        @Override
+        void shift() {
+            System.arraycopy(window, windowStep, window, 0, kept);
+        }
+
+        @Override
+        void transform() {
+            if (taper != null) {
+                for (int j = 0; j < windowSize; j++) {
+                    tapered[j] = window[j] * taper[j];
+                }
+            }
+            plan.transform(tapered, 0, real, imag);
+        }
+
+        @Override
+        int peakBin() {
+            return SpectralPeaks.peakBin(real, imag, floor, band.getFromBin(), band.getToBin());
+        }
+
+        @Override
+        double peakOffset(final int bin) {
+            return SpectralPeaks.peakOffset(real, imag, bin, floor, band.getFromBin(),
+                    band.getToBin(), interpolation);
+        }
+
+        @Override
+        double power(final int j) {
+            // thresholded in float, as the peak search is
+            return Math.max(real[j] * real[j] + imag[j] * imag[j], floor);
+        }
+    }
+
+    /**
+     * zoomed version of analyzeFrames: only the points of the band are evaluated, and each window
+     * only needs its newest block of windowStep samples (see ZoomSpectrum). The first window of the
+     * range pushes all of its blocks, so ranges do not depend on each other
+     */
+    private static void analyzeFramesZoom(final ChirpAnalysisConfig config, final PcmSource pcm,
+                                          final BandLimit band, final int from, final int to,
+                                          final int[] peakBins, final double[] peakOffsets,
+                                          final double[][] spectrogram, final double[] range) {
+        int windowSize = config.getWindowSize();
+        int windowStep = config.getWindowStep();
+        double floor = config.getPowerFloor();
+        int blocks = windowSize / windowStep;
+
+        double minAmp = range[0];
+        double maxAmp = range[1];
+        ZoomSpectrum zoom = new ZoomSpectrum(windowSize, windowStep, band.getFromBin(),
+                band.getToBin(), config.getZoom());
+        int nY = zoom.points();
+        double[] block = new double[windowStep];
+        double[] power = new double[nY];
+        zoom.reset(from);
+        for (int i = from; i < to; i++) {
+            // window i is made of blocks i .. i + blocks - 1
+            for (int b = i == from ? i : i + blocks - 1; b < i + blocks; b++) {
+                pcm.read(b * windowStep, block, 0, windowStep);
+                zoom.push(block, 0);
+            }
+            peakBins[i] = zoom.peak(power, floor);
+            if (peakOffsets != null) {
+                peakOffsets[i] = SpectralPeaks.peakOffset(power, peakBins[i] - zoom.fineBin(0),
+                        nY, floor, config.getInterpolation());
+            }
+
+            if (spectrogram != null) {
+                for (int j = 0; j < nY; j++) {
+                    double value = Math.max(power[j], floor);
+                    spectrogram[i][nY - j - 1] = value;
+                    maxAmp = Math.max(maxAmp, value);
+                    minAmp = Math.min(minAmp, value);
+                }
+            }
+        }
+        range[0] = minAmp;
+        range[1] = maxAmp;
+    }
+
+    /**
+     * contiguous range of windows, split in halves until it is at most grain windows long. Every
+     * window is computed exactly as the sequential loop does and written to its own slot, and
+     * min/max do not depend on order, so the result is identical to the sequential path. Static,
+     * so it holds nothing but what it is given
+     */
+    private static final class FrameRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final ChirpAnalysisConfig config;
+        private final PcmSource pcm;
+        private final BandLimit band;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final int[] peakBins;
+        private final double[] peakOffsets;
+        private final double[][] spectrogram;
+        /**
+         * min and max power of the range, valid once the task is done
+         */
+        private final double[] range = {Double.MAX_VALUE, Double.MIN_VALUE};
+
+        FrameRange(final ChirpAnalysisConfig config, final PcmSource pcm, final BandLimit band,
+                   final int from, final int to, final int grain, final int[] peakBins,
+                   final double[] peakOffsets, final double[][] spectrogram) {
+            this.config = config;
+            this.pcm = pcm;
+            this.band = band;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.peakBins = peakBins;
+            this.peakOffsets = peakOffsets;
+            this.spectrogram = spectrogram;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                analyzeFrames(config, pcm, band, from, to, peakBins, peakOffsets, spectrogram,
+                        range);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            FrameRange left = new FrameRange(config, pcm, band, from, mid, grain, peakBins,
+                    peakOffsets, spectrogram);
+            FrameRange right = new FrameRange(config, pcm, band, mid, to, grain, peakBins,
+                    peakOffsets, spectrogram);
+            invokeAll(left, right);
+            range[0] = Math.min(left.range[0], right.range[0]);
+            range[1] = Math.max(left.range[1], right.range[1]);
+        }
+    }
+
+    /**
+     * Perform linear regression of peak frequency over time on a recording
+     * @param pcm - recorded samples
+     * @param latencyMS - the latency of the transmission to use in cropping
+     * @return regression result
+     */
+    public LinearRegression regression(final PcmSource pcm, final long latencyMS) {
+        return regression(peaks(pcm), latencyMS);
+    }
+
+    /**
+     * crop peak track by latency and perform linear regression on it
+     * @param track - peak track of a recording
+     * @param latencyMS - the latency of the transmission to use in cropping
+     * @return regression result
+     */
+    public LinearRegression regression(final PeakTrack track, final long latencyMS) {
+        return track.regress(latencyMS, config.getSigma(), config.getEstimator());
+    }
+
+    /**
+     * crop peak track to the chirp and perform linear regression on it
+     * @param track - peak track of a recording
+     * @param startS - time (s) the chirp is known to have started by
+     * @param endS - time (s) the chirp is known to last until
+     * @return regression result
+     */
+    public LinearRegression regression(final PeakTrack track, final double startS,
+                                       final double endS) {
+        return track.regress(startS, endS, config.getEstimator());
+    }
+
+    /**
+     * auth decision on a regression result: the peaks must lie on a line (r^2 > tau) whose slope
+     * is within delta of the played one, see slopeMatches. A robust fit, whose r^2 only covers
+     * its inliers, must also keep at least minInlierFraction of the peaks
+     * @param regression - regression of the recorded chirp
+     * @param trueSlope - slope of the chirp that was played
+     * @return whether the recording is accepted as the played chirp
+     */
+    public boolean accepts(final LinearRegression regression, final double trueSlope) {
+        return regression.R2() > config.getTau()
+                && regression.inlierFraction() >= config.getMinInlierFraction()
+                && slopeMatches(regression.slope(), 0.0, trueSlope, config.getDelta());
+    }
+
+    /**
+     * the slope test shared by every auth decision (accepts, EarlyDecision, DechirpDetector):
+     * |slope - trueSlope| + margin < delta * |trueSlope|
+     * @param slope - measured slope (Hz/s), NaN is never accepted
+     * @param margin - uncertainty of slope (Hz/s) that must also fit inside the tolerance, 0 for
+     *               none
+     * @param trueSlope - slope of the chirp that was played
+     * @param delta - accepted relative deviation of the slope
+     * @return whether slope is accepted as trueSlope
+     */
+    public static boolean slopeMatches(final double slope, final double margin,
+                                       final double trueSlope, final double delta) {
+        return Math.abs(slope - trueSlope) + margin < delta * Math.abs(trueSlope);
+    }
+}
@@ -0,0 +1,215 @@
+package chirp.me.in.utils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Matched filter detector for a chirp of known slope, an alternative to the per window peak
+ * regression of ChirpAnalyzer. Multiplying the recording by a conjugate reference chirp of the
+ * expected slope k turns a chirp of that slope into a single tone (at start frequency - k * start
+ * time), while anything else, including chirps of other slopes, stays spread out. The recording
+ * is cut into a few long segments; each is dechirped, windowed and transformed with one complex
+ * FFT, and the power spectra are summed. The recording passes if the summed peak stands out from
+ * the noise floor by more than a threshold and the measured slope (see below) is close enough.
+ *
+ * The tone lands at the chirp's instantaneous frequency at the start of the first segment, so
+ * only chirps that are (or extrapolate to) between 0 and sampleRate / 2 there are detected.
+ *
+ * All segments are dechirped with the same cached reference, which starts at t = 0 in every
+ * segment. That shifts the tone of segment j by k * t_j, which is undone by shifting its spectrum
+ * by the nearest whole bin before it is summed. Before the shift, the tone of segment j sits at
+ * the chirp's frequency at t_j (plus a constant), so a line fitted to the per segment tone
+ * frequencies over t_j measures the chirp's slope. The auth decision applies the slope test of
+ * ChirpAnalyzer.accepts to it, so switching detectors does not change which slopes pass.
+ *
+ * Like ChirpAnalyzer, instances are safe to share between threads.
+ */
+public class DechirpDetector {
+    /**
+     * default number of samples per segment (0.37 s at 44100 Hz)
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16384;
+    /**
+     * default SNR the dechirped peak must reach to accept the recording
+     */
+    public static final double DEFAULT_THRESHOLD_DB = 10.0;
+    /**
+     * number of reference chirps kept, each segmentSize complex values
+     */
+    private static final int MAX_REFERENCES = 4;
+    /**
+     * windowed conjugate reference chirps, keyed by slope, sampling rate and segment size
+     */
+    private static final Map<String, double[][]> REFERENCES =
+            new LinkedHashMap<String, double[][]>(MAX_REFERENCES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, double[][]> eldest) {
+                    return size() > MAX_REFERENCES;
+                }
+            };
+
+    private final ChirpAnalysisConfig config;
+    private final int segmentSize;
+    private final double thresholdDb;
+
+    /**
+     * detector with default segment size and threshold
+     * @param config - crop settings (sigma) and slope tolerance (delta) shared with the
+     *               regression analysis
+     */
+    public DechirpDetector(final ChirpAnalysisConfig config) {
+        this(config, DEFAULT_SEGMENT_SIZE, DEFAULT_THRESHOLD_DB);
+    }
+
+    /**
+     * @param config - crop settings (sigma) and slope tolerance (delta) shared with the
+     *               regression analysis
+     * @param segmentSize - samples per segment (FFT size), power of 2. Longer segments give more
+     *                    gain but tolerate less slope error
+     * @param thresholdDb - SNR the dechirped peak must reach to accept the recording
+     */
+    public DechirpDetector(final ChirpAnalysisConfig config, final int segmentSize,
+                           final double thresholdDb) {
+        if (segmentSize < 2 || (segmentSize & (segmentSize - 1)) != 0) {
+            throw new IllegalArgumentException("segment size is not a power of 2");
+        }
+        this.config = config;
+        this.segmentSize = segmentSize;
+        this.thresholdDb = thresholdDb;
+    }
+
+    /**
+     * dechirp the recording with a reference of the given slope
+     * @param pcm - recorded samples
+     * @param slope - expected chirp slope in Hz/s
+     * @param latencyMS - the latency of the transmission, the start and end of the recording are
+     *                  cropped by sigma * latencyMS as for the regression
+     * @return SNR and frequency of the dechirped tone
+     */
+    public DechirpResult detect(final PcmSource pcm, final double slope, final long latencyMS) {
+        double sampleRate = pcm.getSampleRate();
+        int length = pcm.length();
+        double crop = latencyMS * config.getSigma() / ((double) length / sampleRate * 1000);
+        int start = (int) (length * Math.max(0.0, crop));
+        int end = (int) (length * Math.min(1.0, 1 - crop));
+        int segments = Math.max(0, (end - start) / segmentSize);
+        if (segments == 0) {
+            return new DechirpResult(0.0, 0.0, 0.0, Double.NaN, 0);
+        }
+
+        double[][] reference = reference(slope, sampleRate, segmentSize);
+        double[] refReal = reference[0];
+        double[] refImag = reference[1];
+        FFTPlan plan = FFTPlan.forSize(segmentSize);
+        double[] samples = new double[segmentSize];
+        double[] real = new double[segmentSize];
+        double[] imag = new double[segmentSize];
+        double[] power = new double[segmentSize];
+        double binsPerHz = segmentSize / sampleRate;
+        // tone frequency of each segment over its start time
+        RunningRegression toneFit = new RunningRegression();
+
+        for (int j = 0; j < segments; j++) {
+            int offset = start + j * segmentSize;
+            pcm.read(offset, samples, 0, segmentSize);
+            for (int n = 0; n < segmentSize; n++) {
+                real[n] = samples[n] * refReal[n];
+                imag[n] = samples[n] * refImag[n];
+            }
+            // exp(-i) kernel, see RealFFTPlan
+            plan.transform(real, imag, false);
+
+            int tone = 0;
+            double tonePower = -1.0;
+            for (int b = 0; b <= segmentSize / 2; b++) {
+                double p = real[b] * real[b] + imag[b] * imag[b];
+                if (p > tonePower) {
+                    tone = b;
+                    tonePower = p;
+                }
+            }
+            toneFit.add(j * segmentSize / sampleRate, tone / binsPerHz);
+
+            // tone of this segment is slope * (segment start - first segment start) Hz higher
+            long shift = Math.round(slope * (j * segmentSize / sampleRate) * binsPerHz);
+            int s = (int) (((shift % segmentSize) + segmentSize) % segmentSize);
+            for (int b = 0; b < segmentSize; b++) {
+                int from = b + s < segmentSize ? b + s : b + s - segmentSize;
+                power[b] += real[from] * real[from] + imag[from] * imag[from];
+            }
+        }
+
+        // a real recording holds the chirp at positive and mirrored at negative frequencies, so
+        // the reference of slope -k dechirps the mirror image into a negative tone. Searching the
+        // positive half only keeps a chirp of the opposite slope from passing
+        int peak = 0;
+        double total = 0.0;
+        for (int b = 0; b < segmentSize; b++) {
+            total += power[b];
+            if (b <= segmentSize / 2 && power[b] > power[peak]) {
+                peak = b;
+            }
+        }
+        double lobe = 0.0;
+        for (int d = -2; d <= 2; d++) {
+            lobe += power[(peak + d + segmentSize) % segmentSize];
+        }
+
+        // noise floor from the median bin, which the few bins a chirp occupies do not move. Each
+        // bin is a sum of segments exponentials, whose median is about (1 - 1/(9 segments))^3 of
+        // the mean (Wilson-Hilferty)
+        double[] sorted = power.clone();
+        Arrays.sort(sorted);
+        double median = sorted[segmentSize / 2];
+        double noise = median / Math.pow(1 - 1.0 / (9 * segments), 3);
+        double snrDb = noise > 0 ? 10 * Math.log10(power[peak] / noise) : Double.POSITIVE_INFINITY;
+
+        // share of the chirp's energy that ended up in the peak. Half of a real chirp's energy is
+        // its mirror image, which never dechirps, hence the factor 2
+        double excess = total - noise * segmentSize;
+        double lobeExcess = lobe - noise * 5;
+        double concentration = excess > 0 ? Math.max(0.0, Math.min(1.0, 2 * lobeExcess / excess))
+                : 0.0;
+        double measuredSlope = segments >= 2 ? toneFit.slope() : Double.NaN;
+        return new DechirpResult(snrDb, concentration, peak / binsPerHz, measuredSlope, segments);
+    }
+
+    /**
+     * auth decision on a detection result: the dechirped peak must reach the SNR threshold, and
+     * the measured slope must pass the same test as in ChirpAnalyzer.accepts (a strong chirp of
+     * a different slope still makes a peak, so the SNR alone does not tell)
+     * @param result - result of detect
+     * @param trueSlope - slope of the chirp that was played
+     * @return whether the recording is accepted as a chirp of the expected slope
+     */
+    public boolean accepts(final DechirpResult result, final double trueSlope) {
+        return result.segments() > 0 && result.snrDb() > thresholdDb
+                && ChirpAnalyzer.slopeMatches(result.slope(), 0.0, trueSlope, config.getDelta());
+    }
+
+    /**
+     * get (possibly cached) conjugate reference chirp exp(-i pi k t^2), multiplied by a Hann
+     * window to keep leakage of the dechirped tone out of the noise estimate
+     * @return real and imaginary parts
+     */
+    private static double[][] reference(final double slope, final double sampleRate,
+                                        final int size) {
+        String key = slope + "/" + sampleRate + "/" + size;
+        synchronized (REFERENCES) {
+            double[][] reference = REFERENCES.get(key);
+            if (reference == null) {
+                reference = new double[2][size];
+                for (int n = 0; n < size; n++) {
+                    double t = n / sampleRate;
+                    double phase = Math.PI * slope * t * t;
+                    double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * n / size);
+                    reference[0][n] = window * Math.cos(phase);
+                    reference[1][n] = -window * Math.sin(phase);
+                }
+                REFERENCES.put(key, reference);
+            }
+            return reference;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package chirp.me.in.utils;
+
+/**
+ * Outcome of DechirpDetector on one recording
+ */
+public final class DechirpResult {
+    private final double snrDb;
+    private final double concentration;
+    private final double toneFrequency;
+    private final double slope;
+    private final int segments;
+
+    /**
+     * @param snrDb - power of the dechirped peak over the noise floor, in dB
+     * @param concentration - share of the chirp's energy in the dechirped peak, in [0, 1]
+     * @param toneFrequency - frequency of the dechirped tone in Hz, relative to the first segment
+     * @param slope - slope (Hz/s) of the tone's frequency across segments, NaN if unknown
+     * @param segments - number of segments whose spectra were combined
+     */
+    public DechirpResult(final double snrDb, final double concentration,
+                         final double toneFrequency, final double slope, final int segments) {
+        this.snrDb = snrDb;
+        this.concentration = concentration;
+        this.toneFrequency = toneFrequency;
+        this.slope = slope;
+        this.segments = segments;
+    }
+
+    /**
+     * @return power of the dechirped peak over the noise floor, in dB. High when the recording
+     * holds a strong enough chirp near the reference slope, a few dB otherwise
+     */
+    public double snrDb() {
+        return snrDb;
+    }
+
+    /**
+     * @return share of the chirp's energy in the dechirped peak, in [0, 1]. Close to 1 when the
+     * chirp's slope matches the reference, small when it only roughly does
+     */
+    public double concentration() {
+        return concentration;
+    }
+
+    /**
+     * @return frequency of the dechirped tone in Hz. It depends on where the chirp started
+     * (start frequency - slope * start time), so it is informational only
+     */
+    public double toneFrequency() {
+        return toneFrequency;
+    }
+
+    /**
+     * @return slope of the recorded chirp in Hz/s, fitted to the tone frequency of each segment
+     * over segment start time. NaN with fewer than 2 segments
+     */
+    public double slope() {
+        return slope;
+    }
+
+    /**
+     * @return number of segments whose spectra were combined
+     */
+    public int segments() {
+        return segments;
+    }
+
+    public String toString() {
+        return String.format("SNR %.2f dB, concentration %.2f, tone %.1f Hz, slope %.1f Hz/s, "
+                + "%d segments", snrDb, concentration, toneFrequency, slope, segments);
+    }
+}
@@ -0,0 +1,66 @@
+package chirp.me.in.utils;
+
+/**
+ * Mono, band limited and decimated copy of a PcmSource, computed in one pass when constructed.
+ * At a decimation factor M it holds length / M samples, so windows read from it are decoded and
+ * transformed at the reduced rate.
+ */
+final class DecimatedPcmSource implements PcmSource {
+    /**
+     * number of input samples decoded at a time
+     */
+    private static final int BLOCK = 4096;
+    private final double[] samples;
+    private final int sampleRate;
+
+    /**
+     * @param source - recording to decimate
+     * @param decimator - fresh decimator to run it through
+     */
+    DecimatedPcmSource(final PcmSource source, final PolyphaseDecimator decimator) {
+        int length = source.length();
+        samples = new double[length / decimator.getFactor()];
+        sampleRate = source.getSampleRate() / decimator.getFactor();
+        double[] block = new double[BLOCK];
+        int out = 0;
+        for (int start = 0; start < length; start += BLOCK) {
+            int count = Math.min(BLOCK, length - start);
+            source.read(start, block, 0, count);
+            for (int i = 0; i < count; i++) {
+                if (decimator.push(block[i])) {
+                    samples[out++] = decimator.output();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return decimated sampling rate, rounded down. BandLimit.getOutputRate has the exact rate
+     */
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        return 1;
+    }
+
+    @Override
+    public int length() {
+        return samples.length;
+    }
+
+    @Override
+    public void read(final int start, final double[] dst, final int dstOffset, final int count) {
+        System.arraycopy(samples, start, dst, dstOffset, count);
+    }
+
+    @Override
+    public void read(final int start, final float[] dst, final int dstOffset, final int count) {
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = (float) samples[start + i];
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package chirp.me.in.utils;
+
+/**
+ * Decides the auth result while the chirp is still being recorded. Peaks (window center time,
+ * frequency) are fed in as the windows are analyzed, and a regression over the most recent
+ * minFrames of them is kept up to date with one add and one remove per window. The chirp segment
+ * is wherever that sliding fit is linear (r^2 > tau): before playback, after it and across its
+ * edges the peaks are noise and the fit is not.
+ *
+ * Once the fit is linear, the slope decides if it is conclusive, i.e. if the whole confidence
+ * interval of the slope (slope +- CONFIDENCE standard errors) lies inside the accepted range
+ * of ChirpAnalyzer.slopeMatches (accept), or entirely outside it (reject). Otherwise
+ * the decision stays UNDECIDED and the recording is analyzed as a whole once playback stops.
+ * The first conclusive outcome is kept, later peaks are ignored.
+ *
+ * Not thread safe, meant to be fed from the "capture-writer" thread of WavMaker (see
+ * StreamingSpectrumAnalyzer.setEarlyDecision).
+ */
+public class EarlyDecision {
+    /**
+     * default length of the sliding fit, long enough that the staircase of whole bin peak
+     * frequencies does not bias the slope by more than a fraction of delta
+     */
+    public static final double DEFAULT_MIN_SECONDS = 1.0;
+    /**
+     * number of slope standard errors the confidence interval spans on each side
+     */
+    public static final double CONFIDENCE = 3.0;
+
+    public enum Outcome {
+        UNDECIDED,
+        ACCEPT,
+        REJECT
+    }
+
+    /**
+     * called once, from the thread feeding peaks, when the outcome is first conclusive
+     */
+    public interface Listener {
+        void onDecision(EarlyDecision decision);
+    }
+
+    private final double tau;
+    private final double delta;
+    private final double trueSlope;
+    private final int minFrames;
+    /**
+     * last minFrames peaks, oldest at next once full
+     */
+    private final double[] times;
+    private final double[] frequencies;
+    private int next = 0;
+    private final RunningRegression fit = new RunningRegression();
+    private int frames = 0;
+    private Outcome outcome = Outcome.UNDECIDED;
+    /**
+     * snapshot of the fit that was conclusive, null while undecided
+     */
+    private LinearRegression decidingFit = null;
+    /**
+     * time of the last peak of the conclusive fit
+     */
+    private double decisionTime = Double.NaN;
+
+    /**
+     * @param config - auth thresholds (tau, delta)
+     * @param trueSlope - slope of the chirp being played
+     * @param minFrames - number of windows the sliding fit spans, at least 3
+     */
+    public EarlyDecision(final ChirpAnalysisConfig config, final double trueSlope,
+                         final int minFrames) {
+        if (minFrames < 3) {
+            throw new IllegalArgumentException("fit needs at least 3 frames");
+        }
+        this.tau = config.getTau();
+        this.delta = config.getDelta();
+        this.trueSlope = trueSlope;
+        this.minFrames = minFrames;
+        this.times = new double[minFrames];
+        this.frequencies = new double[minFrames];
+    }
+
+    /**
+     * add the peak of the next window
+     * @param time - window center time (s)
+     * @param frequency - peak frequency (Hz)
+     * @return outcome so far
+     */
+    public Outcome add(final double time, final double frequency) {
+        if (outcome != Outcome.UNDECIDED) {
+            return outcome;
+        }
+        if (fit.count() == minFrames) {
+            fit.remove(times[next], frequencies[next]);
+        }
+        times[next] = time;
+        frequencies[next] = frequency;
+        next = next + 1 == minFrames ? 0 : next + 1;
+        fit.add(time, frequency);
+        frames++;
+
+        // NaN r^2 (a constant frequency, e.g. every peak at the floor) is not linear either
+        if (fit.count() == minFrames && fit.R2() > tau) {
+            // the slope test of ChirpAnalyzer.accepts, passed or failed by the whole interval
+            double margin = CONFIDENCE * fit.slopeStdErr();
+            if (ChirpAnalyzer.slopeMatches(fit.slope(), margin, trueSlope, delta)) {
+                outcome = Outcome.ACCEPT;
+            } else if (!ChirpAnalyzer.slopeMatches(fit.slope(), -margin, trueSlope, delta)) {
+                outcome = Outcome.REJECT;
+            }
+            if (outcome != Outcome.UNDECIDED) {
+                decidingFit = fit.toLinearRegression();
+                decisionTime = time;
+            }
+        }
+        return outcome;
+    }
+
+    /**
+     * @return whether the outcome is conclusive
+     */
+    public boolean isDecided() {
+        return outcome != Outcome.UNDECIDED;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return whether the recording was accepted, only meaningful once decided
+     */
+    public boolean accepted() {
+        return outcome == Outcome.ACCEPT;
+    }
+
+    /**
+     * @return fit over the minFrames windows that decided the outcome, or null if undecided
+     */
+    public LinearRegression getDecidingFit() {
+        return decidingFit;
+    }
+
+    /**
+     * @return time (s) of the window that decided the outcome, NaN if undecided
+     */
+    public double getDecisionTime() {
+        return decisionTime;
+    }
+
+    /**
+     * @return number of windows added before the outcome was decided, or so far if undecided
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return number of windows the sliding fit spans
+     */
+    public int getMinFrames() {
+        return minFrames;
+    }
+
+    @Override
+    public String toString() {
+        return outcome + " after " + frames + " frames"
+                + (decidingFit == null ? "" : " at " + String.format("%.3f", decisionTime)
+                + " s, " + decidingFit);
+    }
+}
@@ -6,11 +6,13 @@ package chirp.me.in.utils;
  * Based on the algorithms originally published by E. Oran Brigham "The Fast Fourier Transform"
  * 1973, in ALGOL60 and FORTRAN
  *
- * Performs FastFourierTransform with no optimizations
+ * Performs FastFourierTransform, see FFTPlan for the precomputed in-place engine
  */
 public class FFT {
     /**
-     * The Fast Fourier Transform (generic version, with NO optimizations).
+     * The Fast Fourier Transform (generic version). Kept for compatibility, delegates to a
+     * cached FFTPlan; callers transforming many windows should use FFTPlan directly on their
+     * own buffers to avoid the copies made here.
      *
      * @param inputReal
      *            an array of length n, the real part
@@ -22,113 +24,54 @@ public class FFT {
      */
     public static double[] fft(final double[] inputReal, double[] inputImag,
                                boolean DIRECT) {
-        // - n is the dimension of the problem
-        // - nu is its logarithm in base e
         int n = inputReal.length;
 
-        // If n is a power of 2, then ld is an integer (_without_ decimals)
-        double ld = Math.log(n) / Math.log(2.0);
-
-        // Here I check if n is a power of 2. If exist decimals in ld, I quit
-        // from the function returning null.
-        if (((int) ld) - ld != 0) {
+        // Here I check if n is a power of 2, if not I quit from the function returning null.
+        if (n == 0 || (n & (n - 1)) != 0) {
             System.out.println("The number of elements is not a power of 2.");
             return null;
         }
 
-        // Declaration and initialization of the variables
-        // ld should be an integer, actually, so I don't lose any information in
-        // the cast
-        int nu = (int) ld;
-        int n2 = n / 2;
-        int nu1 = nu - 1;
+        // I don't want to overwrite the input arrays, so here I copy them.
         double[] xReal = new double[n];
         double[] xImag = new double[n];
-        double tReal, tImag, p, arg, c, s;
+        System.arraycopy(inputReal, 0, xReal, 0, n);
+        System.arraycopy(inputImag, 0, xImag, 0, n);
 
-        // Here I check if I'm going to do the direct transform or the inverse
-        // transform.
-        double constant;
-        if (DIRECT)
-            constant = -2 * Math.PI;
-        else
-            constant = 2 * Math.PI;
+        FFTPlan.forSize(n).transform(xReal, xImag, DIRECT);
 
-        // I don't want to overwrite the input arrays, so here I copy them. This
-        // choice adds \Theta(2n) to the complexity.
+        // Here I have to mix xReal and xImag to have an array (the plan already normalized
+        // the output the way Mathematica does)
+        double[] newArray = new double[n * 2];
         for (int i = 0; i < n; i++) {
-            xReal[i] = inputReal[i];
-            xImag[i] = inputImag[i];
-        }
-
-        // First phase - calculation
-        int k = 0;
-        for (int l = 1; l <= nu; l++) {
-            while (k < n) {
-                for (int i = 1; i <= n2; i++) {
-                    p = bitReverseReference(k >> nu1, nu);
-                    // direct FFT or inverse FFT
-                    arg = constant * p / n;
-                    c = Math.cos(arg);
-                    s = Math.sin(arg);
-                    tReal = xReal[k + n2] * c + xImag[k + n2] * s;
-                    tImag = xImag[k + n2] * c - xReal[k + n2] * s;
-                    xReal[k + n2] = xReal[k] - tReal;
-                    xImag[k + n2] = xImag[k] - tImag;
-                    xReal[k] += tReal;
-                    xImag[k] += tImag;
-                    k++;
-                }
-                k += n2;
-            }
-            k = 0;
-            nu1--;
-            n2 /= 2;
-        }
-
-        // Second phase - recombination
-        k = 0;
-        int r;
-        while (k < n) {
-            r = bitReverseReference(k, nu);
-            if (r > k) {
-                tReal = xReal[k];
-                tImag = xImag[k];
-                xReal[k] = xReal[r];
-                xImag[k] = xImag[r];
-                xReal[r] = tReal;
-                xImag[r] = tImag;
-            }
-            k++;
-        }
-
-        // Here I have to mix xReal and xImag to have an array (yes, it should
-        // be possible to do this stuff in the earlier parts of the code, but
-        // it's here to readibility).
-        double[] newArray = new double[xReal.length * 2];
-        double radice = 1 / Math.sqrt(n);
-        for (int i = 0; i < newArray.length; i += 2) {
-            int i2 = i / 2;
-            // I used Stephen Wolfram's Mathematica as a reference so I'm going
-            // to normalize the output while I'm copying the elements.
-            newArray[i] = xReal[i2] * radice;
-            newArray[i + 1] = xImag[i2] * radice;
+            newArray[2 * i] = xReal[i];
+            newArray[2 * i + 1] = xImag[i];
         }
         return newArray;
     }
 
     /**
-     * The reference bit reverse function.
+     * Real-to-complex Fast Fourier Transform (direct only). Delegates to a cached RealFFTPlan,
+     * which performs an n/2 complex transform on the packed input.
+     *
+     * @param inputReal
+     *            an array of length n, the real signal
+     * @return a new array of length n + 2 holding the interleaved real and imaginary parts of
+     *         bins 0..n/2
+     * @throws IllegalArgumentException if n is not a power of 2 of at least 2
      */
-    private static int bitReverseReference(int j, int nu) {
-        int j2;
-        int j1 = j;
-        int k = 0;
-        for (int i = 1; i <= nu; i++) {
-            j2 = j1 / 2;
-            k = 2 * k + j1 - 2 * j2;
-            j1 = j2;
+    public static double[] realFft(final double[] inputReal) {
+        int n = inputReal.length;
+        int bins = n / 2 + 1;
+        double[] xReal = new double[bins];
+        double[] xImag = new double[bins];
+        RealFFTPlan.forSize(n).transform(inputReal, 0, xReal, xImag);
+
+        double[] newArray = new double[bins * 2];
+        for (int i = 0; i < bins; i++) {
+            newArray[2 * i] = xReal[i];
+            newArray[2 * i + 1] = xImag[i];
         }
-        return k;
+        return newArray;
     }
 }
@@ -0,0 +1,157 @@
+package chirp.me.in.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reusable radix-2 FFT for a single power of two size. Twiddle factors and the bit reversal
+ * permutation are computed once when the plan is built, and transforms are performed in place
+ * on caller owned buffers so that repeated transforms (e.g. every window of a spectrogram) do
+ * not allocate. Plans are immutable and cached per size, so they can be shared between threads.
+ *
+ * Produces the same output as FFT.fft (including the 1/sqrt(n) normalization)
+ */
+public final class FFTPlan {
+    /**
+     * plans that have already been built, keyed by transform size
+     */
+    private static final Map<Integer, FFTPlan> PLANS = new HashMap<>();
+    /**
+     * transform size
+     */
+    private final int n;
+    /**
+     * log2 of transform size
+     */
+    private final int nu;
+    /**
+     * cos(2 * pi * m / n) for m in [0, n/2)
+     */
+    private final double[] cosTable;
+    /**
+     * sin(2 * pi * m / n) for m in [0, n/2)
+     */
+    private final double[] sinTable;
+    /**
+     * twiddle index used by butterfly group g (the bit reversal of 2g), shared by all stages
+     */
+    private final int[] groupTwiddle;
+    /**
+     * bit reversal permutation applied after the butterfly stages
+     */
+    private final int[] bitReverse;
+    /**
+     * output normalization, 1 / sqrt(n)
+     */
+    private final double scale;
+
+    /**
+     * build plan for transform of size n
+     * @param n - transform size, must be a power of 2
+     */
+    private FFTPlan(final int n) {
+        this.n = n;
+        this.nu = Integer.numberOfTrailingZeros(n);
+        this.scale = 1 / Math.sqrt(n);
+
+        int half = n / 2;
+        cosTable = new double[half];
+        sinTable = new double[half];
+        for (int m = 0; m < half; m++) {
+            double arg = 2 * Math.PI * m / n;
+            cosTable[m] = Math.cos(arg);
+            sinTable[m] = Math.sin(arg);
+        }
+
+        groupTwiddle = new int[Math.max(half, 1)];
+        for (int g = 0; g < half; g++) {
+            groupTwiddle[g] = reverse(2 * g, nu);
+        }
+
+        bitReverse = new int[n];
+        for (int k = 0; k < n; k++) {
+            bitReverse[k] = reverse(k, nu);
+        }
+    }
+
+    /**
+     * get (possibly cached) plan for transform of size n
+     * @param n - transform size
+     * @return plan for size n
+     * @throws IllegalArgumentException if n is not a positive power of 2
+     */
+    public static synchronized FFTPlan forSize(final int n) {
+        if (n <= 0 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("The number of elements is not a power of 2.");
+        }
+        FFTPlan plan = PLANS.get(n);
+        if (plan == null) {
+            plan = new FFTPlan(n);
+            PLANS.put(n, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return transform size of this plan
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * perform transform in place, overwriting real and imag with the (normalized) result
+     * @param real - array of at least length n, the real part
+     * @param imag - array of at least length n, the imaginary part
+     * @param direct - TRUE = direct transform, FALSE = inverse transform
+     */
+    public void transform(final double[] real, final double[] imag, final boolean direct) {
+        // First phase - butterflies, twiddles looked up per group instead of recomputed
+        int n2 = n / 2;
+        for (int l = 1; l <= nu; l++) {
+            int groups = 1 << (l - 1);
+            for (int g = 0; g < groups; g++) {
+                int p = groupTwiddle[g];
+                double c = cosTable[p];
+                double s = direct ? -sinTable[p] : sinTable[p];
+                int start = 2 * g * n2;
+                int end = start + n2;
+                for (int k = start; k < end; k++) {
+                    double tReal = real[k + n2] * c + imag[k + n2] * s;
+                    double tImag = imag[k + n2] * c - real[k + n2] * s;
+                    real[k + n2] = real[k] - tReal;
+                    imag[k + n2] = imag[k] - tImag;
+                    real[k] += tReal;
+                    imag[k] += tImag;
+                }
+            }
+            n2 /= 2;
+        }
+
+        // Second phase - recombination
+        for (int k = 0; k < n; k++) {
+            int r = bitReverse[k];
+            if (r > k) {
+                double tReal = real[k];
+                double tImag = imag[k];
+                real[k] = real[r];
+                imag[k] = imag[r];
+                real[r] = tReal;
+                imag[r] = tImag;
+            }
+        }
+
+        // normalize to match FFT.fft
+        for (int k = 0; k < n; k++) {
+            real[k] *= scale;
+            imag[k] *= scale;
+        }
+    }
+
+    /**
+     * reverse the lowest nu bits of j
+     */
+    private static int reverse(final int j, final int nu) {
+        return nu == 0 ? 0 : Integer.reverse(j) >>> (32 - nu);
+    }
+}
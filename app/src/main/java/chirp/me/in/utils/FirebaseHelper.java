@@ -3,19 +3,19 @@ package chirp.me.in.utils;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.DocumentReference;
-import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.SetOptions;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
 import com.google.firebase.storage.UploadTask;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,7 +25,8 @@ import chirp.me.in.base.OnSuccessCallback;
 /**
  * Used as a helper for all firebase interactions:
  *  Authentication
- *  Communication protocol between Android and Web Applications
+ *  Communication protocol between Android and Web Applications, over a ProtocolTransport
+ *  (Firestore unless another transport is given)
  */
 public class FirebaseHelper {
     /**
@@ -82,13 +83,31 @@ public class FirebaseHelper {
      */
     private final boolean DEBUG;
     /**
-     * greatest percent deviation we allow between true slope and regression calculated slope
+     * constant imported from bools.xml
+     *  represents whether audio is analyzed while it is being recorded, so that only the crop and
+     *  regression are left to do once playback stops
+     */
+    private final boolean STREAMING_ANALYSIS;
+    /**
+     * constant imported from bools.xml
+     *  represents whether auth is decided by dechirping the recording with the expected slope
+     *  instead of by regression of the spectrogram peaks
+     */
+    private final boolean DECHIRP_DETECTOR;
+    /**
+     * constant imported from bools.xml
+     *  represents whether the auth result is published as soon as the chirp fit is conclusive
+     *  while recording, instead of once the web-app has set PLAYBACK_STOPPED
+     */
+    private final boolean EARLY_DECISION;
+    /**
+     * analysis settings and auth thresholds (r^2 > 0.95, slope deviation < 0.05)
      */
-    private final double DELTA = 0.05;
+    private final ChirpAnalyzer chirpAnalyzer = new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT);
     /**
-     * r^2 threshold we must pass to allow for auth success
+     * auth threshold when DECHIRP_DETECTOR is set
      */
-    private final double TAU = 0.95;
+    private final DechirpDetector dechirpDetector = new DechirpDetector(chirpAnalyzer.getConfig());
     /**
      * filename used for .wav file
      */
@@ -98,13 +117,9 @@ public class FirebaseHelper {
      */
     private final String absoluteFilePath;
     /**
-     * initial timestamp when flag is locally set to RECORDING_STARTED (in ms)
+     * places the chirp in the recording from the protocol's round trips, see LatencyEstimator
      */
-    private long timeStamp1 = -1;
-    /**
-     * second timestamp when flag is remotely set to PLAYBACK_STARTED (in ms)
-     */
-    private long timeStamp2 = -1;
+    private final LatencyEstimator latencyEstimator = new LatencyEstimator();
     /**
      * helper for recording
      */
@@ -114,15 +129,54 @@ public class FirebaseHelper {
      */
     private SoundProcessor soundProcessor;
     /**
-     * latency of transmissions
+     * latency of transmissions, delay between the start of recording and of playback
      */
     private long latencyMS = 0;
+    /**
+     * early decisions arrive on the capture-writer thread and are finished on the main thread,
+     * like snapshot updates
+     */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * whether the current recording has been stopped for a decision, so that only one of the
+     * early decision and PLAYBACK_STOPPED decides
+     */
+    private boolean recordingDecided = false;
+    /**
+     * auth result published early for the current recording, -1 if none
+     */
+    private int earlyAuthResult = -1;
+    /**
+     * SystemClock.elapsedRealtimeNanos when WAKE_UP of the current authentication arrived
+     */
+    private long sessionStartNanos = LatencyEstimator.NO_TIME;
+    /**
+     * time spent in each stage of the authentication, see PipelineMetrics
+     */
+    private final PipelineMetrics metrics = PipelineMetrics.get();
+    /**
+     * document store the flag protocol runs over
+     */
+    private final ProtocolTransport transport;
+    /**
+     * merges the writes of one protocol step into a single round trip
+     */
+    private final ProtocolWriteBatcher writeBatcher;
 
     /**
      * Construct a firebase helper, initializing constants, filepaths, and recording helper
      * @param context - application context
      */
     public FirebaseHelper(final Context context) {
+        this(context, new FirestoreTransport(FirebaseFirestore.getInstance()));
+    }
+
+    /**
+     * Construct a firebase helper running the protocol over transport
+     * @param context - application context
+     * @param transport - document store, delivering callbacks on the main thread
+     */
+    public FirebaseHelper(final Context context, final ProtocolTransport transport) {
         IDLE = context.getResources().getInteger(R.integer.IDLE);
         WAKE_UP = context.getResources().getInteger(R.integer.WAKE_UP);
         RECORDING_STARTED = context.getResources().getInteger(R.integer.RECORDING_STARTED);
@@ -133,15 +187,30 @@ public class FirebaseHelper {
         AUTH_SUCCESS = context.getResources().getInteger(R.integer.AUTH_SUCCESS);
         AUTH_FAILURE = context.getResources().getInteger(R.integer.AUTH_FAILURE);
         DEBUG = context.getResources().getBoolean(R.bool.DEBUG);
+        STREAMING_ANALYSIS = context.getResources().getBoolean(R.bool.STREAMING_ANALYSIS);
+        DECHIRP_DETECTOR = context.getResources().getBoolean(R.bool.DECHIRP_DETECTOR);
+        EARLY_DECISION = context.getResources().getBoolean(R.bool.EARLY_DECISION);
 
         // set absolute filepath for recording.wav
         absoluteFilePath = context.getExternalCacheDir().getAbsolutePath() + "/" + filename;
 
         recordingHelper = new RecordingHelper(context); // init recording helper
+        metrics.setProbe(new AndroidTraceProbe());   // emit stages as systrace sections
+        this.transport = transport;
+        writeBatcher = new ProtocolWriteBatcher(transport, mainHandler::post);
     }
 
     /**
-     * push firebase user to db, merging with existing user if already in db
+     * @param user - firebase user
+     * @return path of the user's document
+     */
+    private static String userDoc(final FirebaseUser user) {
+        return "users/" + user.getUid();
+    }
+
+    /**
+     * push firebase user to db, merging with existing user if already in db. Like every write
+     * below, this is batched with the other writes of the current protocol step
      * @param user - firebase user
      * @param onSuccessCallback - callback to perform on successful update
      */
@@ -151,12 +220,8 @@ public class FirebaseHelper {
         fbUser.put("email", user.getEmail());
         fbUser.put("id", user.getUid());
 
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        db.collection("users").document(user.getUid())
-            .set(fbUser, SetOptions.merge())
-            .addOnSuccessListener(aVoid -> onSuccessCallback.OnSuccess())
-            .addOnFailureListener(e -> Log.w("MY_AUTH", "Error writing document", e)
-        );
+        writeBatcher.write(userDoc(user), fbUser, onSuccessCallback,
+                e -> Log.w("MY_AUTH", "Error writing document", e));
     }
 
     /**
@@ -166,15 +231,41 @@ public class FirebaseHelper {
      * @param flag - represent system state, see integers.xml for explanation
      */
     public void updateFlag(final FirebaseUser user, final OnSuccessCallback onSuccessCallback, int flag) {
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        DocumentReference userDoc = db.collection("users").document(user.getUid());
-
         // set the 'flag' field to flag
-        userDoc.update("flag", flag)
-                .addOnSuccessListener(unused -> onSuccessCallback.OnSuccess())
-                .addOnFailureListener(e ->
-                        Log.d("MY_FIREBASE", "Failed to update user: " + user.getUid() +
-                        "to flag: " + flag));
+        writeBatcher.write(userDoc(user), "flag", flag, onSuccessCallback, e ->
+                Log.d("MY_FIREBASE", "Failed to update user: " + user.getUid() +
+                "to flag: " + flag));
+    }
+
+    /**
+     * set the RECORDING_STARTED flag along with a server timestamp, which the latency estimator
+     * anchors server time to the phone's clock with
+     * @param user - firebase user
+     * @param onSuccessCallback - to call on success
+     */
+    private void updateRecordingStarted(final FirebaseUser user,
+                                        final OnSuccessCallback onSuccessCallback) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("flag", RECORDING_STARTED);
+        fields.put("recordingStartedAt", ProtocolTransport.SERVER_TIMESTAMP);
+        latencyEstimator.anchorSent(SystemClock.elapsedRealtimeNanos());
+        writeBatcher.write(userDoc(user), fields, () -> {
+            latencyEstimator.anchorAcknowledged(SystemClock.elapsedRealtimeNanos());
+            onSuccessCallback.OnSuccess();
+        }, e -> Log.d("MY_FIREBASE", "Failed to update user: " + user.getUid() +
+                "to flag: " + RECORDING_STARTED));
+    }
+
+    /**
+     * read a server timestamp field of a snapshot
+     * @param data - fields of the user document
+     * @param field - field name
+     * @return epoch nanoseconds, or LatencyEstimator.NO_TIME if the field is not set (yet)
+     */
+    private static long serverNanos(final Map<String, Object> data, final String field) {
+        Object timestamp = data.get(field);
+        return timestamp instanceof Number ? ((Number) timestamp).longValue()
+                : LatencyEstimator.NO_TIME;
     }
 
     /**
@@ -188,19 +279,13 @@ public class FirebaseHelper {
      */
     public void updateMetrics(final FirebaseUser user, final OnSuccessCallback onSuccessCallback,
                               double slope, double r2) {
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        DocumentReference userDoc = db.collection("users").document(user.getUid());
-
-        // set the slope field to slope
-        userDoc.update("calculatedSlope", slope)
-            .addOnSuccessListener(unused ->
-                // set the r2 field to r2
-                userDoc.update("r2", r2)
-                    .addOnSuccessListener(unused1 -> onSuccessCallback.OnSuccess())
-                    .addOnFailureListener(e -> Log.d("MY_FIREBASE",
-                            "Failed to update user: " + user.getUid() + " r2 to: " + r2)))
-            .addOnFailureListener(e -> Log.d("MY_FIREBASE", "Failed to update user: "
-                    + user.getUid() + " slope to: " + slope));
+        // set the slope and r2 fields together
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("calculatedSlope", slope);
+        metrics.put("r2", r2);
+        writeBatcher.write(userDoc(user), metrics, onSuccessCallback, e ->
+                Log.d("MY_FIREBASE", "Failed to update user: " + user.getUid() +
+                " slope to: " + slope + ", r2 to: " + r2));
     }
 
     /**
@@ -211,15 +296,26 @@ public class FirebaseHelper {
      * @param latency - initial latency between two communications
      */
     public void updateLatency(final FirebaseUser user, final OnSuccessCallback onSuccessCallback, long latency) {
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        DocumentReference userDoc = db.collection("users").document(user.getUid());
-
         // set the 'latency' field to latency
-        userDoc.update("latencyMS", latency)
-                .addOnSuccessListener(unused -> onSuccessCallback.OnSuccess())
-                .addOnFailureListener(e ->
-                        Log.d("MY_FIREBASE", "Failed to update user: " + user.getUid() +
-                                "to flag: " + latency));
+        writeBatcher.write(userDoc(user), "latencyMS", latency, onSuccessCallback, e ->
+                Log.d("MY_FIREBASE", "Failed to update user: " + user.getUid() +
+                        "to flag: " + latency));
+    }
+
+    /**
+     * initialize the recorder ahead of the next WAKE_UP (see RecordingHelper.warmUp), e.g. when
+     * the app returns to the foreground signed in
+     */
+    public void warmUpRecorder() {
+        recordingHelper.warmUp(filename);
+    }
+
+    /**
+     * free the recorder kept ready by warmUpRecorder, e.g. on sign out or when the app leaves the
+     * foreground
+     */
+    public void releaseRecorder() {
+        recordingHelper.release();
     }
 
     /**
@@ -229,11 +325,9 @@ public class FirebaseHelper {
      * @param user - the firebase user to query
      * @param onUpdate - the callback to perform on document update
      */
-    private void addSnapshotListener(final FirebaseUser user, final EventListener<DocumentSnapshot> onUpdate) {
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        DocumentReference userDoc = db.collection("users").document(user.getUid());
-
-        userDoc.addSnapshotListener(onUpdate);
+    private void addSnapshotListener(final FirebaseUser user,
+                                     final ProtocolTransport.DocumentListener onUpdate) {
+        transport.subscribe(userDoc(user), onUpdate);
     }
 
     /**
@@ -244,7 +338,10 @@ public class FirebaseHelper {
      * @param context - the calling application context
      */
     public void initPollingProcedure(final FirebaseUser user, final Context context) {
-        // pushe user profile to db and toast on success
+        // have the recorder ready before the first WAKE_UP
+        warmUpRecorder();
+
+        // pushe user profile to db and toast on success, sent in one batch with the idle flag
         pushUser(user, () -> Log.d("MY_FIREBASE","Pushed user profile to db"));
 
         // set flag to idle
@@ -260,109 +357,272 @@ public class FirebaseHelper {
             (e.g. flag==WAKE_UP tells the phone to start recording and then set the flag to
             RECORDING_STARTED so that the web-app can begin playback)
          */
-        addSnapshotListener(user, (snapshot, e) -> {
+        addSnapshotListener(user, (data, e) -> {
             if (e != null) {
                 Log.w("MY_SNAPSHOT", "Listen failed.", e);
             }
 
-            if (snapshot != null && snapshot.exists()) {
-                Log.d("MY_SNAPSHOT", "Current data: " + snapshot.getData());
+            if (data != null) {
+                Log.d("MY_SNAPSHOT", "Current data: " + data);
 
                 // extract flag value, assert != null
                 int flag;
-                Object o = snapshot.get("flag", Integer.TYPE);
+                Object o = data.get("flag");
                 assert o != null;
-                flag = (int) o;
+                flag = ((Number) o).intValue();
+
+                // note when each flag arrived into the authentication
+                long arrival = SystemClock.elapsedRealtimeNanos();
+                if (flag == WAKE_UP) {
+                    sessionStartNanos = arrival;
+                }
+                if (sessionStartNanos != LatencyEstimator.NO_TIME) {
+                    metrics.record(PipelineMetrics.SNAPSHOT + flagName(flag),
+                            arrival - sessionStartNanos);
+                }
+                PipelineMetrics.Section handling = metrics.begin(PipelineMetrics.FLAG + flagName(flag));
 
                 // to perform on IDLE
                 if(flag == IDLE) {  // flag is usually IDLE as system is idle
                     // do nothing
                 } else if(flag == WAKE_UP) {    // computer tells phone to wake up, start record
-                    // begin recording
-                    recordingHelper.startRecording(
-                            () -> {
-                                // note the time
-                                timeStamp1 = System.currentTimeMillis();
-                                // update flag
-                                updateFlag(user, () -> Log.d("MY_FIREBASE", "Flag set to RECORDING_STARTED"), RECORDING_STARTED);
-                            },
-                            filename
-                    );
+                    recordingDecided = false;
+                    earlyAuthResult = -1;
+                    latencyEstimator.startSession();
+                    OnSuccessCallback onRecordingStarted = () -> {
+                        // note the time of the first recorded sample
+                        latencyEstimator.recordingStarted(recordingHelper.getRecordingStartNanos());
+                        // update flag
+                        updateRecordingStarted(user, () -> Log.d("MY_FIREBASE", "Flag set to RECORDING_STARTED"));
+                    };
+                    // the early decision needs the slope of the chirp about to be played
+                    Object s = data.get("slope");
+                    if (EARLY_DECISION && STREAMING_ANALYSIS && !DECHIRP_DETECTOR && s != null) {
+                        // begin recording, deciding as soon as the chirp fit is conclusive
+                        recordingHelper.startRecording(
+                                onRecordingStarted,
+                                filename,
+                                ((Number) s).doubleValue(),
+                                // stopping joins the capture-writer thread this is called
+                                // from, so only post the decision to the main thread
+                                decision -> mainHandler.post(() -> finishEarly(user, decision))
+                        );
+                    } else {
+                        // begin recording
+                        recordingHelper.startRecording(
+                                onRecordingStarted,
+                                filename,
+                                // nothing to stream when deciding by dechirping
+                                STREAMING_ANALYSIS && !DECHIRP_DETECTOR
+                        );
+                    }
 
                 } else if(flag == RECORDING_STARTED) {  // phone has begun recording
                     // do nothing
                 } else if(flag == PLAYBACK_STARTED) {   // computer has begun playback
-                    // note the time
-                    timeStamp2 = System.currentTimeMillis();
+                    // note the time, on the server too if the web-app stamped it
+                    latencyEstimator.anchorServerTime(serverNanos(data, "recordingStartedAt"));
+                    latencyEstimator.playbackStarted(arrival, serverNanos(data, "playbackStartedAt"));
                     // calculate latency in ms
-                    latencyMS = timeStamp2 - timeStamp1;
+                    latencyMS = latencyEstimator.getLatencyMS();
+                } else if(flag == PLAYBACK_STOPPED && earlyAuthResult != -1) {
+                    // already decided while recording, publish the result again in place of
+                    // PLAYBACK_STOPPED
+                    updateFlag(
+                        user,
+                        () -> Log.d("MY_REGRESSION", "Flag set to " +
+                                (earlyAuthResult == AUTH_FAILURE ? "AUTH_FAILURE" : "AUTH_SUCCESS")),
+                        earlyAuthResult
+                    );
                 } else if(flag == PLAYBACK_STOPPED) {   // playback stopped, process signal
-                    // set flag to PERFORMING_ANALYSIS to avoid firebase looping on snapshot listener
+                    recordingDecided = true;
+                    latencyEstimator.anchorServerTime(serverNanos(data, "recordingStartedAt"));
+                    latencyEstimator.playbackStopped(arrival, serverNanos(data, "playbackStoppedAt"));
+                    // set flag to PERFORMING_ANALYSIS to avoid firebase looping on snapshot
+                    // listener. Analysis does not wait for the write, so when it finishes
+                    // within this step the result flag replaces it in the same batch
                     updateFlag(
                         user,
-                        // on update flag success, update slope and r^2 from regression
-                        () -> {
-                            Log.d("MY_FIREBASE", "Flag set to PERFORMING_ANALYSIS");
-                            final LinearRegression[] regression = new LinearRegression[1];
-                            // stop recording audio then perform linear regression on FFT data
-                            recordingHelper.stopRecording(() -> {
-                                soundProcessor = new SoundProcessor(absoluteFilePath, context);
-                                // get linear regression (slope and r^2) on data
-                                regression[0] = soundProcessor.getLinearRegression(latencyMS);
-
-                                Log.d("MY_REGRESSION", "Slope: " + regression[0].slope()
-                                        + ", R^2: " + regression[0].R2());
-
-                                // get true slope value
-                                double trueSlope;
-                                Object s = snapshot.get("slope", Double.TYPE);
-                                assert s != null;
-                                trueSlope = (double) s;
-
-                                // calculate percent difference as abs((true-measured)/true)
-                                double percentDifference = Math.abs((trueSlope - regression[0].slope()) / trueSlope);
-                                // succeed if r^2 > 0.95 and 1 - ratio < 0.05
-                                int authResult =
-                                        regression[0].R2() > TAU && 1 - percentDifference < DELTA ?
-                                                AUTH_SUCCESS : AUTH_FAILURE;
-                                // upload recording.wav and spectrogram.png files to firebase
-                                if(DEBUG){
-                                    uploadFile(
-                                            user,
-                                            "recordings",
-                                            "recording.wav",
-                                            context.getExternalCacheDir()
-                                                    .getAbsolutePath()
-                                    );
-                                    uploadFile(
-                                            user,
-                                            "recordings",
-                                            "spectrogram.png",
-                                            Environment.getExternalStorageDirectory()
-                                                    .getAbsolutePath()
-                                    );
-                                }
-                                // update flag based on authResult
-                                updateFlag(
-                                    user,
-                                    () -> Log.d("MY_REGRESSION", "Flag set to " +
-                                            (authResult == AUTH_FAILURE ?
-                                                    "AUTH_FAILURE" : "AUTH_SUCCESS")),
-                                    authResult
-                                );
-                            });
-                        },
+                        () -> Log.d("MY_FIREBASE", "Flag set to PERFORMING_ANALYSIS"),
                         PERFORMING_ANALYSIS
                     );
+                    final LinearRegression[] regression = new LinearRegression[1];
+                    // stop recording audio then perform linear regression on FFT data
+                    recordingHelper.stopRecording(() -> {
+                        // the recorder places its first sample more exactly once stopped
+                        latencyEstimator.recordingStarted(recordingHelper.getRecordingStartNanos());
+                        // crop to where the chirp was played if it could be placed
+                        boolean chirpPlaced = latencyEstimator.hasChirpWindow();
+                        double chirpStart = latencyEstimator.getChirpStartSeconds();
+                        double chirpEnd = latencyEstimator.getChirpEndSeconds();
+                        Log.d("MY_LATENCY", latencyEstimator.toString());
+                        PcmRingBuffer capture = recordingHelper.getRingBuffer();
+                        if (DEBUG && capture != null) {
+                            // captured in memory only, write recording.wav for upload
+                            try {
+                                capture.writeWav(new File(absoluteFilePath));
+                            } catch (IOException ex) {
+                                Log.d("MY_STORAGE", "Failed to write " + filename, ex);
+                            }
+                        }
+                        // the capture lacks the frames it overwrote if recording outlasted it,
+                        // so times since the start of recording come that much earlier in it
+                        double droppedS = capture == null ? 0.0 : capture.getStartSeconds();
+                        boolean cropByTime = chirpPlaced || droppedS > 0;
+                        double cropStart = chirpStart - droppedS;
+                        double cropEnd = chirpEnd - droppedS;
+                        if (!chirpPlaced && droppedS > 0) {
+                            // crop sigma * latency off the whole recording, not what is left
+                            double latencyS =
+                                    latencyMS * chirpAnalyzer.getConfig().getSigma() / 1000.0;
+                            cropStart = latencyS - droppedS;
+                            cropEnd = (double) capture.length() / capture.getSampleRate()
+                                    - latencyS;
+                        }
+                        if (droppedS > 0) {
+                            Log.d("MY_RECORDER", "Capture overwrote its first " + droppedS + " s");
+                        }
+                        // get true slope value
+                        double trueSlope;
+                        Object s = data.get("slope");
+                        assert s != null;
+                        trueSlope = ((Number) s).doubleValue();
+
+                        boolean accepted;
+                        if (DECHIRP_DETECTOR) {
+                            // dechirp with the expected slope and check the tone's SNR
+                            soundProcessor = createSoundProcessor(capture, context);
+                            DechirpResult dechirp = cropByTime
+                                    ? soundProcessor.getDechirpResult(trueSlope, cropStart, cropEnd)
+                                    : soundProcessor.getDechirpResult(trueSlope, latencyMS);
+                            Log.d("MY_REGRESSION", "Dechirp: " + dechirp);
+                            accepted = dechirpDetector.accepts(dechirp, trueSlope);
+                        } else {
+                            StreamingSpectrumAnalyzer analyzer = recordingHelper.getAnalyzer();
+                            if (analyzer != null) {
+                                // spectrum was analyzed while recording, only crop and regress
+                                regression[0] = chirpPlaced
+                                        ? analyzer.getLinearRegression(chirpStart, chirpEnd)
+                                        : analyzer.getLinearRegression(latencyMS);
+                                if (DEBUG) {
+                                    // still process the recording to produce spectrogram.png
+                                    soundProcessor = createSoundProcessor(capture, context);
+                                    Log.d("MY_REGRESSION", "Post-hoc: " + (cropByTime
+                                            ? soundProcessor.getLinearRegression(cropStart, cropEnd)
+                                            : soundProcessor.getLinearRegression(latencyMS)));
+                                }
+                            } else {
+                                soundProcessor = createSoundProcessor(capture, context);
+                                // get linear regression (slope and r^2) on data
+                                regression[0] = cropByTime
+                                        ? soundProcessor.getLinearRegression(cropStart, cropEnd)
+                                        : soundProcessor.getLinearRegression(latencyMS);
+                            }
+
+                            Log.d("MY_REGRESSION", "Slope: " + regression[0].slope()
+                                    + ", R^2: " + regression[0].R2());
+                            // succeed if r^2 > tau and abs((true-measured)/true) < delta
+                            accepted = chirpAnalyzer.accepts(regression[0], trueSlope);
+                        }
+                        int authResult = accepted ? AUTH_SUCCESS : AUTH_FAILURE;
+                        // upload recording.wav and spectrogram.png files to firebase
+                        if(DEBUG){
+                            uploadFile(
+                                    user,
+                                    "recordings",
+                                    "recording.wav",
+                                    context.getExternalCacheDir()
+                                            .getAbsolutePath()
+                            );
+                            uploadFile(
+                                    user,
+                                    "recordings",
+                                    "spectrogram.png",
+                                    Environment.getExternalStorageDirectory()
+                                            .getAbsolutePath()
+                            );
+                        }
+                        // update flag based on authResult
+                        updateFlag(user, onResultWritten(authResult), authResult);
+                    });
                 } else if(flag == PERFORMING_ANALYSIS) {
                     // do nothing
                 }
+                handling.end();
             } else {
                 Log.d("MY_SNAPSHOT", "Current data: null");
             }
         });
     }
 
+    /**
+     * stop recording and publish the auth result of a conclusive early decision, unless the
+     * recording it was made on has already been stopped
+     * @param user - firebase user
+     * @param decision - conclusive early decision
+     */
+    private void finishEarly(final FirebaseUser user, final EarlyDecision decision) {
+        StreamingSpectrumAnalyzer analyzer = recordingHelper.getAnalyzer();
+        if (recordingDecided || analyzer == null || analyzer.getEarlyDecision() != decision) {
+            return;
+        }
+        recordingDecided = true;
+        recordingHelper.stopRecording(() -> {
+            Log.d("MY_REGRESSION", "Early decision: " + decision);
+            earlyAuthResult = decision.accepted() ? AUTH_SUCCESS : AUTH_FAILURE;
+            updateFlag(user, onResultWritten(earlyAuthResult), earlyAuthResult);
+        });
+    }
+
+    /**
+     * callback for the write of an auth result: logs it and records how long the write and the
+     * whole authentication took
+     * @param authResult - AUTH_SUCCESS or AUTH_FAILURE
+     * @return callback to pass to updateFlag right away
+     */
+    private OnSuccessCallback onResultWritten(final int authResult) {
+        final long sent = SystemClock.elapsedRealtimeNanos();
+        final long sessionStart = sessionStartNanos;
+        return () -> {
+            long acknowledged = SystemClock.elapsedRealtimeNanos();
+            Log.d("MY_REGRESSION", "Flag set to " + flagName(authResult));
+            metrics.record(PipelineMetrics.RESULT_WRITE, acknowledged - sent);
+            if (sessionStart != LatencyEstimator.NO_TIME) {
+                metrics.record(PipelineMetrics.AUTH, acknowledged - sessionStart);
+            }
+            Log.d("MY_METRICS", metrics.toString());
+        };
+    }
+
+    /**
+     * @param flag - flag value from integers.xml
+     * @return name of the flag, or its value if unknown
+     */
+    private String flagName(final int flag) {
+        if (flag == IDLE) return "IDLE";
+        if (flag == WAKE_UP) return "WAKE_UP";
+        if (flag == RECORDING_STARTED) return "RECORDING_STARTED";
+        if (flag == PLAYBACK_STARTED) return "PLAYBACK_STARTED";
+        if (flag == PLAYBACK_STOPPED) return "PLAYBACK_STOPPED";
+        if (flag == PERFORMING_ANALYSIS) return "PERFORMING_ANALYSIS";
+        if (flag == METRICS_UPLOADED) return "METRICS_UPLOADED";
+        if (flag == AUTH_SUCCESS) return "AUTH_SUCCESS";
+        if (flag == AUTH_FAILURE) return "AUTH_FAILURE";
+        return String.valueOf(flag);
+    }
+
+    /**
+     * create sound processor reading the last recording from memory if it was captured there,
+     * otherwise from recording.wav
+     * @param capture - in memory capture of the recording, or null
+     * @param context - the calling application context
+     * @return sound processor for the recording
+     */
+    private SoundProcessor createSoundProcessor(final PcmRingBuffer capture, final Context context) {
+        return capture != null ? new SoundProcessor(capture, context)
+                : new SoundProcessor(absoluteFilePath, context);
+    }
+
     /**
      * upload file [filename] from local file to storage "[bucketName]/[UID]/[filename]"
      * @param user - firebase user to update
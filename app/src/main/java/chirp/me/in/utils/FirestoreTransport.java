@@ -0,0 +1,107 @@
+package chirp.me.in.utils;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import chirp.me.in.base.OnFailureCallback;
+import chirp.me.in.base.OnSuccessCallback;
+
+/**
+ * Runs the protocol over Firestore, callbacks are called on the main thread
+ */
+public class FirestoreTransport implements ProtocolTransport {
+    private final FirebaseFirestore db;
+
+    /**
+     * @param db - firestore instance the documents belong to
+     */
+    public FirestoreTransport(final FirebaseFirestore db) {
+        this.db = db;
+    }
+
+    @Override
+    public void set(final String path, final Map<String, Object> fields,
+                    final OnSuccessCallback onSuccess, final OnFailureCallback onFailure) {
+        db.document(path).set(toFirestore(fields))
+                .addOnSuccessListener(unused -> onSuccess.OnSuccess())
+                .addOnFailureListener(onFailure::OnFailure);
+    }
+
+    @Override
+    public void merge(final String path, final Map<String, Object> fields,
+                      final OnSuccessCallback onSuccess, final OnFailureCallback onFailure) {
+        db.document(path).set(toFirestore(fields), SetOptions.merge())
+                .addOnSuccessListener(unused -> onSuccess.OnSuccess())
+                .addOnFailureListener(onFailure::OnFailure);
+    }
+
+    @Override
+    public Batch batch() {
+        final WriteBatch batch = db.batch();
+        return new Batch() {
+            @Override
+            public Batch set(final String path, final Map<String, Object> fields) {
+                batch.set(db.document(path), toFirestore(fields));
+                return this;
+            }
+
+            @Override
+            public Batch merge(final String path, final Map<String, Object> fields) {
+                batch.set(db.document(path), toFirestore(fields), SetOptions.merge());
+                return this;
+            }
+
+            @Override
+            public void commit(final OnSuccessCallback onSuccess,
+                               final OnFailureCallback onFailure) {
+                batch.commit()
+                        .addOnSuccessListener(unused -> onSuccess.OnSuccess())
+                        .addOnFailureListener(onFailure::OnFailure);
+            }
+        };
+    }
+
+    @Override
+    public Subscription subscribe(final String path, final DocumentListener listener) {
+        ListenerRegistration registration = db.document(path).addSnapshotListener((snapshot, e) ->
+                listener.onUpdate(snapshot != null && snapshot.exists()
+                        ? fromFirestore(snapshot.getData()) : null, e));
+        return registration::remove;
+    }
+
+    /**
+     * @param fields - fields as written to the transport
+     * @return fields as written to firestore
+     */
+    private static Map<String, Object> toFirestore(final Map<String, Object> fields) {
+        Map<String, Object> converted = new HashMap<>(fields);
+        for (Map.Entry<String, Object> entry : converted.entrySet()) {
+            if (entry.getValue() == SERVER_TIMESTAMP) {
+                entry.setValue(FieldValue.serverTimestamp());
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * @param fields - fields as read from firestore, may be null
+     * @return fields as read from the transport, with timestamps in epoch nanoseconds
+     */
+    private static Map<String, Object> fromFirestore(final Map<String, Object> fields) {
+        Map<String, Object> converted = fields == null ? new HashMap<>() : new HashMap<>(fields);
+        for (Map.Entry<String, Object> entry : converted.entrySet()) {
+            if (entry.getValue() instanceof Timestamp) {
+                Timestamp timestamp = (Timestamp) entry.getValue();
+                entry.setValue(timestamp.getSeconds() * 1000000000L + timestamp.getNanoseconds());
+            }
+        }
+        return converted;
+    }
+}
@@ -0,0 +1,155 @@
+package chirp.me.in.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single precision version of FFTPlan, for the float analysis path. Same algorithm and conventions
+ * (including the 1/sqrt(n) normalization), with tables and buffers in float so they take half
+ * the memory and cache. FFTPlan remains the reference implementation.
+ */
+public final class FloatFFTPlan {
+    /**
+     * plans that have already been built, keyed by transform size
+     */
+    private static final Map<Integer, FloatFFTPlan> PLANS = new HashMap<>();
+    /**
+     * transform size
+     */
+    private final int n;
+    /**
+     * log2 of transform size
+     */
+    private final int nu;
+    /**
+     * cos(2 * pi * m / n) for m in [0, n/2)
+     */
+    private final float[] cosTable;
+    /**
+     * sin(2 * pi * m / n) for m in [0, n/2)
+     */
+    private final float[] sinTable;
+    /**
+     * twiddle index used by butterfly group g (the bit reversal of 2g), shared by all stages
+     */
+    private final int[] groupTwiddle;
+    /**
+     * bit reversal permutation applied after the butterfly stages
+     */
+    private final int[] bitReverse;
+    /**
+     * output normalization, 1 / sqrt(n)
+     */
+    private final float scale;
+
+    /**
+     * build plan for transform of size n
+     * @param n - transform size, must be a power of 2
+     */
+    private FloatFFTPlan(final int n) {
+        this.n = n;
+        this.nu = Integer.numberOfTrailingZeros(n);
+        this.scale = (float) (1 / Math.sqrt(n));
+
+        int half = n / 2;
+        cosTable = new float[half];
+        sinTable = new float[half];
+        for (int m = 0; m < half; m++) {
+            // computed in double so the tables are correctly rounded
+            double arg = 2 * Math.PI * m / n;
+            cosTable[m] = (float) Math.cos(arg);
+            sinTable[m] = (float) Math.sin(arg);
+        }
+
+        groupTwiddle = new int[Math.max(half, 1)];
+        for (int g = 0; g < half; g++) {
+            groupTwiddle[g] = reverse(2 * g, nu);
+        }
+
+        bitReverse = new int[n];
+        for (int k = 0; k < n; k++) {
+            bitReverse[k] = reverse(k, nu);
+        }
+    }
+
+    /**
+     * get (possibly cached) plan for transform of size n
+     * @param n - transform size
+     * @return plan for size n
+     * @throws IllegalArgumentException if n is not a positive power of 2
+     */
+    public static synchronized FloatFFTPlan forSize(final int n) {
+        if (n <= 0 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("The number of elements is not a power of 2.");
+        }
+        FloatFFTPlan plan = PLANS.get(n);
+        if (plan == null) {
+            plan = new FloatFFTPlan(n);
+            PLANS.put(n, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return transform size of this plan
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * perform transform in place, overwriting real and imag with the (normalized) result
+     * @param real - array of at least length n, the real part
+     * @param imag - array of at least length n, the imaginary part
+     * @param direct - TRUE = direct transform, FALSE = inverse transform
+     */
+    public void transform(final float[] real, final float[] imag, final boolean direct) {
+        // First phase - butterflies, twiddles looked up per group instead of recomputed
+        int n2 = n / 2;
+        for (int l = 1; l <= nu; l++) {
+            int groups = 1 << (l - 1);
+            for (int g = 0; g < groups; g++) {
+                int p = groupTwiddle[g];
+                float c = cosTable[p];
+                float s = direct ? -sinTable[p] : sinTable[p];
+                int start = 2 * g * n2;
+                int end = start + n2;
+                for (int k = start; k < end; k++) {
+                    float tReal = real[k + n2] * c + imag[k + n2] * s;
+                    float tImag = imag[k + n2] * c - real[k + n2] * s;
+                    real[k + n2] = real[k] - tReal;
+                    imag[k + n2] = imag[k] - tImag;
+                    real[k] += tReal;
+                    imag[k] += tImag;
+                }
+            }
+            n2 /= 2;
+        }
+
+        // Second phase - recombination
+        for (int k = 0; k < n; k++) {
+            int r = bitReverse[k];
+            if (r > k) {
+                float tReal = real[k];
+                float tImag = imag[k];
+                real[k] = real[r];
+                imag[k] = imag[r];
+                real[r] = tReal;
+                imag[r] = tImag;
+            }
+        }
+
+        // normalize to match FFT.fft
+        for (int k = 0; k < n; k++) {
+            real[k] *= scale;
+            imag[k] *= scale;
+        }
+    }
+
+    /**
+     * reverse the lowest nu bits of j
+     */
+    private static int reverse(final int j, final int nu) {
+        return nu == 0 ? 0 : Integer.reverse(j) >>> (32 - nu);
+    }
+}
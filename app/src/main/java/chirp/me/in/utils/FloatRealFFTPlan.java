@@ -0,0 +1,142 @@
+package chirp.me.in.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single precision version of RealFFTPlan, for the float analysis path. Packs n real samples
+ * into a size n/2 FloatFFTPlan and splits the result into bins 0..n/2, with the same conventions
+ * and normalization as RealFFTPlan (which remains the reference implementation).
+ */
+public final class FloatRealFFTPlan {
+    /**
+     * plans that have already been built, keyed by transform size
+     */
+    private static final Map<Integer, FloatRealFFTPlan> PLANS = new HashMap<>();
+    /**
+     * transform size (number of real input samples)
+     */
+    private final int n;
+    /**
+     * complex transform of size n/2 on the packed input
+     */
+    private final FloatFFTPlan halfPlan;
+    /**
+     * cos(2 * pi * k / n) for k in [0, n/4]
+     */
+    private final float[] cosTable;
+    /**
+     * sin(2 * pi * k / n) for k in [0, n/4]
+     */
+    private final float[] sinTable;
+    /**
+     * rescales the size n/2 normalization of halfPlan to the size n normalization of FFT.fft
+     */
+    private static final float HALF_SCALE = (float) Math.sqrt(0.5);
+
+    /**
+     * build plan for real transform of size n
+     * @param n - transform size, must be a power of 2 of at least 2
+     */
+    private FloatRealFFTPlan(final int n) {
+        this.n = n;
+        this.halfPlan = FloatFFTPlan.forSize(n / 2);
+        int quarter = n / 4;
+        cosTable = new float[quarter + 1];
+        sinTable = new float[quarter + 1];
+        for (int k = 0; k <= quarter; k++) {
+            double arg = 2 * Math.PI * k / n;
+            cosTable[k] = (float) Math.cos(arg);
+            sinTable[k] = (float) Math.sin(arg);
+        }
+    }
+
+    /**
+     * get (possibly cached) plan for real transform of size n
+     * @param n - transform size
+     * @return plan for size n
+     * @throws IllegalArgumentException if n is not a power of 2 of at least 2
+     */
+    public static synchronized FloatRealFFTPlan forSize(final int n) {
+        if (n < 2 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("The number of elements is not a power of 2.");
+        }
+        FloatRealFFTPlan plan = PLANS.get(n);
+        if (plan == null) {
+            plan = new FloatRealFFTPlan(n);
+            PLANS.put(n, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return transform size of this plan
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return number of bins in the half spectrum produced by transform (n/2 + 1)
+     */
+    public int bins() {
+        return n / 2 + 1;
+    }
+
+    /**
+     * perform direct transform of input[offset..offset+n) into the half spectrum, see
+     * RealFFTPlan.transform
+     * @param input - real samples
+     * @param offset - index of first sample of the window in input
+     * @param outReal - array of at least length n/2 + 1, receives real part of bins 0..n/2
+     * @param outImag - array of at least length n/2 + 1, receives imaginary part of bins 0..n/2
+     */
+    public void transform(final float[] input, final int offset,
+                          final float[] outReal, final float[] outImag) {
+        int half = n / 2;
+
+        // pack even samples as real part and odd samples as imaginary part
+        for (int m = 0; m < half; m++) {
+            outReal[m] = input[offset + 2 * m];
+            outImag[m] = input[offset + 2 * m + 1];
+        }
+        // exp(-i) convention, conjugated on output (see RealFFTPlan)
+        halfPlan.transform(outReal, outImag, false);
+
+        // split post-pass: bins k and half-k are computed together from Z[k] and Z[half-k]
+        float z0Real = outReal[0];
+        float z0Imag = outImag[0];
+        outReal[0] = (z0Real + z0Imag) * HALF_SCALE;
+        outImag[0] = 0.0f;
+        outReal[half] = (z0Real - z0Imag) * HALF_SCALE;
+        outImag[half] = 0.0f;
+
+        for (int k = 1; k <= half / 2; k++) {
+            int mirror = half - k;
+            float aReal = outReal[k];
+            float aImag = outImag[k];
+            float bReal = outReal[mirror];
+            float bImag = -outImag[mirror];
+
+            // even part E = (a + b) / 2, odd part O = -i (a - b) / 2, where b = conj(Z[half-k])
+            float eReal = 0.5f * (aReal + bReal);
+            float eImag = 0.5f * (aImag + bImag);
+            float oReal = 0.5f * (aImag - bImag);
+            float oImag = -0.5f * (aReal - bReal);
+
+            // W^k O with W = exp(-2 pi i / n)
+            float c = cosTable[k];
+            float s = sinTable[k];
+            float wReal = oReal * c + oImag * s;
+            float wImag = oImag * c - oReal * s;
+
+            // X[k] = E + W^k O, X[half-k] = conj(E - W^k O), both conjugated on output
+            outReal[k] = (eReal + wReal) * HALF_SCALE;
+            outImag[k] = -(eImag + wImag) * HALF_SCALE;
+            if (mirror != k) {
+                outReal[mirror] = (eReal - wReal) * HALF_SCALE;
+                outImag[mirror] = (eImag - wImag) * HALF_SCALE;
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package chirp.me.in.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import chirp.me.in.base.OnFailureCallback;
+import chirp.me.in.base.OnSuccessCallback;
+
+/**
+ * In-process stand-in for Firestore, so the flag protocol can be run and timed without Google
+ * services (e.g. phone and web-app simulated on one Linux box). Every client of a simulation
+ * connects its own InMemoryTransport to one shared Server.
+ *
+ * Each message between a client and the server (write, acknowledgement, snapshot) takes the
+ * client's one-way latency plus a uniformly distributed jitter drawn from a seeded Random, so a
+ * run is repeatable up to thread scheduling. Messages in one direction never overtake each
+ * other, as over Firestore's single connection. Unlike Firestore, a client's own writes are not
+ * shown to its listeners before the server has committed them. Callbacks are run on the
+ * client's callbacks executor.
+ */
+public class InMemoryTransport implements ProtocolTransport {
+    /**
+     * Documents shared by the clients of one simulation. Writes are committed and subscriptions
+     * notified on a single network thread, in order of arrival
+     */
+    public static class Server {
+        private final ScheduledExecutorService network =
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "in-memory-transport");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        /**
+         * documents by path, only changed on the network thread
+         */
+        private final Map<String, Map<String, Object>> documents = new HashMap<>();
+        /**
+         * subscriptions by document path, only used on the network thread
+         */
+        private final Map<String, List<InMemorySubscription>> subscriptions = new HashMap<>();
+        /**
+         * server clock, epoch nanoseconds at System.nanoTime() == originNanos
+         */
+        private final long epochNanos = System.currentTimeMillis() * 1000000L;
+        private final long originNanos = System.nanoTime();
+        private long commits = 0;
+        private long documentWrites = 0;
+
+        /**
+         * @return server time in epoch nanoseconds, as stamped for SERVER_TIMESTAMP
+         */
+        public long now() {
+            return epochNanos + (System.nanoTime() - originNanos);
+        }
+
+        /**
+         * @param path - document path
+         * @return copy of the document's fields, null if it does not exist
+         */
+        public synchronized Map<String, Object> read(final String path) {
+            Map<String, Object> document = documents.get(path);
+            return document == null ? null : new HashMap<>(document);
+        }
+
+        /**
+         * @return number of batches committed, i.e. write round trips
+         */
+        public synchronized long getCommits() {
+            return commits;
+        }
+
+        /**
+         * @return number of document writes committed, counting each write of a batch
+         */
+        public synchronized long getDocumentWrites() {
+            return documentWrites;
+        }
+
+        /**
+         * stop the network thread, pending messages are dropped
+         */
+        public void shutdown() {
+            network.shutdownNow();
+        }
+
+        /**
+         * run task on the network thread once System.nanoTime() reaches dueNanos
+         */
+        private void schedule(final long dueNanos, final Runnable task) {
+            network.schedule(task, Math.max(0, dueNanos - System.nanoTime()),
+                    TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * commit writes and notify the subscriptions of every document written, on the network
+         * thread
+         */
+        private void commit(final List<Write> writes) {
+            long stamp = now();
+            List<String> written = new ArrayList<>();
+            synchronized (this) {
+                for (Write write : writes) {
+                    Map<String, Object> document = write.merge ? documents.get(write.path) : null;
+                    if (document == null) {
+                        document = new HashMap<>();
+                        documents.put(write.path, document);
+                    }
+                    for (Map.Entry<String, Object> field : write.fields.entrySet()) {
+                        document.put(field.getKey(), normalize(field.getValue(), stamp));
+                    }
+                    if (!written.contains(write.path)) {
+                        written.add(write.path);
+                    }
+                    documentWrites++;
+                }
+                commits++;
+            }
+            for (String path : written) {
+                List<InMemorySubscription> listeners = subscriptions.get(path);
+                if (listeners == null) {
+                    continue;
+                }
+                for (InMemorySubscription subscription : listeners) {
+                    subscription.notifyListener(read(path));
+                }
+            }
+        }
+
+        /**
+         * value as Firestore stores it: whole numbers as Long, others as Double, timestamps
+         * in epoch nanoseconds
+         */
+        private static Object normalize(final Object value, final long stamp) {
+            if (value == SERVER_TIMESTAMP) {
+                return stamp;
+            } else if (value instanceof Integer || value instanceof Short
+                    || value instanceof Byte) {
+                return ((Number) value).longValue();
+            } else if (value instanceof Float) {
+                return ((Number) value).doubleValue();
+            }
+            return value;
+        }
+
+        private void addSubscription(final InMemorySubscription subscription) {
+            List<InMemorySubscription> listeners = subscriptions.get(subscription.path);
+            if (listeners == null) {
+                listeners = new ArrayList<>();
+                subscriptions.put(subscription.path, listeners);
+            }
+            listeners.add(subscription);
+            subscription.notifyListener(read(subscription.path));
+        }
+
+        private void removeSubscription(final InMemorySubscription subscription) {
+            List<InMemorySubscription> listeners = subscriptions.get(subscription.path);
+            if (listeners != null) {
+                listeners.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * one document write of a batch
+     */
+    private static final class Write {
+        private final String path;
+        private final Map<String, Object> fields;
+        private final boolean merge;
+
+        private Write(final String path, final Map<String, Object> fields, final boolean merge) {
+            this.path = path;
+            this.fields = new HashMap<>(fields);
+            this.merge = merge;
+        }
+    }
+
+    /**
+     * listener of one client on one document
+     */
+    private final class InMemorySubscription implements Subscription {
+        private final String path;
+        private final DocumentListener listener;
+        private volatile boolean removed = false;
+
+        private InMemorySubscription(final String path, final DocumentListener listener) {
+            this.path = path;
+            this.listener = listener;
+        }
+
+        /**
+         * send the document to the client, on the network thread
+         */
+        private void notifyListener(final Map<String, Object> data) {
+            deliver(() -> {
+                if (!removed) {
+                    listener.onUpdate(data == null ? null : Collections.unmodifiableMap(data),
+                            null);
+                }
+            });
+        }
+
+        @Override
+        public void remove() {
+            removed = true;
+            server.schedule(System.nanoTime(), () -> server.removeSubscription(this));
+        }
+    }
+
+    /**
+     * messages in one direction between this client and the server. Each message is scheduled
+     * for its own due time, but two due at the same time could still be run in either order,
+     * so every scheduled run delivers all messages that are due, oldest first
+     */
+    private final class Channel {
+        private final ArrayDeque<Message> queue = new ArrayDeque<>();
+        /**
+         * due time of the last message sent, later messages are not delivered before it
+         */
+        private long lastDueNanos = Long.MIN_VALUE;
+
+        /**
+         * run task on the network thread after the one-way delay and every earlier message
+         */
+        private void send(final Runnable task) {
+            long dueNanos;
+            synchronized (this) {
+                lastDueNanos = Math.max(lastDueNanos, System.nanoTime() + delay());
+                dueNanos = lastDueNanos;
+                queue.add(new Message(dueNanos, task));
+            }
+            server.schedule(dueNanos, this::deliverDue);
+        }
+
+        /**
+         * run the messages that are due, on the network thread
+         */
+        private void deliverDue() {
+            while (true) {
+                Message message;
+                synchronized (this) {
+                    message = queue.peek();
+                    if (message == null || message.dueNanos > System.nanoTime()) {
+                        return;
+                    }
+                    queue.poll();
+                }
+                message.task.run();
+            }
+        }
+    }
+
+    private static final class Message {
+        private final long dueNanos;
+        private final Runnable task;
+
+        private Message(final long dueNanos, final Runnable task) {
+            this.dueNanos = dueNanos;
+            this.task = task;
+        }
+    }
+
+    private final Server server;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final Random random;
+    private final Executor callbacks;
+    private final Channel up = new Channel();
+    private final Channel down = new Channel();
+
+    /**
+     * @param server - store shared by all clients of the simulation
+     * @param latencyMS - one-way latency between this client and the server
+     * @param jitterMS - greatest extra delay of a message, drawn uniformly
+     * @param seed - seed of the jitter
+     * @param callbacks - runs this client's callbacks and listeners, e.g. its "main thread"
+     */
+    public InMemoryTransport(final Server server, final double latencyMS, final double jitterMS,
+                             final long seed, final Executor callbacks) {
+        this.server = server;
+        this.latencyNanos = (long) (latencyMS * 1e6);
+        this.jitterNanos = (long) (jitterMS * 1e6);
+        this.random = new Random(seed);
+        this.callbacks = callbacks;
+    }
+
+    @Override
+    public void set(final String path, final Map<String, Object> fields,
+                    final OnSuccessCallback onSuccess, final OnFailureCallback onFailure) {
+        send(Collections.singletonList(new Write(path, fields, false)), onSuccess);
+    }
+
+    @Override
+    public void merge(final String path, final Map<String, Object> fields,
+                      final OnSuccessCallback onSuccess, final OnFailureCallback onFailure) {
+        send(Collections.singletonList(new Write(path, fields, true)), onSuccess);
+    }
+
+    @Override
+    public Batch batch() {
+        final List<Write> writes = new ArrayList<>();
+        return new Batch() {
+            @Override
+            public Batch set(final String path, final Map<String, Object> fields) {
+                writes.add(new Write(path, fields, false));
+                return this;
+            }
+
+            @Override
+            public Batch merge(final String path, final Map<String, Object> fields) {
+                writes.add(new Write(path, fields, true));
+                return this;
+            }
+
+            @Override
+            public void commit(final OnSuccessCallback onSuccess,
+                               final OnFailureCallback onFailure) {
+                send(new ArrayList<>(writes), onSuccess);
+            }
+        };
+    }
+
+    @Override
+    public Subscription subscribe(final String path, final DocumentListener listener) {
+        final InMemorySubscription subscription = new InMemorySubscription(path, listener);
+        up.send(() -> server.addSubscription(subscription));
+        return subscription;
+    }
+
+    /**
+     * send writes to the server and the acknowledgement back once committed. The in-memory
+     * store never fails a write
+     */
+    private void send(final List<Write> writes, final OnSuccessCallback onSuccess) {
+        up.send(() -> {
+            server.commit(writes);
+            deliver(onSuccess::OnSuccess);
+        });
+    }
+
+    /**
+     * run callback on this client once a message from the server has arrived, called on the
+     * network thread
+     */
+    private void deliver(final Runnable callback) {
+        down.send(() -> callbacks.execute(callback));
+    }
+
+    /**
+     * one-way delay of the next message
+     */
+    private long delay() {
+        return latencyNanos + (jitterNanos > 0 ? (long) (random.nextDouble() * jitterNanos) : 0);
+    }
+}
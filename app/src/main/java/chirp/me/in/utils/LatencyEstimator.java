@@ -0,0 +1,247 @@
+package chirp.me.in.utils;
+
+/**
+ * Estimates where the chirp lies in the recording from the protocol's round trips, on one
+ * monotonic clock (SystemClock.elapsedRealtimeNanos on the phone). The time of the first
+ * recorded sample, the RECORDING_STARTED write and the arrival of the web-app's flags are all
+ * taken on that clock, so wall clock jumps do not matter.
+ *
+ * The RECORDING_STARTED write carries a server timestamp. The server set it between sending the
+ * write and its acknowledgement, which anchors server time to the phone's clock to within half
+ * that round trip. When the web-app stamps PLAYBACK_STARTED / PLAYBACK_STOPPED with server
+ * timestamps too, playback start and stop are placed on the phone's clock through that anchor.
+ * Otherwise they are placed half a smoothed round trip before their flags arrived, with the
+ * round trip variation as error (smoothed as for the TCP retransmission timer, RFC 6298).
+ *
+ * The chirp is taken to lie between the estimated start and stop, shrunk on both sides by their
+ * error and PLAYBACK_MARGIN_SECONDS for the browser's audio output latency. Times are in
+ * nanoseconds, NO_TIME where unknown. Not thread safe, meant for the main thread like the
+ * snapshot listener.
+ */
+public class LatencyEstimator {
+    /**
+     * marks a time that is not known
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+    /**
+     * kept clear of the estimated playback start and stop on top of their error, covering the
+     * browser's audio output latency
+     */
+    public static final double PLAYBACK_MARGIN_SECONDS = 0.1;
+    /**
+     * gains of the smoothed round trip time and its variation
+     */
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    /**
+     * number of round trip variations added to the error of a time estimated from a flag arrival
+     */
+    private static final double K = 4.0;
+
+    /**
+     * smoothed round trip time and its variation, kept across sessions
+     */
+    private double srttNanos = Double.NaN;
+    private double rttvarNanos = Double.NaN;
+    private int rttSamples = 0;
+
+    /**
+     * time of the first recorded sample
+     */
+    private long sampleZeroNanos = NO_TIME;
+    /**
+     * RECORDING_STARTED write sent and acknowledged
+     */
+    private long anchorSentNanos = NO_TIME;
+    private long anchorAckNanos = NO_TIME;
+    /**
+     * server time minus phone time, and its error
+     */
+    private long offsetNanos = NO_TIME;
+    private long offsetErrorNanos = 0;
+    private long playbackStartNanos = NO_TIME;
+    private long playbackStartErrorNanos = 0;
+    private long playbackStopNanos = NO_TIME;
+    private long playbackStopErrorNanos = 0;
+
+    /**
+     * forget the timing of the last session, keeping the round trip estimate
+     */
+    public void startSession() {
+        sampleZeroNanos = NO_TIME;
+        anchorSentNanos = NO_TIME;
+        anchorAckNanos = NO_TIME;
+        offsetNanos = NO_TIME;
+        offsetErrorNanos = 0;
+        playbackStartNanos = NO_TIME;
+        playbackStartErrorNanos = 0;
+        playbackStopNanos = NO_TIME;
+        playbackStopErrorNanos = 0;
+    }
+
+    /**
+     * @param nanos - time the first sample of the recording was captured
+     */
+    public void recordingStarted(final long nanos) {
+        sampleZeroNanos = nanos;
+    }
+
+    /**
+     * add a round trip of any write, from sending it to its acknowledgement
+     * @param rttNanos - round trip time
+     */
+    public void addRoundTrip(final long rttNanos) {
+        if (rttNanos < 0) {
+            return;
+        }
+        if (rttSamples == 0) {
+            srttNanos = rttNanos;
+            rttvarNanos = rttNanos / 2.0;
+        } else {
+            rttvarNanos = (1 - BETA) * rttvarNanos + BETA * Math.abs(srttNanos - rttNanos);
+            srttNanos = (1 - ALPHA) * srttNanos + ALPHA * rttNanos;
+        }
+        rttSamples++;
+    }
+
+    /**
+     * @param nanos - time the write carrying the anchor server timestamp was sent
+     */
+    public void anchorSent(final long nanos) {
+        anchorSentNanos = nanos;
+    }
+
+    /**
+     * @param nanos - time the write carrying the anchor server timestamp was acknowledged
+     */
+    public void anchorAcknowledged(final long nanos) {
+        if (anchorSentNanos == NO_TIME) {
+            return;
+        }
+        anchorAckNanos = nanos;
+        addRoundTrip(anchorAckNanos - anchorSentNanos);
+    }
+
+    /**
+     * anchor server time to the phone's clock, once the acknowledged write's server timestamp is
+     * known
+     * @param serverNanos - server timestamp of the anchor write, epoch nanoseconds
+     */
+    public void anchorServerTime(final long serverNanos) {
+        if (serverNanos == NO_TIME || anchorAckNanos == NO_TIME || offsetNanos != NO_TIME) {
+            return;
+        }
+        long halfRtt = (anchorAckNanos - anchorSentNanos) / 2;
+        offsetNanos = serverNanos - (anchorSentNanos + halfRtt);
+        offsetErrorNanos = halfRtt;
+    }
+
+    /**
+     * @param arrivalNanos - time PLAYBACK_STARTED arrived
+     * @param serverNanos - server timestamp the web-app put on it, or NO_TIME
+     */
+    public void playbackStarted(final long arrivalNanos, final long serverNanos) {
+        playbackStartNanos = place(arrivalNanos, serverNanos);
+        playbackStartErrorNanos = error(serverNanos);
+    }
+
+    /**
+     * @param arrivalNanos - time PLAYBACK_STOPPED arrived
+     * @param serverNanos - server timestamp the web-app put on it, or NO_TIME
+     */
+    public void playbackStopped(final long arrivalNanos, final long serverNanos) {
+        playbackStopNanos = place(arrivalNanos, serverNanos);
+        playbackStopErrorNanos = error(serverNanos);
+    }
+
+    /**
+     * time an event stamped by the server, or announced by a flag arriving at arrivalNanos,
+     * happened on the phone's clock. It cannot be later than the arrival
+     */
+    private long place(final long arrivalNanos, final long serverNanos) {
+        if (serverNanos != NO_TIME && offsetNanos != NO_TIME) {
+            return Math.min(arrivalNanos, serverNanos - offsetNanos);
+        }
+        return rttSamples == 0 ? arrivalNanos : arrivalNanos - (long) (srttNanos / 2);
+    }
+
+    /**
+     * error of place
+     */
+    private long error(final long serverNanos) {
+        if (serverNanos != NO_TIME && offsetNanos != NO_TIME) {
+            return offsetErrorNanos;
+        }
+        return rttSamples == 0 ? 0 : (long) (srttNanos / 2 + K * rttvarNanos);
+    }
+
+    /**
+     * @return whether the time of the first sample and playback start are known
+     */
+    public boolean hasChirpStart() {
+        return sampleZeroNanos != NO_TIME && playbackStartNanos != NO_TIME;
+    }
+
+    /**
+     * @return whether hasChirpStart and playback stop is known as well
+     */
+    public boolean hasChirpWindow() {
+        return hasChirpStart() && playbackStopNanos != NO_TIME;
+    }
+
+    /**
+     * @return seconds into the recording after which the chirp is surely playing, NaN if unknown
+     */
+    public double getChirpStartSeconds() {
+        if (!hasChirpStart()) {
+            return Double.NaN;
+        }
+        return Math.max(0.0, (playbackStartNanos + playbackStartErrorNanos - sampleZeroNanos) / 1e9
+                + PLAYBACK_MARGIN_SECONDS);
+    }
+
+    /**
+     * @return seconds into the recording before which the chirp is surely playing, NaN if unknown
+     */
+    public double getChirpEndSeconds() {
+        if (!hasChirpWindow()) {
+            return Double.NaN;
+        }
+        return (playbackStopNanos - playbackStopErrorNanos - sampleZeroNanos) / 1e9
+                - PLAYBACK_MARGIN_SECONDS;
+    }
+
+    /**
+     * @return delay between the start of recording and of playback, as latencyMS has always been
+     * measured for the symmetric crop, 0 if unknown
+     */
+    public long getLatencyMS() {
+        if (!hasChirpStart()) {
+            return 0;
+        }
+        return Math.max(0, (playbackStartNanos - sampleZeroNanos) / 1000000);
+    }
+
+    /**
+     * @return smoothed round trip time of writes (ms), NaN before the first one
+     */
+    public double getRoundTripMS() {
+        return srttNanos / 1e6;
+    }
+
+    /**
+     * @return whether server time has been anchored to the phone's clock this session
+     */
+    public boolean isAnchored() {
+        return offsetNanos != NO_TIME;
+    }
+
+    @Override
+    public String toString() {
+        return "latency " + getLatencyMS() + " ms, chirp "
+                + String.format("%.3f", getChirpStartSeconds()) + " - "
+                + String.format("%.3f", getChirpEndSeconds()) + " s, rtt "
+                + String.format("%.1f", getRoundTripMS()) + " ms"
+                + (isAnchored() ? ", anchored +- " + offsetErrorNanos / 1000000 + " ms" : "");
+    }
+}
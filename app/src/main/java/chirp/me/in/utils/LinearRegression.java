@@ -70,6 +70,49 @@ public class LinearRegression {
         svar0 = svar/n + xbar*xbar*svar1;
     }
 
+    /**
+     * Builds the regression from summary statistics that have already been accumulated,
+     * e.g. by {@code RunningRegression}.
+     *
+     * @param  n the number of data points
+     * @param  xbar the mean of the predictor variable
+     * @param  ybar the mean of the response variable
+     * @param  xxbar the sum of squared deviations of x from xbar
+     * @param  yybar the sum of squared deviations of y from ybar
+     * @param  xybar the sum of products of the deviations of x and y
+     */
+    LinearRegression(int n, double xbar, double ybar, double xxbar, double yybar, double xybar) {
+        slope  = xybar / xxbar;
+        intercept = ybar - slope * xbar;
+
+        // regression sum of squares is slope^2 * xxbar, the rest of yybar is residual
+        double ssr = slope * xybar;
+        double rss = Math.max(0.0, yybar - ssr);
+
+        int degreesOfFreedom = n-2;
+        r2    = ssr / yybar;
+        double svar  = rss / degreesOfFreedom;
+        svar1 = svar / xxbar;
+        svar0 = svar/n + xbar*xbar*svar1;
+    }
+
+    /**
+     * Wraps a line fitted some other way, e.g. by {@code TheilSenRegression}.
+     *
+     * @param  intercept the <em>y</em>-intercept of the line
+     * @param  slope the slope of the line
+     * @param  r2 the coefficient of determination of the fit
+     * @param  svar0 the variance of the estimate for the intercept
+     * @param  svar1 the variance of the estimate for the slope
+     */
+    LinearRegression(double intercept, double slope, double r2, double svar0, double svar1) {
+        this.intercept = intercept;
+        this.slope = slope;
+        this.r2 = r2;
+        this.svar0 = svar0;
+        this.svar1 = svar1;
+    }
+
     /**
      * Returns the <em>y</em>-intercept &alpha; of the best of the best-fit line <em>y</em> = &alpha; + &beta; <em>x</em>.
      *
@@ -98,6 +141,15 @@ public class LinearRegression {
         return r2;
     }
 
+    /**
+     * Returns the share of the points the fit quality (R2 and the standard errors) is based on.
+     *
+     * @return 1, every point counts for a least squares fit
+     */
+    public double inlierFraction() {
+        return 1.0;
+    }
+
     /**
      * Returns the standard error of the estimate for the intercept.
      *
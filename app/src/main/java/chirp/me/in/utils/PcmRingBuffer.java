@@ -0,0 +1,177 @@
+package chirp.me.in.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Bounded, preallocated in-memory store of recorded 16 bit pcm. Samples are kept as shorts in a
+ * ring, so once capacity is reached the oldest frames are overwritten by new ones and memory use
+ * never grows. Exposed as a PcmSource so the analyzers can read a capture without it ever
+ * touching the filesystem; writeWav is available for when a file is actually needed (debugging).
+ * Frame 0 is the oldest frame still held, so once frames were overwritten times since the start
+ * of the capture must be moved back by getStartSeconds before cropping it.
+ *
+ * Written by the single "capture-writer" thread of WavMaker; only read once that thread has
+ * finished.
+ */
+public class PcmRingBuffer implements PcmSource {
+    private final int sampleRate;
+    private final int channels;
+    /**
+     * interleaved samples, capacity frames of channels samples each
+     */
+    private final short[] samples;
+    /**
+     * maximum number of frames held
+     */
+    private final int capacity;
+    /**
+     * total number of frames written since last clear
+     */
+    private long written = 0;
+    /**
+     * number of samples (not frames) written in total, used to place the next sample
+     */
+    private long samplesWritten = 0;
+    /**
+     * low byte of a sample split across two calls to write, or -1 if none
+     */
+    private int pendingByte = -1;
+
+    /**
+     * @param sampleRate - sampling rate of the pcm to store
+     * @param channels - number of interleaved channels
+     * @param capacityFrames - maximum number of frames kept (e.g. seconds * sampleRate)
+     */
+    public PcmRingBuffer(final int sampleRate, final int channels, final int capacityFrames) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.capacity = capacityFrames;
+        this.samples = new short[capacityFrames * channels];
+    }
+
+    /**
+     * forget all stored samples, keeping the allocated memory for the next capture
+     */
+    public void clear() {
+        written = 0;
+        samplesWritten = 0;
+        pendingByte = -1;
+    }
+
+    /**
+     * append recorded pcm
+     * @param data - interleaved 16 bit little endian pcm
+     * @param offset - index of first byte
+     * @param length - number of bytes
+     */
+    public void write(final byte[] data, final int offset, final int length) {
+        int i = offset;
+        int end = offset + length;
+        if (pendingByte >= 0 && i < end) {
+            putSample((short) (((data[i++] & 0xff) << 8) | pendingByte));
+            pendingByte = -1;
+        }
+        for (; i + 1 < end; i += 2) {
+            putSample((short) (((data[i + 1] & 0xff) << 8) | (data[i] & 0xff)));
+        }
+        if (i < end) {
+            pendingByte = data[i] & 0xff;
+        }
+    }
+
+    private void putSample(final short sample) {
+        samples[(int) (samplesWritten % samples.length)] = sample;
+        samplesWritten++;
+        written = samplesWritten / channels;
+    }
+
+    /**
+     * @return number of frames dropped because the capture was longer than capacity, i.e. the
+     * index of frame 0 in the whole capture
+     */
+    public long getOverwrittenFrames() {
+        return written - length();
+    }
+
+    /**
+     * @return time (s) since the start of the capture of frame 0, 0 unless frames were
+     * overwritten
+     */
+    public double getStartSeconds() {
+        return (double) getOverwrittenFrames() / sampleRate;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        return channels;
+    }
+
+    @Override
+    public int length() {
+        // a frame still being written has already overwritten part of the oldest frame
+        int partial = samplesWritten % channels != 0 ? 1 : 0;
+        return (int) Math.min(written, capacity - partial);
+    }
+
+    @Override
+    public void read(final int start, final double[] dst, final int dstOffset, final int count) {
+        // frame 0 is the oldest frame still held
+        long first = getOverwrittenFrames();
+        int index = (int) (((first + start) * channels) % samples.length);
+        for (int i = 0; i < count; i++) {
+            double sum = 0.0;
+            for (int c = 0; c < channels; c++) {
+                sum += samples[index];
+                index = index + 1 == samples.length ? 0 : index + 1;
+            }
+            dst[dstOffset + i] = channels == 2 ? sum / 2.0 : sum / channels;
+        }
+    }
+
+    @Override
+    public void read(final int start, final float[] dst, final int dstOffset, final int count) {
+        long first = getOverwrittenFrames();
+        int index = (int) (((first + start) * channels) % samples.length);
+        for (int i = 0; i < count; i++) {
+            float sum = 0.0f;
+            for (int c = 0; c < channels; c++) {
+                sum += samples[index];
+                index = index + 1 == samples.length ? 0 : index + 1;
+            }
+            dst[dstOffset + i] = channels == 2 ? sum * 0.5f : sum / channels;
+        }
+    }
+
+    /**
+     * write held frames to a 16 bit pcm wav file, oldest first
+     * @param file - destination, overwritten if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void writeWav(final File file) throws IOException {
+        int frames = length();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(WavFileSource.wavHeaderBytes(sampleRate, channels, 16, (long) frames * channels * 2));
+            ByteBuffer block = ByteBuffer.allocate(8192).order(ByteOrder.LITTLE_ENDIAN);
+            long first = getOverwrittenFrames();
+            int index = (int) ((first * channels) % samples.length);
+            for (long n = (long) frames * channels; n > 0; n--) {
+                if (!block.hasRemaining()) {
+                    out.write(block.array(), 0, block.position());
+                    block.clear();
+                }
+                block.putShort(samples[index]);
+                index = index + 1 == samples.length ? 0 : index + 1;
+            }
+            out.write(block.array(), 0, block.position());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package chirp.me.in.utils;
+
+/**
+ * View of the frames [start, start + length) of another PcmSource, e.g. the part of a recording
+ * the chirp is known to be in, so that nothing outside it is analyzed
+ */
+public final class PcmSlice implements PcmSource {
+    private final PcmSource source;
+    private final int start;
+    private final int length;
+
+    /**
+     * @param source - recording to view
+     * @param startS - time (s) of the first frame in the slice, clamped to the recording
+     * @param endS - time (s) the slice ends at, clamped to the recording
+     * @return slice of source between startS and endS
+     */
+    public static PcmSlice of(final PcmSource source, final double startS, final double endS) {
+        double sampleRate = source.getSampleRate();
+        int start = (int) Math.max(0, Math.min(source.length(), Math.ceil(startS * sampleRate)));
+        int end = (int) Math.max(start, Math.min(source.length(), Math.floor(endS * sampleRate)));
+        return new PcmSlice(source, start, end - start);
+    }
+
+    private PcmSlice(final PcmSource source, final int start, final int length) {
+        this.source = source;
+        this.start = start;
+        this.length = length;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return source.getSampleRate();
+    }
+
+    @Override
+    public int getChannels() {
+        return source.getChannels();
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public void read(final int start, final double[] dst, final int dstOffset, final int count) {
+        source.read(this.start + start, dst, dstOffset, count);
+    }
+
+    @Override
+    public void read(final int start, final float[] dst, final int dstOffset, final int count) {
+        source.read(this.start + start, dst, dstOffset, count);
+    }
+}
@@ -0,0 +1,41 @@
+package chirp.me.in.utils;
+
+/**
+ * Source of recorded 16 bit pcm that can be read as mono samples, so the analyzers do not need
+ * to care whether audio comes from a file or from memory
+ */
+public interface PcmSource {
+    /**
+     * @return sampling rate of the pcm
+     */
+    int getSampleRate();
+
+    /**
+     * @return number of interleaved channels in the pcm
+     */
+    int getChannels();
+
+    /**
+     * @return number of mono samples (pcm frames) available
+     */
+    int length();
+
+    /**
+     * downmix pcm frames [start, start + count) to mono by averaging all channels
+     * @param start - index of first frame to read
+     * @param dst - receives mono samples
+     * @param dstOffset - index in dst of first sample written
+     * @param count - number of frames to read
+     */
+    void read(int start, double[] dst, int dstOffset, int count);
+
+    /**
+     * single precision version of read, for the float analysis path. 16 bit samples and their
+     * stereo average are exact in float, so this reads the same values as read
+     * @param start - index of first frame to read
+     * @param dst - receives mono samples
+     * @param dstOffset - index in dst of first sample written
+     * @param count - number of frames to read
+     */
+    void read(int start, float[] dst, int dstOffset, int count);
+}
@@ -0,0 +1,60 @@
+package chirp.me.in.utils;
+
+/**
+ * How the peak frequency of a window is refined between bins (see
+ * ChirpAnalysisConfig.withInterpolation). A parabola is fitted through the peak bin and its two
+ * neighbours and the peak is moved to the parabola's vertex, so frequency precision is no longer
+ * limited to samplingRate / windowSize and smaller windows can reach the same slope accuracy.
+ */
+public enum PeakInterpolation {
+    /**
+     * peak frequency is that of the peak bin, as the analysis has always done
+     */
+    NONE,
+    /**
+     * parabola through the magnitudes, cheapest
+     */
+    QUADRATIC,
+    /**
+     * parabola through the log magnitudes, exact for a gaussian main lobe and close to exact for
+     * the main lobe of a Hann or Blackman-Harris window
+     */
+    GAUSSIAN;
+
+    /**
+     * offset of the interpolated peak from the peak bin, from the power of the peak bin and its
+     * neighbours
+     * @param below - power of the bin below the peak
+     * @param peak - power of the peak bin
+     * @param above - power of the bin above the peak
+     * @return offset in bins, in [-0.5, 0.5]
+     */
+    public double offset(final double below, final double peak, final double above) {
+        double a;
+        double b;
+        double c;
+        switch (this) {
+            case QUADRATIC:
+                a = Math.sqrt(below);
+                b = Math.sqrt(peak);
+                c = Math.sqrt(above);
+                break;
+            case GAUSSIAN:
+                if (below <= 0.0 || above <= 0.0) {
+                    return 0.0;
+                }
+                a = Math.log(below);
+                b = Math.log(peak);
+                c = Math.log(above);
+                break;
+            default:
+                return 0.0;
+        }
+        double curvature = a - 2 * b + c;
+        if (curvature >= 0.0) {
+            // not a maximum (e.g. flat, all bins at the floor)
+            return 0.0;
+        }
+        return Math.max(-0.5, Math.min(0.5, 0.5 * (a - c) / curvature));
+    }
+}
@@ -0,0 +1,247 @@
+package chirp.me.in.utils;
+
+/**
+ * Peak frequency of every analyzed window of a recording, the input to the slope regression.
+ *
+ * Peaks refined by interpolation (see PeakInterpolation) are placed at the exact bin frequency
+ * and window center time. Plain peak bins keep the frequency and time scales the spectrogram
+ * based analysis has always used, which are compressed by about 1 / (windowSize / 2) and
+ * stretched by about windowSize / length, small enough not to matter at bin precision. A
+ * decimated recording is shorter by the decimation factor, which makes that stretch a slope
+ * error of a few percent, so its windows are placed at their center times too.
+ */
+public final class PeakTrack implements Cloneable {
+    /**
+     * peak bin of each window (0 = DC) in 1/zoom fft bins, only the first frames entries are valid
+     */
+    private final int[] peakBins;
+    private final int frames;
+    private final int windowSize;
+    /**
+     * number of mono samples in the recording
+     */
+    private final int length;
+    private final double samplingRate;
+    /**
+     * interpolated offset of each peak from its peak bin, in the same units, or null if the
+     * peaks were not interpolated
+     */
+    private double[] peakOffsets = null;
+    /**
+     * samples between the starts of consecutive windows, only used with peakOffsets or decimation
+     */
+    private int windowStep = 0;
+    /**
+     * maps peak frequencies back from a band limited recording (see BandLimit)
+     */
+    private double frequencyOffset = 0.0;
+    private double frequencyScale = 1.0;
+    /**
+     * factor the recording was decimated by before the windows were taken
+     */
+    private int decimation = 1;
+    /**
+     * number of peak bin steps per fft bin, 1 unless found by ZoomSpectrum
+     */
+    private int zoom = 1;
+
+    /**
+     * peak track of plain peak bins, see the with* methods for anything else
+     * @param peakBins - peak bin of each window, only the first frames entries are used
+     * @param frames - number of windows
+     * @param windowSize - fft window size the bins come from
+     * @param length - number of mono samples in the recording
+     * @param samplingRate - sampling rate of the recording
+     */
+    public PeakTrack(final int[] peakBins, final int frames, final int windowSize,
+                     final int length, final double samplingRate) {
+        this.peakBins = peakBins;
+        this.frames = frames;
+        this.windowSize = windowSize;
+        this.length = length;
+        this.samplingRate = samplingRate;
+    }
+
+    /**
+     * @return copy of this track, to set one property on before it is returned
+     */
+    private PeakTrack copy() {
+        try {
+            return (PeakTrack) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * peak track of a band limited recording, whose peak frequencies f correspond to
+     * frequencyOffset + frequencyScale * f in the original recording. length and samplingRate
+     * are then those of the (decimated) recording, and windowStep must be set (see
+     * withInterpolation) if decimated
+     * @param frequencyOffset - frequency the band was shifted by
+     * @param frequencyScale - 1, or -1 if the band was mirrored
+     * @param decimation - factor the recording was decimated by, 1 for none
+     * @return track with band mapping set
+     */
+    public PeakTrack withBand(final double frequencyOffset, final double frequencyScale,
+                              final int decimation) {
+        PeakTrack track = copy();
+        track.frequencyOffset = frequencyOffset;
+        track.frequencyScale = frequencyScale;
+        track.decimation = decimation;
+        return track;
+    }
+
+    /**
+     * peak track with peak bins given in 1/zoom fft bins (see ZoomSpectrum)
+     * @param zoom - number of peak bin steps per fft bin
+     * @return track with zoom set
+     */
+    public PeakTrack withZoom(final int zoom) {
+        PeakTrack track = copy();
+        track.zoom = zoom;
+        return track;
+    }
+
+    /**
+     * peak track with peaks refined by interpolation
+     * @param peakOffsets - offset of each peak from its peak bin (in 1/zoom fft bins), or null
+     *                    if not interpolated
+     * @param windowStep - samples between the starts of consecutive windows
+     * @return track with interpolated peaks
+     */
+    public PeakTrack withInterpolation(final double[] peakOffsets, final int windowStep) {
+        PeakTrack track = copy();
+        track.peakOffsets = peakOffsets;
+        track.windowStep = windowStep;
+        return track;
+    }
+
+    /**
+     * @return number of windows
+     */
+    public int frames() {
+        return frames;
+    }
+
+    /**
+     * @return number of mono samples in the recording
+     */
+    public int length() {
+        return length;
+    }
+
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @return number of peak bin steps per fft bin
+     */
+    public int getZoom() {
+        return zoom;
+    }
+
+    /**
+     * @param i - window index
+     * @return peak bin of window i (0 = DC), in 1/getZoom() fft bins
+     */
+    public int peakBin(final int i) {
+        return peakBins[i];
+    }
+
+    /**
+     * @param i - window index
+     * @return peak frequency of window i in Hz
+     */
+    public double frequency(final int i) {
+        if (peakOffsets != null) {
+            return frequencyOffset + frequencyScale * SpectralPeaks.binFrequency(
+                    (peakBins[i] + peakOffsets[i]) / zoom, windowSize, samplingRate);
+        }
+        return frequencyOffset
+                + frequencyScale * SpectralPeaks.frequency((double) peakBins[i] / zoom,
+                windowSize, samplingRate);
+    }
+
+    /**
+     * @param i - window index
+     * @return time stamp of window i in seconds
+     */
+    public double time(final int i) {
+        if (peakOffsets != null || decimation > 1) {
+            return (i * (double) windowStep + windowSize / 2.0) / samplingRate;
+        }
+        return (double) length / samplingRate * ((double) i / frames);
+    }
+
+    /**
+     * crop based on latency and fit a line of peak frequency over time
+     * @param latencyMS - the latency of the transmission to use in cropping
+     * @param sigma - scaling factor for cropping (sigma * latencyMS from start and end)
+     * @param estimator - how the line is fitted
+     * @return regression result
+     */
+    public LinearRegression regress(final long latencyMS, final double sigma,
+                                    final RegressionEstimator estimator) {
+        // crop indices for frequencies and timestamps based on latency and sigma (scaling factor)
+        double totalTimeS = (double) length / samplingRate;
+        double crop = latencyMS * sigma / (totalTimeS * 1000) ;
+        int startIndex = (int) (frames * crop);
+        int endIndex = (int) ((frames - 1) * (1 - crop));
+        return fit(startIndex, endIndex, estimator);
+    }
+
+    /**
+     * crop to the peaks timed within [startS, endS] and fit a line of peak frequency over time,
+     * e.g. the chirp as placed by LatencyEstimator
+     * @param startS - time (s) of the first peak to keep
+     * @param endS - time (s) of the last peak to keep
+     * @param estimator - how the line is fitted
+     * @return regression result
+     */
+    public LinearRegression regress(final double startS, final double endS,
+                                    final RegressionEstimator estimator) {
+        int startIndex = 0;
+        while (startIndex < frames && time(startIndex) < startS) {
+            startIndex++;
+        }
+        int endIndex = startIndex;
+        while (endIndex < frames && time(endIndex) <= endS) {
+            endIndex++;
+        }
+        return fit(startIndex, endIndex, estimator);
+    }
+
+    /**
+     * fit a line to the peaks [startIndex, endIndex)
+     */
+    private LinearRegression fit(final int startIndex, final int endIndex,
+                                 final RegressionEstimator estimator) {
+        PipelineMetrics.Section section = PipelineMetrics.get().begin(PipelineMetrics.REGRESSION);
+        LinearRegression regression;
+        if (estimator == RegressionEstimator.THEIL_SEN) {
+            int count = Math.max(endIndex - startIndex, 0);
+            double[] x = new double[count];
+            double[] y = new double[count];
+            for (int i = 0; i < count; i++) {
+                x[i] = time(startIndex + i);
+                y[i] = frequency(startIndex + i);
+            }
+            regression = new TheilSenRegression(x, y);
+        } else {
+            // perform linear regression on cropped peaks to retrieve slope, one peak at a time
+            RunningRegression fit = new RunningRegression();
+            for (int i = startIndex; i < endIndex; i++) {
+                fit.add(time(i), frequency(i));
+            }
+            regression = fit.toLinearRegression();
+        }
+        section.end();
+        return regression;
+    }
+}
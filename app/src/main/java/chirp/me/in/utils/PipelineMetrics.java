@@ -0,0 +1,336 @@
+package chirp.me.in.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registry of how long each stage of an authentication takes, so stages can be compared across
+ * devices. Every stage keeps a histogram of its durations along with the bytes it processed and
+ * allocated. Stages are timed on System.nanoTime as Sections, which are also reported to a
+ * Probe: on the phone AndroidTraceProbe, emitting them as android.os.Trace sections for
+ * systrace / Perfetto. Durations spanning threads or protocol round trips are measured by the
+ * caller and added with record.
+ *
+ * One registry is shared by the whole app, see get. Thread safe.
+ */
+public class PipelineMetrics {
+    /**
+     * stage names, SNAPSHOT and FLAG are followed by the flag's name
+     */
+    public static final String SNAPSHOT = "snapshot.";
+    public static final String FLAG = "flag.";
+    public static final String RECORDER_START = "recorder.start";
+    public static final String FIRST_SAMPLE = "recorder.first_sample";
+    public static final String RECORDER_STOP = "recorder.stop";
+    public static final String WAV_FINALIZE = "wav.finalize";
+    public static final String PCM_DECODE = "pcm.decode";
+    public static final String STFT = "stft";
+    public static final String STFT_STREAM = "stft.stream";
+    public static final String DECHIRP = "dechirp";
+    public static final String REGRESSION = "regression";
+    public static final String RESULT_WRITE = "result.write";
+    public static final String AUTH = "auth";
+
+    /**
+     * where sections are reported besides the registry
+     */
+    public interface Probe {
+        /**
+         * @param name - name of the section starting on the calling thread
+         */
+        void beginSection(String name);
+
+        /**
+         * end the section last begun on the calling thread
+         */
+        void endSection();
+
+        /**
+         * @return bytes allocated so far, -1 if unknown
+         */
+        long allocatedBytes();
+    }
+
+    /**
+     * reports nowhere and knows no allocations
+     */
+    public static final Probe NO_PROBE = new Probe() {
+        @Override
+        public void beginSection(final String name) {
+        }
+
+        @Override
+        public void endSection() {
+        }
+
+        @Override
+        public long allocatedBytes() {
+            return -1;
+        }
+    };
+
+    /**
+     * one timing of a stage on one thread, from begin until end
+     */
+    public final class Section {
+        private final String stage;
+        private final Probe probe;
+        private final long beginNanos;
+        private final long beginAllocated;
+
+        private Section(final String stage, final Probe probe) {
+            this.stage = stage;
+            this.probe = probe;
+            probe.beginSection(stage);
+            this.beginAllocated = probe.allocatedBytes();
+            this.beginNanos = System.nanoTime();
+        }
+
+        /**
+         * end the section, on the thread it was begun on
+         */
+        public void end() {
+            end(0);
+        }
+
+        /**
+         * end the section, on the thread it was begun on
+         * @param bytes - number of bytes the stage processed
+         */
+        public void end(final long bytes) {
+            long nanos = System.nanoTime() - beginNanos;
+            long allocated = beginAllocated < 0 ? -1 : probe.allocatedBytes() - beginAllocated;
+            probe.endSection();
+            record(stage, nanos, bytes, allocated);
+        }
+    }
+
+    /**
+     * durations of one stage, in buckets growing by a quarter octave
+     */
+    public static final class Histogram {
+        /**
+         * buckets per doubling of the duration
+         */
+        private static final int SUB_BUCKETS = 4;
+        /**
+         * the first bucket holds durations under 1 us, the last those over 2^32 us (an hour)
+         */
+        private static final int BUCKETS = 32 * SUB_BUCKETS + 2;
+        private final long[] counts = new long[BUCKETS];
+        private long count = 0;
+        private long totalNanos = 0;
+        private long minNanos = Long.MAX_VALUE;
+        private long maxNanos = 0;
+        private long bytes = 0;
+        /**
+         * bytes allocated by the sections whose allocations were known
+         */
+        private long allocatedBytes = 0;
+        private long allocationsKnown = 0;
+
+        private Histogram() {
+        }
+
+        private Histogram(final Histogram other) {
+            System.arraycopy(other.counts, 0, counts, 0, BUCKETS);
+            count = other.count;
+            totalNanos = other.totalNanos;
+            minNanos = other.minNanos;
+            maxNanos = other.maxNanos;
+            bytes = other.bytes;
+            allocatedBytes = other.allocatedBytes;
+            allocationsKnown = other.allocationsKnown;
+        }
+
+        private void add(final long nanos, final long bytes, final long allocated) {
+            long clamped = Math.max(nanos, 0);
+            counts[bucket(clamped)]++;
+            count++;
+            totalNanos += clamped;
+            minNanos = Math.min(minNanos, clamped);
+            maxNanos = Math.max(maxNanos, clamped);
+            this.bytes += bytes;
+            if (allocated >= 0) {
+                allocatedBytes += allocated;
+                allocationsKnown++;
+            }
+        }
+
+        private static int bucket(final long nanos) {
+            double micros = nanos / 1e3;
+            if (micros < 1) {
+                return 0;
+            }
+            return Math.min(BUCKETS - 1,
+                    1 + (int) (SUB_BUCKETS * Math.log(micros) / Math.log(2)));
+        }
+
+        /**
+         * @return longest duration (ns) that falls in bucket
+         */
+        private static double upperNanos(final int bucket) {
+            return 1e3 * Math.pow(2, (double) bucket / SUB_BUCKETS);
+        }
+
+        /**
+         * @return number of durations recorded
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMS() {
+            return count == 0 ? Double.NaN : totalNanos / 1e6 / count;
+        }
+
+        public double getMinMS() {
+            return count == 0 ? Double.NaN : minNanos / 1e6;
+        }
+
+        public double getMaxMS() {
+            return count == 0 ? Double.NaN : maxNanos / 1e6;
+        }
+
+        /**
+         * @param q - quantile in [0, 1]
+         * @return duration (ms) below which q of the recorded durations fall, to within a
+         * quarter octave, NaN if none were recorded
+         */
+        public double getPercentileMS(final double q) {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            int b = 0;
+            for (; b < BUCKETS - 1; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    break;
+                }
+            }
+            return Math.max(minNanos, Math.min(maxNanos, upperNanos(b))) / 1e6;
+        }
+
+        /**
+         * @return total bytes processed by the stage
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return bytes allocated per section of the stage, NaN if unknown
+         */
+        public double getAllocatedBytesPerSection() {
+            return allocationsKnown == 0 ? Double.NaN : (double) allocatedBytes / allocationsKnown;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count
+                    + String.format(" p50 %.2f p90 %.2f p99 %.2f max %.2f ms", getPercentileMS(0.5),
+                            getPercentileMS(0.9), getPercentileMS(0.99), getMaxMS())
+                    + (bytes > 0 ? ", " + bytes / count + " B processed" : "")
+                    + (allocationsKnown > 0 ? String.format(", %.0f B allocated",
+                            getAllocatedBytesPerSection()) : "");
+        }
+    }
+
+    private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+
+    private volatile Probe probe = NO_PROBE;
+    /**
+     * histogram of each stage, in order of first appearance
+     */
+    private final Map<String, Histogram> stages = new LinkedHashMap<>();
+
+    /**
+     * @return registry shared by the whole app
+     */
+    public static PipelineMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param probe - where to report sections from now on, NO_PROBE for nowhere
+     */
+    public void setProbe(final Probe probe) {
+        this.probe = probe;
+    }
+
+    /**
+     * start timing a stage on the calling thread
+     * @param stage - name of the stage
+     * @return section to end once the stage is done
+     */
+    public Section begin(final String stage) {
+        return new Section(stage, probe);
+    }
+
+    /**
+     * add a duration measured by the caller
+     * @param stage - name of the stage
+     * @param nanos - duration
+     */
+    public void record(final String stage, final long nanos) {
+        record(stage, nanos, 0, -1);
+    }
+
+    /**
+     * add a duration measured by the caller
+     * @param stage - name of the stage
+     * @param nanos - duration
+     * @param bytes - number of bytes the stage processed
+     * @param allocated - number of bytes the stage allocated, -1 if unknown
+     */
+    public synchronized void record(final String stage, final long nanos, final long bytes,
+                                    final long allocated) {
+        Histogram histogram = stages.get(stage);
+        if (histogram == null) {
+            histogram = new Histogram();
+            stages.put(stage, histogram);
+        }
+        histogram.add(nanos, bytes, allocated);
+    }
+
+    /**
+     * @param stage - name of the stage
+     * @return copy of the stage's histogram, null if it was never recorded
+     */
+    public synchronized Histogram getHistogram(final String stage) {
+        Histogram histogram = stages.get(stage);
+        return histogram == null ? null : new Histogram(histogram);
+    }
+
+    /**
+     * @return copy of every stage's histogram, in order of first appearance
+     */
+    public synchronized Map<String, Histogram> snapshot() {
+        Map<String, Histogram> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Histogram> entry : stages.entrySet()) {
+            copy.put(entry.getKey(), new Histogram(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * forget every recorded duration
+     */
+    public synchronized void reset() {
+        stages.clear();
+    }
+
+    /**
+     * @return one line per stage
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : stages.entrySet()) {
+            report.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,110 @@
+package chirp.me.in.utils;
+
+/**
+ * FIR filter followed by decimation by an integer factor, fed one sample at a time. Only every
+ * factor-th filter output is kept, so only those are computed: each kept output is one dot product
+ * of the taps with the most recent input, which is the polyphase form of the filter (every tap
+ * is used once per output, i.e. taps / factor multiplies per input sample instead of taps).
+ *
+ * Holds filter state, so use one instance per stream. The taps may be shared.
+ */
+public final class PolyphaseDecimator {
+    /**
+     * filter taps in reverse order, so the dot product runs forward over the history
+     */
+    private final double[] reversedTaps;
+    private final int factor;
+    /**
+     * last taps.length inputs, stored twice (at i and i + taps.length) so the most recent ones
+     * are always contiguous
+     */
+    private final double[] history;
+    /**
+     * index in history of the most recent input
+     */
+    private int position = -1;
+    /**
+     * inputs pushed since the last output
+     */
+    private int phase = 0;
+    private double output = 0.0;
+
+    /**
+     * @param taps - filter taps
+     * @param factor - decimation factor
+     */
+    public PolyphaseDecimator(final double[] taps, final int factor) {
+        int n = taps.length;
+        this.reversedTaps = new double[n];
+        for (int k = 0; k < n; k++) {
+            reversedTaps[k] = taps[n - 1 - k];
+        }
+        this.factor = factor;
+        this.history = new double[2 * n];
+    }
+
+    /**
+     * @return decimation factor
+     */
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * feed one input sample
+     * @param sample - input sample
+     * @return whether a new output is available from output()
+     */
+    public boolean push(final double sample) {
+        int n = reversedTaps.length;
+        position = position + 1 == n ? 0 : position + 1;
+        history[position] = sample;
+        history[position + n] = sample;
+        if (++phase < factor) {
+            return false;
+        }
+        phase = 0;
+        // history[position + 1 .. position + n] holds the last n inputs, oldest first
+        double sum = 0.0;
+        for (int k = 0, j = position + 1; k < n; k++, j++) {
+            sum += reversedTaps[k] * history[j];
+        }
+        output = sum;
+        return true;
+    }
+
+    /**
+     * @return most recent output
+     */
+    public double output() {
+        return output;
+    }
+
+    /**
+     * design a linear phase band pass filter (Blackman windowed sinc). A low of 0 gives a low pass
+     * @param sampleRate - input sampling rate
+     * @param low - lower cutoff in Hz
+     * @param high - upper cutoff in Hz
+     * @param length - number of taps, odd
+     * @return filter taps
+     */
+    public static double[] bandPass(final double sampleRate, final double low, final double high,
+                                    final int length) {
+        double[] taps = new double[length];
+        double center = (length - 1) / 2.0;
+        double fLow = low / sampleRate;
+        double fHigh = high / sampleRate;
+        for (int k = 0; k < length; k++) {
+            double m = k - center;
+            double ideal = 2 * fHigh * sinc(2 * fHigh * m) - 2 * fLow * sinc(2 * fLow * m);
+            double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * k / (length - 1))
+                    + 0.08 * Math.cos(4 * Math.PI * k / (length - 1));
+            taps[k] = ideal * window;
+        }
+        return taps;
+    }
+
+    private static double sinc(final double x) {
+        return x == 0 ? 1.0 : Math.sin(Math.PI * x) / (Math.PI * x);
+    }
+}
@@ -0,0 +1,108 @@
+package chirp.me.in.utils;
+
+import java.util.Map;
+
+import chirp.me.in.base.OnFailureCallback;
+import chirp.me.in.base.OnSuccessCallback;
+
+/**
+ * Document store the flag protocol between the Android and Web Applications runs over. Documents
+ * are addressed by path (e.g. "users/[UID]") and hold fields by name. Firestore in the app (see
+ * FirestoreTransport), an in-process stand-in for profiling the protocol off device (see
+ * InMemoryTransport).
+ *
+ * Field values are numbers, strings, booleans or SERVER_TIMESTAMP, which the store replaces by
+ * the time it commits the write. Server timestamps read back as Long epoch nanoseconds, or are
+ * missing while the write is pending. Callbacks are called on the thread the implementation
+ * delivers on (the main thread for Firestore).
+ */
+public interface ProtocolTransport {
+    /**
+     * field value replaced by the store's commit time
+     */
+    Object SERVER_TIMESTAMP = new Object() {
+        @Override
+        public String toString() {
+            return "SERVER_TIMESTAMP";
+        }
+    };
+
+    /**
+     * receives the document each time it changes, starting with its current state
+     */
+    interface DocumentListener {
+        /**
+         * @param data - fields of the document, null if it does not exist or on error
+         * @param error - why the subscription failed, or null
+         */
+        void onUpdate(Map<String, Object> data, Exception error);
+    }
+
+    /**
+     * stops a subscription
+     */
+    interface Subscription {
+        void remove();
+    }
+
+    /**
+     * writes committed together in one round trip, all or none of them
+     */
+    interface Batch {
+        /**
+         * replace the document with fields
+         * @param path - document path
+         * @param fields - field names and values
+         * @return this batch
+         */
+        Batch set(String path, Map<String, Object> fields);
+
+        /**
+         * set fields of the document, creating it if it does not exist, leaving other fields
+         * @param path - document path
+         * @param fields - field names and values
+         * @return this batch
+         */
+        Batch merge(String path, Map<String, Object> fields);
+
+        /**
+         * send the batch
+         * @param onSuccess - to call once committed
+         * @param onFailure - to call if the batch failed
+         */
+        void commit(OnSuccessCallback onSuccess, OnFailureCallback onFailure);
+    }
+
+    /**
+     * replace the document with fields
+     * @param path - document path
+     * @param fields - field names and values
+     * @param onSuccess - to call once committed
+     * @param onFailure - to call if the write failed
+     */
+    void set(String path, Map<String, Object> fields, OnSuccessCallback onSuccess,
+             OnFailureCallback onFailure);
+
+    /**
+     * set fields of the document, creating it if it does not exist, leaving other fields
+     * @param path - document path
+     * @param fields - field names and values
+     * @param onSuccess - to call once committed
+     * @param onFailure - to call if the write failed
+     */
+    void merge(String path, Map<String, Object> fields, OnSuccessCallback onSuccess,
+               OnFailureCallback onFailure);
+
+    /**
+     * @return empty batch of writes
+     */
+    Batch batch();
+
+    /**
+     * listen to changes of the document
+     * @param path - document path
+     * @param listener - to call with the current and every later state of the document
+     * @return subscription, to remove the listener
+     */
+    Subscription subscribe(String path, DocumentListener listener);
+}
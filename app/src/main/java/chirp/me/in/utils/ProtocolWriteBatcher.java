@@ -0,0 +1,118 @@
+package chirp.me.in.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import chirp.me.in.base.OnFailureCallback;
+import chirp.me.in.base.OnSuccessCallback;
+
+/**
+ * Coalesces field writes to protocol documents. Everything written while the main thread handles
+ * one message (one step of the auth protocol, e.g. one snapshot update) is merged and sent as a
+ * single batch once that message is done, so a step costs one round trip however many
+ * fields it sets. A field written twice in one step is only sent with its last value. The
+ * callbacks of every write in a batch run once the whole batch has committed or failed.
+ *
+ * Fields are merged into the documents, so a document is created if it does not exist yet. Only
+ * use from the main thread.
+ */
+public class ProtocolWriteBatcher {
+    private final ProtocolTransport transport;
+    /**
+     * runs a task after the message being handled, e.g. Handler.post of the main thread
+     */
+    private final Executor mainThread;
+    /**
+     * fields waiting to be written, by document path, in the order they were first written
+     */
+    private final Map<String, Map<String, Object>> pending = new LinkedHashMap<>();
+    private final List<OnSuccessCallback> successCallbacks = new ArrayList<>();
+    private final List<OnFailureCallback> failureCallbacks = new ArrayList<>();
+    private boolean flushPosted = false;
+
+    /**
+     * @param transport - store the documents belong to
+     * @param mainThread - posts a task to the thread writes are issued on, to run after the
+     *                   message being handled
+     */
+    public ProtocolWriteBatcher(final ProtocolTransport transport, final Executor mainThread) {
+        this.transport = transport;
+        this.mainThread = mainThread;
+    }
+
+    /**
+     * queue a single field write, see write(String, Map, ...)
+     * @param document - path of the document to write to
+     * @param field - field name
+     * @param value - new field value
+     * @param onSuccess - to call once the batch has committed, or null
+     * @param onFailure - to call if the batch fails, or null
+     */
+    public void write(final String document, final String field, final Object value,
+                      final OnSuccessCallback onSuccess, final OnFailureCallback onFailure) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(field, value);
+        write(document, fields, onSuccess, onFailure);
+    }
+
+    /**
+     * queue field writes, to be sent with every other write of the current step
+     * @param document - path of the document to write to
+     * @param fields - field names and their new values
+     * @param onSuccess - to call once the batch has committed, or null
+     * @param onFailure - to call if the batch fails, or null
+     */
+    public void write(final String document, final Map<String, Object> fields,
+                      final OnSuccessCallback onSuccess, final OnFailureCallback onFailure) {
+        Map<String, Object> documentFields = pending.get(document);
+        if (documentFields == null) {
+            documentFields = new LinkedHashMap<>();
+            pending.put(document, documentFields);
+        }
+        documentFields.putAll(fields);
+        if (onSuccess != null) {
+            successCallbacks.add(onSuccess);
+        }
+        if (onFailure != null) {
+            failureCallbacks.add(onFailure);
+        }
+        if (!flushPosted) {
+            // runs after the message being handled now, i.e. at the end of this step
+            flushPosted = true;
+            mainThread.execute(this::flush);
+        }
+    }
+
+    /**
+     * send everything queued so far now, without waiting for the end of the step
+     */
+    public void flush() {
+        flushPosted = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+        ProtocolTransport.Batch batch = transport.batch();
+        for (Map.Entry<String, Map<String, Object>> entry : pending.entrySet()) {
+            batch.merge(entry.getKey(), entry.getValue());
+        }
+        final List<OnSuccessCallback> onSuccess = new ArrayList<>(successCallbacks);
+        final List<OnFailureCallback> onFailure = new ArrayList<>(failureCallbacks);
+        pending.clear();
+        successCallbacks.clear();
+        failureCallbacks.clear();
+
+        batch.commit(() -> {
+            for (OnSuccessCallback callback : onSuccess) {
+                callback.OnSuccess();
+            }
+        }, e -> {
+            for (OnFailureCallback callback : onFailure) {
+                callback.OnFailure(e);
+            }
+        });
+    }
+}
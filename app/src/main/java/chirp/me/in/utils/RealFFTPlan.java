@@ -0,0 +1,149 @@
+package chirp.me.in.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Real-to-complex FFT of size n. The n real samples are packed as n/2 complex values
+ * (even samples as real part, odd samples as imaginary part), transformed with a FFTPlan of
+ * size n/2, then split back into the spectrum of the real signal with a single post-pass.
+ * Only the non-redundant half of the spectrum (bins 0..n/2) is produced, since the rest is
+ * its complex conjugate. This is roughly half the work and memory of a full complex FFT with
+ * a zeroed imaginary part.
+ *
+ * Output matches bins 0..n/2 of FFT.fft on the same (real) input, including the 1/sqrt(n)
+ * normalization. Plans are immutable and cached per size, so they can be shared between threads.
+ */
+public final class RealFFTPlan {
+    /**
+     * plans that have already been built, keyed by transform size
+     */
+    private static final Map<Integer, RealFFTPlan> PLANS = new HashMap<>();
+    /**
+     * transform size (number of real input samples)
+     */
+    private final int n;
+    /**
+     * complex transform of size n/2 on the packed input
+     */
+    private final FFTPlan halfPlan;
+    /**
+     * cos(2 * pi * k / n) for k in [0, n/4]
+     */
+    private final double[] cosTable;
+    /**
+     * sin(2 * pi * k / n) for k in [0, n/4]
+     */
+    private final double[] sinTable;
+    /**
+     * rescales the size n/2 normalization of halfPlan to the size n normalization of FFT.fft
+     */
+    private static final double HALF_SCALE = Math.sqrt(0.5);
+
+    /**
+     * build plan for real transform of size n
+     * @param n - transform size, must be a power of 2 of at least 2
+     */
+    private RealFFTPlan(final int n) {
+        this.n = n;
+        this.halfPlan = FFTPlan.forSize(n / 2);
+        int quarter = n / 4;
+        cosTable = new double[quarter + 1];
+        sinTable = new double[quarter + 1];
+        for (int k = 0; k <= quarter; k++) {
+            double arg = 2 * Math.PI * k / n;
+            cosTable[k] = Math.cos(arg);
+            sinTable[k] = Math.sin(arg);
+        }
+    }
+
+    /**
+     * get (possibly cached) plan for real transform of size n
+     * @param n - transform size
+     * @return plan for size n
+     * @throws IllegalArgumentException if n is not a power of 2 of at least 2
+     */
+    public static synchronized RealFFTPlan forSize(final int n) {
+        if (n < 2 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("The number of elements is not a power of 2.");
+        }
+        RealFFTPlan plan = PLANS.get(n);
+        if (plan == null) {
+            plan = new RealFFTPlan(n);
+            PLANS.put(n, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return transform size of this plan
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return number of bins in the half spectrum produced by transform (n/2 + 1)
+     */
+    public int bins() {
+        return n / 2 + 1;
+    }
+
+    /**
+     * perform direct transform of input[offset..offset+n) into the half spectrum. The input is
+     * not modified, so windows of a longer recording can be transformed without copying them
+     * @param input - real samples
+     * @param offset - index of first sample of the window in input
+     * @param outReal - array of at least length n/2 + 1, receives real part of bins 0..n/2
+     * @param outImag - array of at least length n/2 + 1, receives imaginary part of bins 0..n/2
+     */
+    public void transform(final double[] input, final int offset,
+                          final double[] outReal, final double[] outImag) {
+        int half = n / 2;
+
+        // pack even samples as real part and odd samples as imaginary part
+        for (int m = 0; m < half; m++) {
+            outReal[m] = input[offset + 2 * m];
+            outImag[m] = input[offset + 2 * m + 1];
+        }
+        // FFT.fft's "direct" transform uses the exp(+i) kernel, so the post-pass below is done in
+        // the textbook exp(-i) convention (FFTPlan's inverse direction) and conjugated on output
+        halfPlan.transform(outReal, outImag, false);
+
+        // split post-pass: bins k and half-k are computed together from Z[k] and Z[half-k]
+        double z0Real = outReal[0];
+        double z0Imag = outImag[0];
+        outReal[0] = (z0Real + z0Imag) * HALF_SCALE;
+        outImag[0] = 0.0;
+        outReal[half] = (z0Real - z0Imag) * HALF_SCALE;
+        outImag[half] = 0.0;
+
+        for (int k = 1; k <= half / 2; k++) {
+            int mirror = half - k;
+            double aReal = outReal[k];
+            double aImag = outImag[k];
+            double bReal = outReal[mirror];
+            double bImag = -outImag[mirror];
+
+            // even part E = (a + b) / 2, odd part O = -i (a - b) / 2, where b = conj(Z[half-k])
+            double eReal = 0.5 * (aReal + bReal);
+            double eImag = 0.5 * (aImag + bImag);
+            double oReal = 0.5 * (aImag - bImag);
+            double oImag = -0.5 * (aReal - bReal);
+
+            // W^k O with W = exp(-2 pi i / n)
+            double c = cosTable[k];
+            double s = sinTable[k];
+            double wReal = oReal * c + oImag * s;
+            double wImag = oImag * c - oReal * s;
+
+            // X[k] = E + W^k O, X[half-k] = conj(E - W^k O), both conjugated on output
+            outReal[k] = (eReal + wReal) * HALF_SCALE;
+            outImag[k] = -(eImag + wImag) * HALF_SCALE;
+            if (mirror != k) {
+                outReal[mirror] = (eReal - wReal) * HALF_SCALE;
+                outImag[mirror] = (eImag - wImag) * HALF_SCALE;
+            }
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package chirp.me.in.utils;
 
 import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import chirp.me.in.*;
 import chirp.me.in.base.OnSuccessCallback;
 
 /**
@@ -11,10 +15,59 @@ public class RecordingHelper {
      * calling context
      */
     private final Context context;
+    /**
+     * constant imported from bools.xml
+     *  represents whether the wav file is written directly while recording rather than
+     *  converted from a raw file once recording stops
+     */
+    private final boolean DIRECT_WAV;
+    /**
+     * constant imported from bools.xml
+     *  represents whether audio is captured into memory only, without writing any file
+     */
+    private final boolean IN_MEMORY_CAPTURE;
+    /**
+     * constant imported from bools.xml
+     *  represents whether the line is fitted to the streamed peaks with Theil-Sen rather than
+     *  least squares
+     */
+    private final boolean ROBUST_FIT;
+    /**
+     * constant imported from bools.xml
+     *  represents whether the recorder is initialized at sign-in and kept between recordings,
+     *  so that WAKE_UP starts capturing without waiting for it
+     */
+    private final boolean WARM_RECORDER;
+    /**
+     * longest capture kept in memory, older audio is overwritten beyond this
+     */
+    private final int MAX_CAPTURE_SECONDS = 30;
     /**
      * for recording audio
      */
     private WavMaker recorder;
+    /**
+     * analyzer attached to the current recording, null if not streaming
+     */
+    private StreamingSpectrumAnalyzer analyzer;
+    /**
+     * in memory capture, allocated once and reused for every recording
+     */
+    private PcmRingBuffer ringBuffer;
+    /**
+     * whether the current recording is being captured into ringBuffer
+     */
+    private boolean capturedInMemory = false;
+    /**
+     * SystemClock.elapsedRealtimeNanos when the current recording was asked to start and when
+     * it was reported started
+     */
+    private long startRequestedNanos = LatencyEstimator.NO_TIME;
+    private long startReportedNanos = LatencyEstimator.NO_TIME;
+    /**
+     * whether release was asked for during a recording, and happens once it stops
+     */
+    private boolean releaseAfterStop = false;
 
     /**
      * default constructor
@@ -22,6 +75,46 @@ public class RecordingHelper {
      */
     public RecordingHelper(final Context context) {
         this.context = context;
+        DIRECT_WAV = context.getResources().getBoolean(R.bool.DIRECT_WAV);
+        IN_MEMORY_CAPTURE = context.getResources().getBoolean(R.bool.IN_MEMORY_CAPTURE);
+        ROBUST_FIT = context.getResources().getBoolean(R.bool.ROBUST_FIT);
+        WARM_RECORDER = context.getResources().getBoolean(R.bool.WARM_RECORDER);
+    }
+
+    /**
+     * initialize the recorder and its capture thread ahead of the first recording, if
+     * WARM_RECORDER is set. They are then kept, parked, until release
+     * @param filename - where recordings will be saved
+     */
+    public void warmUp(final String filename) {
+        releaseAfterStop = false;
+        if (!WARM_RECORDER || (recorder != null && recorder.isPrepared())) {
+            return;
+        }
+        WavMaker warm = new WavMaker(context.getExternalCacheDir().getAbsolutePath(), filename, context);
+        if (warm.prepare()) {
+            this.recorder = warm;
+            Log.d("MY_RECORDER", "Warmed up in " + warm.getWarmUpNanos() / 1e6 + " ms");
+        } else {
+            Log.d("MY_RECORDER", "Could not warm up, recording without");
+        }
+    }
+
+    /**
+     * free a recorder kept by warmUp. A recording in progress is finished first, the recorder is
+     * then released once stopRecording has been called
+     */
+    public void release() {
+        if (recorder == null || !recorder.isPrepared()) {
+            return;
+        }
+        if (recorder.isRecording()) {
+            releaseAfterStop = true;
+            return;
+        }
+        recorder.release();
+        recorder = null;
+        Log.d("MY_RECORDER", "Released warm recorder");
     }
 
     /**
@@ -30,8 +123,72 @@ public class RecordingHelper {
      * @param filename - where to save file
      */
     public void startRecording(final OnSuccessCallback callback, final String filename) {
-        this.recorder = new WavMaker(context.getExternalCacheDir().getAbsolutePath(), filename, context);
+        startRecording(callback, filename, false);
+    }
+
+    /**
+     * start recording, then perform callback (save to filename), optionally analyzing the
+     * audio while it is recorded (see getAnalyzer)
+     * @param callback - to perform on success
+     * @param filename - where to save file
+     * @param streamingAnalysis - whether to run the STFT while recording
+     */
+    public void startRecording(final OnSuccessCallback callback, final String filename,
+                               final boolean streamingAnalysis) {
+        startRecording(callback, filename, streamingAnalysis, Double.NaN, null);
+    }
+
+    /**
+     * start recording with streaming analysis, deciding the auth result as soon as the chirp
+     * fit is conclusive (see EarlyDecision)
+     * @param callback - to perform on success
+     * @param filename - where to save file
+     * @param trueSlope - slope of the chirp that will be played
+     * @param listener - called once the decision is conclusive, from the "capture-writer"
+     *                 thread feeding the analyzer (see WavMaker). Stopping the recording waits
+     *                 for that thread, so the listener must only hand the decision over, e.g.
+     *                 post it to the main thread, and never stop the recording or block
+     */
+    public void startRecording(final OnSuccessCallback callback, final String filename,
+                               final double trueSlope, final EarlyDecision.Listener listener) {
+        startRecording(callback, filename, true, trueSlope, listener);
+    }
+
+    private void startRecording(final OnSuccessCallback callback, final String filename,
+                                final boolean streamingAnalysis, final double trueSlope,
+                                final EarlyDecision.Listener listener) {
+        startRequestedNanos = SystemClock.elapsedRealtimeNanos();
+        if (recorder != null && recorder.isPrepared()) {
+            recorder.setFilename(filename);
+        } else {
+            this.recorder = new WavMaker(context.getExternalCacheDir().getAbsolutePath(), filename, context);
+        }
+        recorder.setDirectWav(DIRECT_WAV);
+        capturedInMemory = IN_MEMORY_CAPTURE;
+        recorder.setRingBuffer(null);
+        if (IN_MEMORY_CAPTURE) {
+            if (ringBuffer == null) {
+                ringBuffer = new PcmRingBuffer(recorder.getSampleRate(), recorder.getChannels(),
+                        MAX_CAPTURE_SECONDS * recorder.getSampleRate());
+            }
+            ringBuffer.clear();
+            recorder.setRingBuffer(ringBuffer);
+        }
+        this.analyzer = null;
+        if (streamingAnalysis) {
+            analyzer = new StreamingSpectrumAnalyzer(ChirpAnalysisConfig.DEFAULT.withEstimator(
+                    ROBUST_FIT ? RegressionEstimator.THEIL_SEN : RegressionEstimator.LEAST_SQUARES),
+                    recorder.getSampleRate(), recorder.getChannels());
+            if (listener != null) {
+                analyzer.setEarlyDecision(new EarlyDecision(ChirpAnalysisConfig.DEFAULT, trueSlope,
+                        analyzer.framesFor(EarlyDecision.DEFAULT_MIN_SECONDS)), listener);
+            }
+        }
+        recorder.setAnalyzer(analyzer);
+        PipelineMetrics.Section start = PipelineMetrics.get().begin(PipelineMetrics.RECORDER_START);
         recorder.startRecording();
+        start.end();
+        startReportedNanos = SystemClock.elapsedRealtimeNanos();
         callback.OnSuccess();   // call on success callback
     }
 
@@ -41,8 +198,58 @@ public class RecordingHelper {
      */
     public void stopRecording(final OnSuccessCallback onSuccess) {
         if (recorder != null) {
+            PipelineMetrics.Section stop = PipelineMetrics.get().begin(PipelineMetrics.RECORDER_STOP);
             recorder.stopRecording();
+            stop.end(recorder.getFramesRead() * recorder.getChannels() * 2);
+            logCapture();
             onSuccess.OnSuccess();
+            if (releaseAfterStop) {
+                releaseAfterStop = false;
+                release();
+            }
         }
     }
+
+    /**
+     * log how long the last recording took to start, from the request to the callback and to
+     * the first block of audio, whether the recorder was warm, and how cleanly it was captured
+     */
+    private void logCapture() {
+        long firstBlock = recorder.getFirstBlockNanos();
+        if (firstBlock != LatencyEstimator.NO_TIME) {
+            PipelineMetrics.get().record(PipelineMetrics.FIRST_SAMPLE, firstBlock - startRequestedNanos);
+        }
+        Log.d("MY_RECORDER", (recorder.isPrepared() ? "Warm" : "Cold") + " start: reported after "
+                + (startReportedNanos - startRequestedNanos) / 1e6 + " ms, first block after "
+                + (firstBlock == LatencyEstimator.NO_TIME ? "-"
+                        : String.valueOf((firstBlock - startRequestedNanos) / 1e6)) + " ms");
+        Log.d("MY_RECORDER", "Captured " + recorder.getFramesRead() + " frames: "
+                + recorder.getOverruns() + " overruns, " + recorder.getShortReads() + " short reads, "
+                + recorder.getReadErrors() + " read errors, " + recorder.getWriterStalls()
+                + " writer stalls");
+    }
+
+    /**
+     * @return SystemClock.elapsedRealtimeNanos of the first frame of the last recording, NO_TIME
+     * if not recording. Only exact once stopRecording has returned
+     */
+    public long getRecordingStartNanos() {
+        return recorder != null ? recorder.getStartNanos() : LatencyEstimator.NO_TIME;
+    }
+
+    /**
+     * @return analyzer attached to the last recording, or null if it was not streamed. Only
+     * complete once stopRecording has returned
+     */
+    public StreamingSpectrumAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /**
+     * @return in memory capture of the last recording, or null if it was recorded to file. Only
+     * complete once stopRecording has returned
+     */
+    public PcmRingBuffer getRingBuffer() {
+        return capturedInMemory ? ringBuffer : null;
+    }
 }
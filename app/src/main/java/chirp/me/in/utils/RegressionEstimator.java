@@ -0,0 +1,18 @@
+package chirp.me.in.utils;
+
+/**
+ * How the line is fitted to the cropped peak track (see ChirpAnalysisConfig.withEstimator). Both
+ * give a LinearRegression, so the auth decision reads slope and r^2 the same way either way.
+ */
+public enum RegressionEstimator {
+    /**
+     * ordinary least squares over every peak (LinearRegression), as the analysis has always done
+     */
+    LEAST_SQUARES,
+    /**
+     * median of pairwise slopes (TheilSenRegression), with r^2 over the inliers only, so a few
+     * stray peaks neither tilt the line nor drag r^2 below tau. Accepted only if enough peaks
+     * are inliers (see ChirpAnalysisConfig.withMinInlierFraction)
+     */
+    THEIL_SEN
+}
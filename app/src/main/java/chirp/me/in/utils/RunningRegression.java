@@ -0,0 +1,132 @@
+package chirp.me.in.utils;
+
+/**
+ * Simple linear regression kept up to date one point at a time, in O(1) memory. Means and
+ * centered second moments are updated with Welford's method, which stays accurate where the
+ * naive sums of x^2 and xy would cancel (e.g. time stamps far from 0). Points can also be removed
+ * again, so a fit over a sliding range of frames is just an add and a remove per frame.
+ *
+ * Slope, intercept, r^2 and standard errors are available after every point and agree with
+ * LinearRegression on the same points; toLinearRegression takes a snapshot for code that expects
+ * the batch class. Not thread safe.
+ */
+public class RunningRegression {
+    private int n = 0;
+    private double meanX = 0.0;
+    private double meanY = 0.0;
+    /**
+     * sum of squared deviations of x and y from their means
+     */
+    private double m2x = 0.0;
+    private double m2y = 0.0;
+    /**
+     * sum of products of the deviations of x and y from their means
+     */
+    private double cxy = 0.0;
+
+    /**
+     * add a point to the fit
+     * @param x - value of the predictor variable
+     * @param y - corresponding value of the response variable
+     */
+    public void add(final double x, final double y) {
+        n++;
+        double dx = x - meanX;
+        double dy = y - meanY;
+        meanX += dx / n;
+        meanY += dy / n;
+        m2x += dx * (x - meanX);
+        m2y += dy * (y - meanY);
+        cxy += dx * (y - meanY);
+    }
+
+    /**
+     * remove a point that was added before. Removing a point that was never added gives a
+     * meaningless fit
+     * @param x - value of the predictor variable
+     * @param y - corresponding value of the response variable
+     */
+    public void remove(final double x, final double y) {
+        if (n <= 1) {
+            clear();
+            return;
+        }
+        n--;
+        double dx = x - meanX;
+        double dy = y - meanY;
+        meanX -= dx / n;
+        meanY -= dy / n;
+        m2x -= dx * (x - meanX);
+        m2y -= dy * (y - meanY);
+        cxy -= dx * (y - meanY);
+    }
+
+    /**
+     * remove all points
+     */
+    public void clear() {
+        n = 0;
+        meanX = 0.0;
+        meanY = 0.0;
+        m2x = 0.0;
+        m2y = 0.0;
+        cxy = 0.0;
+    }
+
+    /**
+     * @return number of points in the fit
+     */
+    public int count() {
+        return n;
+    }
+
+    public double slope() {
+        return cxy / m2x;
+    }
+
+    public double intercept() {
+        return meanY - slope() * meanX;
+    }
+
+    /**
+     * @return coefficient of determination, NaN with fewer than 2 distinct points
+     */
+    public double R2() {
+        return cxy * cxy / (m2x * m2y);
+    }
+
+    /**
+     * @return standard error of the slope, NaN with fewer than 3 points
+     */
+    public double slopeStdErr() {
+        return Math.sqrt(residualVariance() / m2x);
+    }
+
+    /**
+     * @return standard error of the intercept, NaN with fewer than 3 points
+     */
+    public double interceptStdErr() {
+        double svar = residualVariance();
+        return Math.sqrt(svar / n + meanX * meanX * svar / m2x);
+    }
+
+    /**
+     * residual sum of squares over the degrees of freedom
+     */
+    private double residualVariance() {
+        double rss = Math.max(0.0, m2y - cxy * cxy / m2x);
+        return n > 2 ? rss / (n - 2) : Double.NaN;
+    }
+
+    /**
+     * @return the current fit as a LinearRegression
+     */
+    public LinearRegression toLinearRegression() {
+        return new LinearRegression(n, meanX, meanY, m2x, m2y, cxy);
+    }
+
+    @Override
+    public String toString() {
+        return toLinearRegression().toString() + " over " + n + " points";
+    }
+}
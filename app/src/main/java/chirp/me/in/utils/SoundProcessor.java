@@ -9,43 +9,33 @@ import android.util.Log;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 
 import chirp.me.in.*;
 
 /**
  * for doing fft and making spectrogram, code modified from
  *  https://stackoverflow.com/questions/39295589/creating-spectrogram-from-wav-using-fft-in-java
+ * The analysis itself is done by ChirpAnalyzer, this class adds the Android side (debug flag,
+ * logging and the spectrogram image)
  */
 public class SoundProcessor {
     /**
-     * stores the entire file data read from .wav file
+     * recorded samples (e.g. memory mapped view of the .wav file), null if they could not be read
      */
-    private final byte[] entireFileData;
+    private final PcmSource pcm;
     /**
      * whether system is in debu gmode
      */
     private final boolean DEBUG;
     /**
-     * fft window size
+     * platform independent analysis this class wraps
      */
-    private final int windowSize = 1024;
+    private final ChirpAnalyzer analyzer;
     /**
-     * fft overlap factor
+     * matched filter alternative to the regression
      */
-    private final int overlap = 8;
-    /**
-     * scaling factor for cropping (SIGMA * latencyMS from start and end of recording)
-     */
-    private final double SIGMA = 1.4;
-    /**
-     * wav file local file reference
-     */
-    private final File file;
+    private final DechirpDetector dechirpDetector;
 
     /**
      * construct sound processor from file path
@@ -56,30 +46,28 @@ public class SoundProcessor {
 
         // check if we are debugging
         DEBUG = context.getResources().getBoolean(R.bool.DEBUG);
+        analyzer = createAnalyzer(context);
+        dechirpDetector = new DechirpDetector(analyzer.getConfig());
 
-        file = new File(wavFilePath);
+        File file = new File(wavFilePath);
 
-        // parse file into byte array
-        FileInputStream fileInputStream;
-        entireFileData = new byte[(int) file.length()];
+        // map file, parsing header once
+        WavFileSource source = null;
         try
         {
-            //Read bytes with InputStream
-            fileInputStream = new FileInputStream(file);
-            fileInputStream.read(entireFileData);
-            fileInputStream.close();
+            PipelineMetrics.Section decode = PipelineMetrics.get().begin(PipelineMetrics.PCM_DECODE);
+            source = new WavFileSource(file);
+            decode.end(file.length());
         }
         catch (Exception e)
         {
             e.printStackTrace();
         }
+        pcm = source;
 
-        if (DEBUG){
-            //extract format
-            String format = new String(Arrays.copyOfRange(entireFileData, 8, 12), StandardCharsets.UTF_8);
-
+        if (DEBUG && source != null){
             //extract number of channels
-            int noOfChannels = entireFileData[22];
+            int noOfChannels = source.getChannels();
             String noOfChannels_str;
             if (noOfChannels == 2)
                 noOfChannels_str = "2 (stereo)";
@@ -88,22 +76,44 @@ public class SoundProcessor {
             else
                 noOfChannels_str = noOfChannels + "(more than 2 channels)";
 
-            //extract sampling rate (SR)
-            int SR = (int) this.getSR();
+            Log.d("MY_SOUND_PROCESSING", "---------------------------------------------------");
+            Log.d("MY_SOUND_PROCESSING", "File path:          " + wavFilePath);
+            Log.d("MY_SOUND_PROCESSING", "File format:        " + source.getFormat());
+            Log.d("MY_SOUND_PROCESSING", "Number of channels: " + noOfChannels_str);
+            Log.d("MY_SOUND_PROCESSING", "Sampling rate:      " + source.getSampleRate());
+            Log.d("MY_SOUND_PROCESSING", "Bit depth:          " + source.getBitsPerSample());
+            Log.d("MY_SOUND_PROCESSING", "---------------------------------------------------");
+        }
+    }
 
-            //extract Bit Per Second (BPS/Bit depth)
-            int BPS = entireFileData[34];
+    /**
+     * construct sound processor from samples already in memory (or any other pcm source),
+     * without going through a file
+     * @param pcm - recorded samples
+     * @param context - calling context
+     */
+    public SoundProcessor(final PcmSource pcm, final Context context) {
+        DEBUG = context.getResources().getBoolean(R.bool.DEBUG);
+        analyzer = createAnalyzer(context);
+        dechirpDetector = new DechirpDetector(analyzer.getConfig());
+        this.pcm = pcm;
+    }
 
-            if(DEBUG) {
-                Log.d("MY_SOUND_PROCESSING", "---------------------------------------------------");
-                Log.d("MY_SOUND_PROCESSING", "File path:          " + wavFilePath);
-                Log.d("MY_SOUND_PROCESSING", "File format:        " + format);
-                Log.d("MY_SOUND_PROCESSING", "Number of channels: " + noOfChannels_str);
-                Log.d("MY_SOUND_PROCESSING", "Sampling rate:      " + SR);
-                Log.d("MY_SOUND_PROCESSING", "Bit depth:          " + BPS);
-                Log.d("MY_SOUND_PROCESSING", "---------------------------------------------------");
-            }
-        }
+    /**
+     * create analyzer, splitting the windows across cores if PARALLEL_STFT is set in bools.xml,
+     * transforming in float if SINGLE_PRECISION is set and fitting the line with Theil-Sen if
+     * ROBUST_FIT is set
+     * @param context - calling context
+     * @return analyzer with default settings
+     */
+    private static ChirpAnalyzer createAnalyzer(final Context context) {
+        boolean parallel = context.getResources().getBoolean(R.bool.PARALLEL_STFT);
+        boolean singlePrecision = context.getResources().getBoolean(R.bool.SINGLE_PRECISION);
+        boolean robustFit = context.getResources().getBoolean(R.bool.ROBUST_FIT);
+        return new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT.withSinglePrecision(singlePrecision)
+                .withEstimator(robustFit ? RegressionEstimator.THEIL_SEN
+                        : RegressionEstimator.LEAST_SQUARES),
+                parallel ? ChirpAnalyzer.sharedPool() : null);
     }
 
     /**
@@ -113,8 +123,30 @@ public class SoundProcessor {
      * @return slope (Hz/s)
      */
     public LinearRegression getLinearRegression(final long latencyMS) {
-        double[] rawData = getByteArray();
+        // crop and perform linear regression on cropped data to retrieve slope
+        return analyzer.regression(analyze(pcm), latencyMS);
+    }
+
+    /**
+     * Perform linear regression on the part of the recording the chirp is known to be in (see
+     * LatencyEstimator), only the windows inside it are analyzed
+     * @param startS - time (s) the chirp is known to have started by
+     * @param endS - time (s) the chirp is known to last until
+     * @return slope (Hz/s)
+     */
+    public LinearRegression getLinearRegression(final double startS, final double endS) {
+        return analyzer.regression(analyze(PcmSlice.of(pcm, startS, endS)),
+                0.0, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * find the peak of every window of the recording, saving the spectrogram in debug mode
+     * @param source - recording, or part of it
+     * @return peak track of source
+     */
+    private PeakTrack analyze(final PcmSource source) {
         double samplingRate = getSR();
+        int windowSize = analyzer.getConfig().getWindowSize();
         double time_resolution = windowSize / samplingRate;
         double frequency_resolution = samplingRate / windowSize;
         double highest_detectable_frequency = samplingRate / 2.0;
@@ -129,100 +161,56 @@ public class SoundProcessor {
             Log.d("MY_SOUND_PROCESSING", "---------------------------------------------------");
         }
 
-        int length = rawData.length;    //initialize plotData array
-        int windowStep = windowSize / overlap;  // calculate fft window step
-        int nX = (length - windowSize) / windowStep;    // calculate x dim of spectrogram
-        int nY = windowSize / 2 + 1;    // calculate y dim of spectrogram
-        double[][] plotData = new double[nX][nY];   // holds plotData
-
-        //apply FFT and find MAX and MIN amplitudes
-        double maxAmp = Double.MIN_VALUE;
-        double minAmp = Double.MAX_VALUE;
-        double amp_square;
-        double[] inputImag = new double[length];    // imaginary vector is all 0's
-        for (int i = 0; i < nX; i++) {
-            Arrays.fill(inputImag, 0.0);
-            // compute FFT on time slice
-            double[] WS_array = FFT.fft(
-                    Arrays.copyOfRange(rawData,
-                            i * windowStep,
-                            i * windowStep + windowSize
-                    ),
-                    inputImag,
-                    true);
-            // perform thresholding to obtain data ready for regression
-            for (int j = 0; j < nY; j++){
-                assert WS_array != null;
-                amp_square = (WS_array[2*j]*WS_array[2*j]) + (WS_array[2*j+1]*WS_array[2*j+1]);
-                double threshold = 1.0;
-                plotData[i][nY-j-1] = Math.max(amp_square,threshold);
-
-                //find MAX and MIN amplitude
-                if (plotData[i][j] > maxAmp)
-                    maxAmp = plotData[i][j];
-                else if (plotData[i][j] < minAmp)
-                    minAmp = plotData[i][j];
-
-            }
-        }
-
-        // Normalize data by max/min amplitudes
-        double diff = maxAmp - minAmp;
-        for (int i = 0; i < nX; i++){
-            for (int j = 0; j < nY; j++){
-                plotData[i][j] = (plotData[i][j] - minAmp) / diff;
-            }
-        }
+        // only the peak of each time slice is needed for regression, the full spectrogram is
+        // only kept when debugging so it can be saved as an image
+        double[][] plotData = DEBUG ?
+                new double[analyzer.frames(source.length())][analyzer.bins(samplingRate)] : null;
+        PeakTrack peaks = analyzer.peaks(source, plotData);
 
-        // extract indices of max frequency from each time slice
-        int[] maxFreqIndices = new int[plotData.length];
-        double tempMax;
-        for(int r = 0; r < plotData.length; r++) {
-            tempMax = Double.MIN_VALUE;
-            for(int c = 0; c < plotData[0].length; c++) {
-                if(plotData[r][c] > tempMax) {
-                    tempMax = plotData[r][c];
-                    maxFreqIndices[r] = c;
-                }
-            }
-        }
-
-        // calculate max frequencies from max frequency indices
-        double[] maxFreqs = new double[plotData.length];
-        for(int i = 0; i < plotData.length; i++) {
-            // have to subtract from 1 since we indexed in reverse when populating plotData
-            maxFreqs[i] = highest_detectable_frequency *
-                    (1.0 - ((double) maxFreqIndices[i] / plotData[0].length));
-        }
-
-        // calculate time stamps associated with those frequencies
-        double totalTimeS = (double) length / samplingRate;
-        double[] timeStamps = new double[plotData.length] ;
-        for(int i = 0; i < plotData.length; i++) {
-            timeStamps[i] = totalTimeS * ((double) i / plotData.length);
-        }
         if(DEBUG)
             Log.d("MY_TIME", "Duration in MS according to length over samplingRate: "
-                            + (totalTimeS * 1000.0));
-
-        // crop indices for frequencies and timestamps based on latency and SIGMA (scaling factor)
-        double crop = latencyMS * SIGMA / (totalTimeS * 1000) ;
-        int startIndex = (int) (maxFreqIndices.length * crop);
-        int endIndex = (int) ((maxFreqIndices.length - 1) * (1 - crop));
-        double[] maxFreqsCropped = Arrays.copyOfRange(maxFreqs, startIndex, endIndex);
-        double[] timeStampsCropped = Arrays.copyOfRange(timeStamps, startIndex, endIndex);
-
-        // perform linear regression on cropped data to retrieve slope
-        LinearRegression regression = new LinearRegression(timeStampsCropped, maxFreqsCropped);
+                            + ((double) peaks.length() / samplingRate * 1000.0));
 
-        // if debug, write image to file (not necessary for analysis)
-        if(DEBUG){
+        // if debug, write (already normalized) spectrogram image to file
+        if(plotData != null && plotData.length > 0){
             saveBitmapAsPNG(convertToBitmap(plotData), "spectrogram.png");
         }
-        return regression;
+        return peaks;
     }
 
+    /**
+     * Dechirp recording with a reference chirp of the expected slope and measure how strongly it
+     * collapses into a single tone. Alternative to getLinearRegression, see DechirpDetector
+     * @param slope - expected chirp slope (Hz/s)
+     * @param latencyMS the latency of the transmission to use in cropping
+     * @return SNR of the dechirped tone
+     */
+    public DechirpResult getDechirpResult(final double slope, final long latencyMS) {
+        return detect(pcm, slope, latencyMS);
+    }
+
+    /**
+     * getDechirpResult on the part of the recording the chirp is known to be in (see
+     * LatencyEstimator)
+     * @param slope - expected chirp slope (Hz/s)
+     * @param startS - time (s) the chirp is known to have started by
+     * @param endS - time (s) the chirp is known to last until
+     * @return SNR of the dechirped tone
+     */
+    public DechirpResult getDechirpResult(final double slope, final double startS,
+                                          final double endS) {
+        return detect(PcmSlice.of(pcm, startS, endS), slope, 0);
+    }
 
+    /**
+     * dechirp source, timed as a stage of PipelineMetrics
+     */
+    private DechirpResult detect(final PcmSource source, final double slope, final long latencyMS) {
+        PipelineMetrics.Section section = PipelineMetrics.get().begin(PipelineMetrics.DECHIRP);
+        DechirpResult result = dechirpDetector.detect(source, slope, latencyMS);
+        section.end(2L * source.length() * source.getChannels());
+        return result;
+    }
 
     /**
      * save bitmap as png file with filename
@@ -271,33 +259,22 @@ public class SoundProcessor {
     }
 
     /**
-     * get sampling rate of file
+     * get sampling rate of recording
      * @return sampling rate as int cast to double
      */
     public double getSR(){
-        // big-endian by default
-        ByteBuffer wrapped = ByteBuffer.wrap(Arrays.copyOfRange(entireFileData, 24, 28));
-        return wrapped.order(java.nio.ByteOrder.LITTLE_ENDIAN).getInt();
+        // parsed once from the header when the file was mapped
+        return pcm.getSampleRate();
     }
 
     /**
-     * get raw data byte array from wav file
-     * @return byte array with raw data
+     * get raw data from recording, downmixed to mono. Only needed when the whole recording is
+     * wanted at once, getLinearRegression decodes one window at a time instead
+     * @return double array with raw data
      */
     public double[] getByteArray (){
-        byte[] data_raw = Arrays.copyOfRange(entireFileData, 44, entireFileData.length);
-        int totalLength = data_raw.length;
-
-        //declare double array for mono
-        int new_length = totalLength/4;
-        double[] data_mono = new double[new_length];
-
-        double left, right;
-        for (int i = 0; 4*i+3 < totalLength; i++){
-            left = (short)((data_raw[4*i+1] & 0xff) << 8) | (data_raw[4*i] & 0xff);
-            right = (short)((data_raw[4*i+3] & 0xff) << 8) | (data_raw[4*i+2] & 0xff);
-            data_mono[i] = (left+right)/2.0;
-        }
+        double[] data_mono = new double[pcm.length()];
+        pcm.read(0, data_mono, 0, data_mono.length);
         return data_mono;
     }
 
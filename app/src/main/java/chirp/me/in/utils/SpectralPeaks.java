@@ -0,0 +1,170 @@
+package chirp.me.in.utils;
+
+/**
+ * Peak search and frequency scales shared by the spectrogram analyzers (batch and
+ * streaming). Plain Java, so it can run off-device
+ */
+public final class SpectralPeaks {
+    private SpectralPeaks() {
+    }
+
+    /**
+     * Find bin of highest power in a half spectrum. Power is thresholded at 1.0 and ties go to
+     * the highest frequency bin, as they always have for the spectrogram based peak search
+     * @param real - real part of bins 0..n/2
+     * @param imag - imaginary part of bins 0..n/2
+     * @return index of peak bin (0 = DC)
+     */
+    public static int peakBin(final double[] real, final double[] imag) {
+        return peakBin(real, imag, 1.0);
+    }
+
+    /**
+     * Find bin of highest power in a half spectrum, treating power below floor as floor
+     * @param real - real part of bins 0..n/2
+     * @param imag - imaginary part of bins 0..n/2
+     * @param floor - power threshold
+     * @return index of peak bin (0 = DC)
+     */
+    public static int peakBin(final double[] real, final double[] imag, final double floor) {
+        return peakBin(real, imag, floor, 0, real.length - 1);
+    }
+
+    /**
+     * Find bin of highest power among bins [fromBin, toBin], treating power below floor as floor.
+     * Ties go to the highest bin, as in peakBin
+     * @param real - real part of bins 0..n/2
+     * @param imag - imaginary part of bins 0..n/2
+     * @param floor - power threshold
+     * @param fromBin - lowest bin searched
+     * @param toBin - highest bin searched
+     * @return index of peak bin (0 = DC)
+     */
+    public static int peakBin(final double[] real, final double[] imag, final double floor,
+                              final int fromBin, final int toBin) {
+        int peak = toBin;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int j = toBin; j >= fromBin; j--) {
+            double ampSquare = Math.max(real[j] * real[j] + imag[j] * imag[j], floor);
+            if (ampSquare > max) {
+                max = ampSquare;
+                peak = j;
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * single precision version of peakBin, for the float analysis path
+     * @param real - real part of bins 0..n/2
+     * @param imag - imaginary part of bins 0..n/2
+     * @param floor - power threshold
+     * @param fromBin - lowest bin searched
+     * @param toBin - highest bin searched
+     * @return index of peak bin (0 = DC)
+     */
+    public static int peakBin(final float[] real, final float[] imag, final float floor,
+                              final int fromBin, final int toBin) {
+        int peak = toBin;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int j = toBin; j >= fromBin; j--) {
+            float ampSquare = Math.max(real[j] * real[j] + imag[j] * imag[j], floor);
+            if (ampSquare > max) {
+                max = ampSquare;
+                peak = j;
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Offset of the true peak from the peak bin found by peakBin, by interpolating between it
+     * and its neighbours. No offset is given for a peak at the edge of the searched range or at
+     * the floor
+     * @param real - real part of bins 0..n/2
+     * @param imag - imaginary part of bins 0..n/2
+     * @param bin - peak bin
+     * @param floor - power threshold
+     * @param fromBin - lowest bin searched
+     * @param toBin - highest bin searched
+     * @param interpolation - how to interpolate
+     * @return offset in bins, in [-0.5, 0.5]
+     */
+    public static double peakOffset(final double[] real, final double[] imag, final int bin,
+                                    final double floor, final int fromBin, final int toBin,
+                                    final PeakInterpolation interpolation) {
+        if (bin <= fromBin || bin >= toBin) {
+            return 0.0;
+        }
+        double peak = real[bin] * real[bin] + imag[bin] * imag[bin];
+        if (peak <= floor) {
+            return 0.0;
+        }
+        return interpolation.offset(
+                real[bin - 1] * real[bin - 1] + imag[bin - 1] * imag[bin - 1], peak,
+                real[bin + 1] * real[bin + 1] + imag[bin + 1] * imag[bin + 1]);
+    }
+
+    /**
+     * single precision version of peakOffset, for the float analysis path
+     */
+    public static double peakOffset(final float[] real, final float[] imag, final int bin,
+                                    final float floor, final int fromBin, final int toBin,
+                                    final PeakInterpolation interpolation) {
+        if (bin <= fromBin || bin >= toBin) {
+            return 0.0;
+        }
+        float peak = real[bin] * real[bin] + imag[bin] * imag[bin];
+        if (peak <= floor) {
+            return 0.0;
+        }
+        return interpolation.offset(
+                real[bin - 1] * real[bin - 1] + imag[bin - 1] * imag[bin - 1], peak,
+                real[bin + 1] * real[bin + 1] + imag[bin + 1] * imag[bin + 1]);
+    }
+
+    /**
+     * peakOffset for a spectrum already reduced to power, e.g. by ZoomSpectrum
+     * @param power - power of each point
+     * @param index - index of the peak in power
+     * @param count - number of valid entries in power
+     * @param floor - power threshold
+     * @param interpolation - how to interpolate
+     * @return offset in points, in [-0.5, 0.5]
+     */
+    public static double peakOffset(final double[] power, final int index, final int count,
+                                    final double floor, final PeakInterpolation interpolation) {
+        if (index <= 0 || index >= count - 1 || power[index] <= floor) {
+            return 0.0;
+        }
+        return interpolation.offset(power[index - 1], power[index], power[index + 1]);
+    }
+
+    /**
+     * Frequency assigned to a peak bin, as the spectrogram based analysis always has (the
+     * spectrogram rows span nY = windowSize / 2 + 1 equal steps up to the nyquist frequency)
+     * @param bin - peak bin (0 = DC), fractional for peaks found between bins (see ZoomSpectrum)
+     * @param windowSize - fft window size the bin comes from
+     * @param samplingRate - sampling rate of the recording
+     * @return frequency in Hz
+     */
+    public static double frequency(final double bin, final int windowSize, final double samplingRate) {
+        int nY = windowSize / 2 + 1;
+        double highest_detectable_frequency = samplingRate / 2.0;
+        return highest_detectable_frequency * (1.0 - ((nY - 1 - bin) / nY));
+    }
+
+    /**
+     * Frequency at the center of a (fractional) fft bin, bin * samplingRate / windowSize. Used
+     * for interpolated peaks, where the slightly compressed scale of frequency would show up as a
+     * slope error larger than the interpolation removes
+     * @param bin - peak bin (0 = DC)
+     * @param windowSize - fft window size the bin comes from
+     * @param samplingRate - sampling rate of the recording
+     * @return frequency in Hz
+     */
+    public static double binFrequency(final double bin, final int windowSize,
+                                      final double samplingRate) {
+        return bin * samplingRate / windowSize;
+    }
+}
@@ -0,0 +1,351 @@
+package chirp.me.in.utils;
+
+/**
+ * Incremental STFT over 16 bit little endian PCM as it is being recorded. Samples are
+ * downmixed to mono the same way PcmSource implementations do, and every time a full
+ * overlapped window is available its half spectrum is computed and the peak bin is kept.
+ * By the time recording stops, only the crop and the regression are left to do.
+ *
+ * Not thread safe: accept is meant to be called from the single "capture-writer" thread of
+ * WavMaker, and the results read only once that thread has finished.
+ */
+public class StreamingSpectrumAnalyzer {
+    /**
+     * fft window size
+     */
+    private final int windowSize;
+    /**
+     * number of new samples between consecutive windows (windowSize / overlap)
+     */
+    private final int windowStep;
+    /**
+     * sampling rate of incoming pcm
+     */
+    private final double samplingRate;
+    /**
+     * window, crop and threshold settings
+     */
+    private final ChirpAnalysisConfig config;
+    /**
+     * number of interleaved channels in incoming pcm
+     */
+    private final int channels;
+    /**
+     * chirp band and decimation for this sampling rate
+     */
+    private final BandLimit band;
+    /**
+     * band pass filter and decimator applied before the windows, null if not decimating
+     */
+    private final PolyphaseDecimator decimator;
+    /**
+     * real transform for one window
+     */
+    private final RealFFTPlan plan;
+    /**
+     * evaluates only the band instead of plan if a zoom is configured, otherwise null
+     */
+    private final ZoomSpectrum zoom;
+    /**
+     * power of each zoom point of the last window
+     */
+    private final double[] zoomPower;
+    /**
+     * mono samples of the window being filled
+     */
+    private final double[] window;
+    /**
+     * window function coefficients, null for the rectangular window
+     */
+    private final double[] taper;
+    /**
+     * window multiplied by taper, or window itself without one
+     */
+    private final double[] tapered;
+    /**
+     * half spectrum of the last transformed window
+     */
+    private final double[] spectrumReal;
+    private final double[] spectrumImag;
+    /**
+     * bytes of an incomplete pcm frame left over from the previous call to accept
+     */
+    private final byte[] pendingBytes;
+    private int pendingCount = 0;
+    /**
+     * number of samples currently held in window
+     */
+    private int filled = 0;
+    /**
+     * total number of mono samples received so far
+     */
+    private int totalSamples = 0;
+    /**
+     * number of samples that reached the windows (totalSamples / decimation)
+     */
+    private int analyzedSamples = 0;
+    /**
+     * peak bin (0 = DC, windowSize/2 = nyquist) of each window transformed so far
+     */
+    private int[] peakBins = new int[256];
+    /**
+     * interpolated offset of each peak from its bin, null without interpolation
+     */
+    private double[] peakOffsets;
+    private int frameCount = 0;
+    /**
+     * optional decision fed with every peak, and who to tell once it is conclusive
+     */
+    private EarlyDecision earlyDecision = null;
+    private EarlyDecision.Listener earlyDecisionListener = null;
+
+    /**
+     * @param config - window, crop and threshold settings
+     * @param samplingRate - sampling rate of the pcm passed to accept
+     * @param channels - number of interleaved 16 bit channels passed to accept
+     */
+    public StreamingSpectrumAnalyzer(final ChirpAnalysisConfig config,
+                                     final double samplingRate, final int channels) {
+        this.config = config;
+        this.windowSize = config.getWindowSize();
+        this.windowStep = config.getWindowStep();
+        this.samplingRate = samplingRate;
+        this.channels = channels;
+        this.band = BandLimit.forConfig(config, samplingRate);
+        this.decimator = band.newDecimator();
+        this.plan = RealFFTPlan.forSize(windowSize);
+        this.window = new double[windowSize];
+        this.taper = config.getWindow() == WindowFunction.RECTANGULAR
+                ? null : config.getWindow().coefficients(windowSize);
+        this.tapered = taper == null ? window : new double[windowSize];
+        this.peakOffsets = config.getInterpolation() == PeakInterpolation.NONE
+                ? null : new double[peakBins.length];
+        this.spectrumReal = new double[plan.bins()];
+        this.spectrumImag = new double[plan.bins()];
+        if (config.getZoom() > 0) {
+            this.zoom = new ZoomSpectrum(windowSize, windowStep, band.getFromBin(),
+                    band.getToBin(), config.getZoom());
+            this.zoomPower = new double[zoom.points()];
+        } else {
+            this.zoom = null;
+            this.zoomPower = null;
+        }
+        this.pendingBytes = new byte[2 * channels];
+    }
+
+    /**
+     * feed newly recorded pcm bytes to the analyzer
+     * @param data - interleaved 16 bit little endian pcm
+     * @param offset - index of first byte to read
+     * @param length - number of bytes to read
+     */
+    public void accept(final byte[] data, final int offset, final int length) {
+        int frameBytes = pendingBytes.length;
+        int i = offset;
+        int end = offset + length;
+
+        // complete a pcm frame split across two reads
+        if (pendingCount > 0) {
+            while (pendingCount < frameBytes && i < end) {
+                pendingBytes[pendingCount++] = data[i++];
+            }
+            if (pendingCount < frameBytes) {
+                return;
+            }
+            pushSample(downmix(pendingBytes, 0));
+            pendingCount = 0;
+        }
+
+        for (; i + frameBytes <= end; i += frameBytes) {
+            pushSample(downmix(data, i));
+        }
+
+        // keep trailing partial frame for next call
+        while (i < end) {
+            pendingBytes[pendingCount++] = data[i++];
+        }
+    }
+
+    /**
+     * average all channels of the pcm frame starting at index i
+     */
+    private double downmix(final byte[] data, final int i) {
+        if (channels == 2) {
+            double left = (short) ((data[i + 1] & 0xff) << 8) | (data[i] & 0xff);
+            double right = (short) ((data[i + 3] & 0xff) << 8) | (data[i + 2] & 0xff);
+            return (left + right) / 2.0;
+        }
+        double sum = 0.0;
+        for (int c = 0; c < channels; c++) {
+            sum += (short) ((data[i + 2 * c + 1] & 0xff) << 8) | (data[i + 2 * c] & 0xff);
+        }
+        return sum / channels;
+    }
+
+    /**
+     * append one mono sample, passing it through the decimator if there is one
+     */
+    private void pushSample(final double sample) {
+        totalSamples++;
+        if (decimator == null) {
+            pushAnalyzed(sample);
+        } else if (decimator.push(sample)) {
+            pushAnalyzed(decimator.output());
+        }
+    }
+
+    /**
+     * append one (decimated) sample to the window, transforming the window once it is full
+     */
+    private void pushAnalyzed(final double sample) {
+        window[filled++] = sample;
+        analyzedSamples++;
+        if (filled == windowSize) {
+            if (zoom != null) {
+                // the first window brings all of its blocks, later ones only the newest
+                int first = frameCount == 0 ? 0 : windowSize - windowStep;
+                for (int b = first; b < windowSize; b += windowStep) {
+                    zoom.push(window, b);
+                }
+                int peak = zoom.peak(zoomPower, config.getPowerFloor());
+                addPeak(peak, peakOffsets == null ? 0.0 : SpectralPeaks.peakOffset(zoomPower,
+                        peak - zoom.fineBin(0), zoom.points(), config.getPowerFloor(),
+                        config.getInterpolation()));
+            } else {
+                if (taper != null) {
+                    for (int j = 0; j < windowSize; j++) {
+                        tapered[j] = window[j] * taper[j];
+                    }
+                }
+                plan.transform(tapered, 0, spectrumReal, spectrumImag);
+                int peak = SpectralPeaks.peakBin(spectrumReal, spectrumImag,
+                        config.getPowerFloor(), band.getFromBin(), band.getToBin());
+                addPeak(peak, peakOffsets == null ? 0.0 : SpectralPeaks.peakOffset(spectrumReal,
+                        spectrumImag, peak, config.getPowerFloor(), band.getFromBin(),
+                        band.getToBin(), config.getInterpolation()));
+            }
+            // slide window forward by one step
+            System.arraycopy(window, windowStep, window, 0, windowSize - windowStep);
+            filled = windowSize - windowStep;
+        }
+    }
+
+    private void addPeak(final int bin, final double offset) {
+        if (frameCount == peakBins.length) {
+            int[] grown = new int[peakBins.length * 2];
+            System.arraycopy(peakBins, 0, grown, 0, frameCount);
+            peakBins = grown;
+            if (peakOffsets != null) {
+                double[] grownOffsets = new double[grown.length];
+                System.arraycopy(peakOffsets, 0, grownOffsets, 0, frameCount);
+                peakOffsets = grownOffsets;
+            }
+        }
+        if (peakOffsets != null) {
+            peakOffsets[frameCount] = offset;
+        }
+        if (earlyDecision != null && !earlyDecision.isDecided()) {
+            // window center time and exact bin frequency, as for interpolated peaks in PeakTrack
+            double time =
+                    (frameCount * (double) windowStep + windowSize / 2.0) / band.getOutputRate();
+            double frequency = band.getFrequencyOffset() + band.getFrequencyScale()
+                    * SpectralPeaks.binFrequency((bin + offset) / Math.max(config.getZoom(), 1),
+                    windowSize, band.getOutputRate());
+            if (earlyDecision.add(time, frequency) != EarlyDecision.Outcome.UNDECIDED
+                    && earlyDecisionListener != null) {
+                earlyDecisionListener.onDecision(earlyDecision);
+            }
+        }
+        peakBins[frameCount++] = bin;
+    }
+
+    /**
+     * decide the auth result while recording, must be called before the first call to accept
+     * @param decision - decision to feed every peak to, or null for none
+     * @param listener - called from the thread calling accept once the decision is conclusive
+     */
+    public void setEarlyDecision(final EarlyDecision decision,
+                                 final EarlyDecision.Listener listener) {
+        this.earlyDecision = decision;
+        this.earlyDecisionListener = listener;
+    }
+
+    /**
+     * @return decision fed by this analyzer, or null if none was set
+     */
+    public EarlyDecision getEarlyDecision() {
+        return earlyDecision;
+    }
+
+    /**
+     * @param seconds - duration of pcm
+     * @return number of windows analyzed per that many seconds of recording
+     */
+    public int framesFor(final double seconds) {
+        return (int) Math.ceil(seconds * band.getOutputRate() / windowStep);
+    }
+
+    /**
+     * @return number of mono samples received so far
+     */
+    public int getTotalSamples() {
+        return totalSamples;
+    }
+
+    /**
+     * @return number of windows analyzed so far
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return peak bins of analyzed windows (in 1/zoom fft bins with a zoom set), only the first
+     * getFrameCount() entries are valid
+     */
+    public int[] getPeakBins() {
+        return peakBins;
+    }
+
+    /**
+     * @return sampling rate of analyzed pcm
+     */
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * @return peaks of the windows analyzed so far, as ChirpAnalyzer.peaks would find them in a
+     * wav file of the same recording
+     */
+    public PeakTrack getPeakTrack() {
+        // the batch path leaves out the last window that fits, so do the same here
+        int nX = Math.min(frameCount, (analyzedSamples - windowSize) / windowStep);
+        return new PeakTrack(peakBins, Math.max(nX, 0), windowSize, analyzedSamples,
+                band.getOutputRate())
+                .withBand(band.getFrequencyOffset(), band.getFrequencyScale(),
+                        band.getDecimation())
+                .withZoom(Math.max(config.getZoom(), 1))
+                .withInterpolation(peakOffsets, windowStep);
+    }
+
+    /**
+     * Perform crop and linear regression on the windows analyzed so far, equivalent to
+     * SoundProcessor.getLinearRegression on a wav file of the same recording
+     * @param latencyMS the latency of the transmission to use in cropping
+     * @return regression of peak frequency over time
+     */
+    public LinearRegression getLinearRegression(final long latencyMS) {
+        return getPeakTrack().regress(latencyMS, config.getSigma(), config.getEstimator());
+    }
+
+    /**
+     * Crop to the chirp and perform linear regression on the windows analyzed so far
+     * @param startS - time (s) the chirp is known to have started by
+     * @param endS - time (s) the chirp is known to last until
+     * @return regression of peak frequency over time
+     */
+    public LinearRegression getLinearRegression(final double startS, final double endS) {
+        return getPeakTrack().regress(startS, endS, config.getEstimator());
+    }
+}
@@ -0,0 +1,511 @@
+package chirp.me.in.utils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Theil-Sen line fit: the slope is the median of the slopes between all pairs of points and the
+ * intercept the median of y - slope * x. Up to about 29% of the points can be arbitrarily far
+ * off without moving the line, so the odd noise driven jump of the peak frequency (to another
+ * sound, or to the noise floor) no longer tilts the fit the way it does least squares.
+ *
+ * Fit quality is judged on the inliers, the points within INLIER_SIGMAS robust standard
+ * deviations (1.4826 * median absolute residual) of the line: R2 and the standard errors are
+ * those of the line over the inliers only, and inlierFraction tells how many there were. With
+ * many peaks exactly on the line (a staircase of whole bins) the robust deviation is 0 and R2
+ * is 1 however many others were dropped, so acceptance also asks for a least inlierFraction
+ * (see ChirpAnalyzer.accepts).
+ *
+ * The median slope is found without listing all n (n - 1) / 2 pair slopes. For a trial slope s,
+ * the number of pairs with a smaller slope is the number of inversions of y - s * x taken in
+ * order of x, which a merge sort counts in O(n log n). The median of a random sample of pair
+ * slopes gives an interval that holds the median with high probability, a few such counts check
+ * and narrow it down to about LIST_FACTOR * n pair slopes, and those are listed and sorted to
+ * pick the exact median. O(n log n) overall, and deterministic: the sample is always the same
+ * for the same number of points.
+ */
+public class TheilSenRegression extends LinearRegression {
+    /**
+     * points further than this many robust standard deviations from the line are outliers
+     */
+    public static final double INLIER_SIGMAS = 3.0;
+    /**
+     * median absolute deviation of normally distributed values per standard deviation
+     */
+    private static final double MAD_SCALE = 1.4826;
+    /**
+     * pair slopes sampled per point to bracket the median
+     */
+    private static final int SAMPLE_FACTOR = 2;
+    /**
+     * half width of the bracket around the sample median, in standard deviations of a sample rank
+     */
+    private static final double BRACKET_SIGMAS = 4.0;
+    /**
+     * pair slopes per point the bracket is narrowed to before they are listed
+     */
+    private static final int LIST_FACTOR = 4;
+    /**
+     * length of the runs insertion sorted before merging starts
+     */
+    private static final int RUN = 16;
+    /**
+     * most bisection steps, enough to shrink any bracket below the double resolution of the slope
+     */
+    private static final int MAX_ITERATIONS = 64;
+
+    private final int n;
+    private final int inliers;
+
+    /**
+     * Performs a Theil-Sen regression on the data points {@code (y[i], x[i])}.
+     *
+     * @param  x the values of the predictor variable
+     * @param  y the corresponding values of the response variable
+     * @throws IllegalArgumentException if the lengths of the two arrays are not equal
+     */
+    public TheilSenRegression(double[] x, double[] y) {
+        this(x.length, fit(x, y));
+    }
+
+    private TheilSenRegression(int n, double[] fit) {
+        super(fit[0], fit[1], fit[2], fit[3], fit[4]);
+        this.n = n;
+        this.inliers = (int) fit[5];
+    }
+
+    /**
+     * @return number of points within INLIER_SIGMAS robust standard deviations of the line
+     */
+    public int inliers() {
+        return inliers;
+    }
+
+    /**
+     * @return share of the points that are inliers, between 0 and 1
+     */
+    @Override
+    public double inlierFraction() {
+        return n == 0 ? 0.0 : (double) inliers / n;
+    }
+
+    /**
+     * @return intercept, slope, r^2, intercept and slope variance and inlier count of the fit
+     */
+    private static double[] fit(final double[] x, final double[] y) {
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("array lengths are not equal");
+        }
+        int n = x.length;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        sortByX(x, y, xs, ys);
+
+        // pairs with equal x have no slope
+        long pairs = (long) n * (n - 1) / 2;
+        double minStep = Double.POSITIVE_INFINITY;
+        for (int i = 1, run = 1; i < n; i++) {
+            if (xs[i] == xs[i - 1]) {
+                pairs -= run++;
+            } else {
+                minStep = Math.min(minStep, xs[i] - xs[i - 1]);
+                run = 1;
+            }
+        }
+        if (pairs == 0) {
+            return new double[]{Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 0};
+        }
+
+        // no pair slope is steeper than the whole range of y over the smallest step in x
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        double bound = 2 * (maxY - minY) / minStep + 1.0;
+
+        double[] work = new double[n];
+        double[] merge = new double[n];
+        double slope = medianSlope(xs, ys, pairs, bound, work, merge);
+
+        // intercept is the median of the points' offsets from a line through 0 with that slope
+        for (int i = 0; i < n; i++) {
+            work[i] = ys[i] - slope * xs[i];
+        }
+        double intercept = median(work);
+
+        // residuals and their robust scale
+        for (int i = 0; i < n; i++) {
+            work[i] = Math.abs(ys[i] - slope * xs[i] - intercept);
+        }
+        double threshold = INLIER_SIGMAS * MAD_SCALE * median(work);
+
+        // line quality over the inliers
+        int m = 0;
+        double xbar = 0.0, ybar = 0.0;
+        for (int i = 0; i < n; i++) {
+            if (Math.abs(ys[i] - slope * xs[i] - intercept) <= threshold) {
+                m++;
+                xbar += xs[i];
+                ybar += ys[i];
+            }
+        }
+        xbar /= m;
+        ybar /= m;
+        double xxbar = 0.0, yybar = 0.0, rss = 0.0;
+        for (int i = 0; i < n; i++) {
+            double residual = ys[i] - slope * xs[i] - intercept;
+            if (Math.abs(residual) <= threshold) {
+                xxbar += (xs[i] - xbar) * (xs[i] - xbar);
+                yybar += (ys[i] - ybar) * (ys[i] - ybar);
+                rss += residual * residual;
+            }
+        }
+        double r2 = 1.0 - rss / yybar;
+        double svar = rss / (m - 2);
+        double svar1 = svar / xxbar;
+        double svar0 = svar / m + xbar * xbar * svar1;
+        return new double[]{intercept, slope, r2, svar0, svar1, m};
+    }
+
+    /**
+     * copy points into xs and ys in order of x, points of equal x in order of y
+     */
+    private static void sortByX(final double[] x, final double[] y,
+                                final double[] xs, final double[] ys) {
+        int n = x.length;
+        boolean sorted = true;
+        for (int i = 1; i < n && sorted; i++) {
+            sorted = x[i] > x[i - 1] || (x[i] == x[i - 1] && y[i] >= y[i - 1]);
+        }
+        if (sorted) {
+            // peak tracks already come in order of time
+            System.arraycopy(x, 0, xs, 0, n);
+            System.arraycopy(y, 0, ys, 0, n);
+            return;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> x[i])
+                .thenComparingDouble(i -> y[i]));
+        for (int i = 0; i < n; i++) {
+            xs[i] = x[order[i]];
+            ys[i] = y[order[i]];
+        }
+    }
+
+    /**
+     * @return slopes of SAMPLE_FACTOR * n random pairs of distinct x (or fewer if x has
+     * few distinct values)
+     */
+    private static double[] samplePairSlopes(final double[] xs, final double[] ys,
+                                             final long pairs) {
+        int n = xs.length;
+        int size = (int) Math.min((long) SAMPLE_FACTOR * n, pairs);
+        double[] sample = new double[size];
+        Random random = new Random(n);
+        int count = 0;
+        for (int attempt = 0; attempt < 4 * size && count < size; attempt++) {
+            int i = random.nextInt(n);
+            int j = random.nextInt(n);
+            if (xs[i] != xs[j]) {
+                sample[count++] = (ys[j] - ys[i]) / (xs[j] - xs[i]);
+            }
+        }
+        return Arrays.copyOf(sample, count);
+    }
+
+    /**
+     * find the median of the pair slopes, the mean of the two middle ones for an even count
+     * @param xs - x in increasing order
+     * @param ys - y in the same order, increasing within equal x
+     * @param pairs - number of pairs of distinct x
+     * @param bound - every pair slope lies in (-bound, bound)
+     * @param work - scratch array of length n
+     * @param merge - scratch array of length n
+     * @return median slope
+     */
+    private static double medianSlope(final double[] xs, final double[] ys, final long pairs,
+                                      final double bound, final double[] work,
+                                      final double[] merge) {
+        long lowRank = (pairs - 1) / 2;
+        long highRank = pairs / 2;
+
+        // bracket the middle ranks in the sample, then make sure that holds for all pairs:
+        // at most lowRank slopes are below lo, more than highRank are below hi
+        double[] sample = samplePairSlopes(xs, ys, pairs);
+        int m = sample.length;
+        double position = (lowRank + 0.5) / pairs * m;
+        double spread = BRACKET_SIGMAS * Math.sqrt(m) / 2;
+        int loIndex = (int) Math.floor(position - spread);
+        int hiIndex = (int) Math.ceil(position + spread);
+        double lo = loIndex >= 0 && m > 0 ? select(sample, 0, m, loIndex) : -bound;
+        // just above the sample slope, so that slopes equal to it are inside
+        double hi = hiIndex < m
+                ? Math.nextUp(select(sample, Math.max(loIndex + 1, 0), m, hiIndex)) : bound;
+        long below = lo == -bound ? 0 : countSlopesBelow(xs, ys, lo, work, merge);
+        if (below > lowRank) {
+            lo = -bound;
+            below = 0;
+        }
+        long belowHi = hi == bound ? pairs : countSlopesBelow(xs, ys, hi, work, merge);
+        if (belowHi <= highRank) {
+            hi = bound;
+            belowHi = pairs;
+        }
+
+        // narrow down by bisection until few enough slopes are left to list them
+        long limit = (long) LIST_FACTOR * xs.length;
+        for (int it = 0; it < MAX_ITERATIONS && belowHi - below > limit; it++) {
+            double mid = 0.5 * (lo + hi);
+            if (mid <= lo || mid >= hi) {
+                break;
+            }
+            long count = countSlopesBelow(xs, ys, mid, work, merge);
+            if (count > highRank) {
+                hi = mid;
+                belowHi = count;
+            } else if (count <= lowRank) {
+                lo = mid;
+                below = count;
+            } else {
+                // mid falls between the two middle slopes, list both halves
+                break;
+            }
+        }
+
+        if (Math.nextUp(lo) >= hi) {
+            // every remaining slope is lo, as happens when peaks are whole bins apart
+            return lo;
+        }
+        double[] slopes = listSlopes(xs, ys, lo, hi, (int) Math.min(belowHi - below, pairs));
+        if (slopes.length == 0) {
+            return 0.5 * (lo + hi);
+        }
+        int last = slopes.length - 1;
+        int lowIndex = (int) Math.max(0, Math.min(last, lowRank - below));
+        int highIndex = (int) Math.max(0, Math.min(last, highRank - below));
+        double lower = select(slopes, 0, slopes.length, lowIndex);
+        double upper = highIndex == lowIndex ? lower
+                : select(slopes, lowIndex + 1, slopes.length, highIndex);
+        return (lower + upper) / 2;
+    }
+
+    /**
+     * list the slopes of all pairs of distinct x with lo <= slope < hi. Taken in order of
+     * y - lo * x, those are exactly the pairs that are out of order in y - hi * x, so they fall
+     * out of a merge sort by y - hi * x
+     * @param expected - number of such pairs, to size the result
+     * @return slopes in no particular order
+     */
+    private static double[] listSlopes(final double[] xs, final double[] ys, final double lo,
+                                       final double hi, final int expected) {
+        int n = xs.length;
+        int[] order = new int[n];
+        int[] buffer = new int[n];
+        double[] key = new double[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            key[i] = ys[i] - lo * xs[i];
+        }
+        mergeSort(order, buffer, key, xs, ys, null);
+        for (int i = 0; i < n; i++) {
+            key[i] = ys[i] - hi * xs[i];
+        }
+        SlopeList slopes = new SlopeList(expected);
+        mergeSort(order, buffer, key, xs, ys, slopes);
+        return slopes.toArray();
+    }
+
+    /**
+     * stable bottom up merge sort (of insertion sorted runs) of point indices by key, adding the
+     * slope of every pair found out of order to inversions if given
+     */
+    private static void mergeSort(final int[] order, final int[] buffer, final double[] key,
+                                  final double[] xs, final double[] ys,
+                                  final SlopeList inversions) {
+        int n = order.length;
+        for (int lo = 0; lo < n; lo += RUN) {
+            int hi = Math.min(lo + RUN, n);
+            for (int i = lo + 1; i < hi; i++) {
+                int b = order[i];
+                int j = i;
+                while (j > lo && key[order[j - 1]] > key[b]) {
+                    if (inversions != null) {
+                        int a = order[j - 1];
+                        inversions.add((ys[b] - ys[a]) / (xs[b] - xs[a]));
+                    }
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = b;
+            }
+        }
+        for (int width = RUN; width < n; width *= 2) {
+            for (int lo = 0; lo < n - width; lo += 2 * width) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, n);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    if (key[order[j]] < key[order[i]]) {
+                        if (inversions != null) {
+                            int b = order[j];
+                            for (int l = i; l < mid; l++) {
+                                int a = order[l];
+                                inversions.add((ys[b] - ys[a]) / (xs[b] - xs[a]));
+                            }
+                        }
+                        buffer[k++] = order[j++];
+                    } else {
+                        buffer[k++] = order[i++];
+                    }
+                }
+                while (i < mid) {
+                    buffer[k++] = order[i++];
+                }
+                while (j < hi) {
+                    buffer[k++] = order[j++];
+                }
+                System.arraycopy(buffer, lo, order, lo, hi - lo);
+            }
+        }
+    }
+
+    /**
+     * growable list of slopes
+     */
+    private static final class SlopeList {
+        private double[] values;
+        private int size = 0;
+
+        SlopeList(final int capacity) {
+            values = new double[Math.max(capacity, 16)];
+        }
+
+        void add(final double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = value;
+        }
+
+        double[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * number of pairs i < j of distinct x with slope below s: the pairs whose y - s * x is
+     * smaller at j than at i, i.e. the inversions of y - s * x, counted with a bottom up merge
+     * sort of insertion sorted runs
+     */
+    private static long countSlopesBelow(final double[] xs, final double[] ys, final double s,
+                                         final double[] work, final double[] merge) {
+        int n = xs.length;
+        for (int i = 0; i < n; i++) {
+            work[i] = ys[i] - s * xs[i];
+        }
+        long count = 0;
+        // every place an element moves down while insertion sorting a run is an inversion
+        for (int lo = 0; lo < n; lo += RUN) {
+            int hi = Math.min(lo + RUN, n);
+            for (int i = lo + 1; i < hi; i++) {
+                double value = work[i];
+                int j = i;
+                while (j > lo && work[j - 1] > value) {
+                    work[j] = work[j - 1];
+                    j--;
+                }
+                count += i - j;
+                work[j] = value;
+            }
+        }
+        for (int width = RUN; width < n; width *= 2) {
+            for (int lo = 0; lo < n - width; lo += 2 * width) {
+                int mid = lo + width;
+                int hi = Math.min(lo + 2 * width, n);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    if (work[j] < work[i]) {
+                        // work[j] is below every remaining element of the left run
+                        count += mid - i;
+                        merge[k++] = work[j++];
+                    } else {
+                        merge[k++] = work[i++];
+                    }
+                }
+                while (i < mid) {
+                    merge[k++] = work[i++];
+                }
+                while (j < hi) {
+                    merge[k++] = work[j++];
+                }
+                System.arraycopy(merge, lo, work, lo, hi - lo);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param values - values to take the median of, reordered
+     * @return median of the values
+     */
+    private static double median(final double[] values) {
+        int n = values.length;
+        double upper = select(values, 0, n, n / 2);
+        return n % 2 == 1 ? upper : 0.5 * (select(values, 0, n / 2, n / 2 - 1) + upper);
+    }
+
+    /**
+     * find the k-th smallest of values[from, to) by quickselect, leaving smaller values before
+     * index k and larger ones after it
+     * @param values - values, reordered
+     * @param from - first index of the range
+     * @param to - end of the range (exclusive)
+     * @param k - index in values of the order statistic, from <= k < to
+     * @return value that belongs at index k in sorted order
+     */
+    private static double select(final double[] values, final int from, final int to,
+                                 final int k) {
+        int lo = from;
+        int hi = to - 1;
+        while (lo < hi) {
+            // median of three pivot, so sorted input does not go quadratic
+            int mid = (lo + hi) >>> 1;
+            double a = values[lo], b = values[mid], c = values[hi];
+            double pivot = a < b ? (b < c ? b : Math.max(a, c)) : (a < c ? a : Math.max(b, c));
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + "  (" + inliers + " of " + n + " inliers)";
+    }
+}
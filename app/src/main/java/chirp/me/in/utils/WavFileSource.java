@@ -0,0 +1,193 @@
+package chirp.me.in.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * PcmSource over a 16 bit pcm .wav file (as written by WavMaker, with a 44 byte header).
+ * The file is memory mapped and the samples are read through a little endian ShortBuffer
+ * view, so decoding a window never copies the file onto the heap. The header is parsed once.
+ */
+public class WavFileSource implements PcmSource {
+    /**
+     * size of the canonical wav header preceding the samples
+     */
+    static final int HEADER_SIZE = 44;
+    /**
+     * format tag of the file, "WAVE" for wav files
+     */
+    private final String format;
+    private final int channels;
+    private final int sampleRate;
+    private final int bitsPerSample;
+    /**
+     * little endian view of the samples following the header
+     */
+    private final ShortBuffer samples;
+    /**
+     * number of complete pcm frames in the file
+     */
+    private final int length;
+
+    /**
+     * map wav file and parse its header
+     * @param file - wav file to read
+     * @throws IOException if the file cannot be read or is too short to hold a header
+     */
+    public WavFileSource(final File file) throws IOException {
+        MappedByteBuffer mapped;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a wav file: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        byte[] formatBytes = new byte[4];
+        mapped.position(8);
+        mapped.get(formatBytes);
+        format = new String(formatBytes, StandardCharsets.UTF_8);
+        channels = mapped.getShort(22);
+        sampleRate = mapped.getInt(24);
+        bitsPerSample = mapped.getShort(34);
+
+        mapped.position(HEADER_SIZE);
+        samples = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        length = channels > 0 ? samples.limit() / channels : 0;
+    }
+
+    /**
+     * @return format tag of the file ("WAVE" for wav files)
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return bit depth of the samples
+     */
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public void read(final int start, final double[] dst, final int dstOffset, final int count) {
+        int index = start * channels;
+        if (channels == 2) {
+            for (int i = 0; i < count; i++, index += 2) {
+                double left = samples.get(index);
+                double right = samples.get(index + 1);
+                dst[dstOffset + i] = (left + right) / 2.0;
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            double sum = 0.0;
+            for (int c = 0; c < channels; c++) {
+                sum += samples.get(index++);
+            }
+            dst[dstOffset + i] = sum / channels;
+        }
+    }
+
+    @Override
+    public void read(final int start, final float[] dst, final int dstOffset, final int count) {
+        int index = start * channels;
+        if (channels == 2) {
+            for (int i = 0; i < count; i++, index += 2) {
+                dst[dstOffset + i] = (samples.get(index) + samples.get(index + 1)) * 0.5f;
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            float sum = 0.0f;
+            for (int c = 0; c < channels; c++) {
+                sum += samples.get(index++);
+            }
+            dst[dstOffset + i] = sum / channels;
+        }
+    }
+
+    /**
+     * build canonical 44 byte header of a pcm wav file
+     * @param sampleRate - sampling rate
+     * @param channels - number of interleaved channels
+     * @param bpp - bits per sample
+     * @param totalAudioLen - number of bytes of pcm following the header
+     * @return header bytes
+     */
+    static byte[] wavHeaderBytes(int sampleRate, int channels, int bpp, long totalAudioLen) {
+        long totalDataLen = totalAudioLen + 36;
+        long byteRate = (long) bpp * sampleRate * channels / 8;
+        byte[] header = new byte[44];
+        header[0] = 'R'; // RIFF/WAVE header
+        header[1] = 'I';
+        header[2] = 'F';
+        header[3] = 'F';
+        header[4] = (byte) (totalDataLen & 0xff);
+        header[5] = (byte) ((totalDataLen >> 8) & 0xff);
+        header[6] = (byte) ((totalDataLen >> 16) & 0xff);
+        header[7] = (byte) ((totalDataLen >> 24) & 0xff);
+        header[8] = 'W';
+        header[9] = 'A';
+        header[10] = 'V';
+        header[11] = 'E';
+        header[12] = 'f'; // 'fmt ' chunk
+        header[13] = 'm';
+        header[14] = 't';
+        header[15] = ' ';
+        header[16] = 16; // 4 bytes: size of 'fmt ' chunk
+        header[17] = 0;
+        header[18] = 0;
+        header[19] = 0;
+        header[20] = 1; // format = 1
+        header[21] = 0;
+        header[22] = (byte) channels;
+        header[23] = 0;
+        header[24] = (byte) ((long) sampleRate & 0xff);
+        header[25] = (byte) (((long) sampleRate >> 8) & 0xff);
+        header[26] = (byte) (((long) sampleRate >> 16) & 0xff);
+        header[27] = (byte) (((long) sampleRate >> 24) & 0xff);
+        header[28] = (byte) (byteRate & 0xff);
+        header[29] = (byte) ((byteRate >> 8) & 0xff);
+        header[30] = (byte) ((byteRate >> 16) & 0xff);
+        header[31] = (byte) ((byteRate >> 24) & 0xff);
+        header[32] = (byte) (channels * bpp / 8); // block align
+        header[33] = 0;
+        header[34] = (byte) bpp; // bits per sample
+        header[35] = 0;
+        header[36] = 'd';
+        header[37] = 'a';
+        header[38] = 't';
+        header[39] = 'a';
+        header[40] = (byte) (totalAudioLen & 0xff);
+        header[41] = (byte) ((totalAudioLen >> 8) & 0xff);
+        header[42] = (byte) ((totalAudioLen >> 16) & 0xff);
+        header[43] = (byte) ((totalAudioLen >> 24) & 0xff);
+        return header;
+    }
+}
@@ -5,13 +5,20 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
+import android.media.AudioTimestamp;
 import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.SystemClock;
 
 import androidx.core.app.ActivityCompat;
 
+import java.io.Closeable;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * generates wav files from recorded sound data
@@ -25,20 +32,141 @@ public class WavMaker {
     int channel = AudioFormat.CHANNEL_IN_STEREO;
     int audioEncoding = AudioFormat.ENCODING_PCM_16BIT;
     AudioRecord recorder = null;
+    /**
+     * milliseconds of audio read at once, and queued in the recorder's own buffer at least
+     */
+    private static final int READ_MS = 20;
+    private static final int RECORDER_BUFFER_MS = 500;
+    /**
+     * number of blocks of READ_MS passed between the capture's reader and writer
+     */
+    private static final int HANDOFF_BLOCKS = 4;
+    /**
+     * longest the reader waits for a free block before checking whether recording stopped
+     */
+    private static final long HANDOFF_WAIT_MS = 100;
+    /**
+     * bytes of the recorder's buffer, of one read and of one frame
+     */
     int bufferSize = 0;
+    private int readSize = 0;
+    private final int frameBytes;
+    /**
+     * blocks passed from the thread reading the recorder to the one writing them
+     */
+    private final CaptureHandoff handoff;
+    /**
+     * counts of the last recording, only touched by the capture thread. Overruns are gaps
+     * between reads longer than the recorder's buffer, so audio was likely dropped
+     */
+    private int overruns = 0;
+    private int shortReads = 0;
+    private int readErrors = 0;
+    private long framesRead = 0;
     Thread recordingThread;
-    boolean isRecording = false;
+    volatile boolean isRecording = false;
     private final Context context;
+    /**
+     * optional analyzer fed with every block read from the recorder
+     */
+    private StreamingSpectrumAnalyzer analyzer = null;
+    /**
+     * whether to stream pcm straight into the wav file (patching the header sizes on stop)
+     * instead of writing a raw file and converting it to wav afterwards
+     */
+    private boolean directWav = false;
+    /**
+     * when set, recorded data is only kept in this buffer and no file is written at all
+     */
+    private PcmRingBuffer ringBuffer = null;
+    /**
+     * SystemClock.elapsedRealtimeNanos of the first recorded frame
+     */
+    private volatile long startNanos = LatencyEstimator.NO_TIME;
+    /**
+     * SystemClock.elapsedRealtimeNanos when the first block of the current recording was read
+     */
+    private volatile long firstBlockNanos = LatencyEstimator.NO_TIME;
+    /**
+     * whether the recorder and capture thread are kept between recordings, see prepare
+     */
+    private boolean warm = false;
+    /**
+     * time prepare took to initialize the recorder and capture thread (ns), -1 if not warm
+     */
+    private long warmUpNanos = -1;
+    /**
+     * hands recordings to the parked capture thread of a warm recorder and waits for it to
+     * finish them
+     */
+    private final Object captureLock = new Object();
+    private boolean captureRequested = false;
+    private boolean capturing = false;
+    private boolean released = false;
 
     public WavMaker(String path, String filename, Context context) {
         this.context = context;
         this.tempWavFile = filename;
+        this.frameBytes = getChannels() * bpp / 8;
         try {
             filePath = path;
-            bufferSize = AudioRecord.getMinBufferSize(8000, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+            readSize = frameBytes * (sampleRate * READ_MS / 1000);
+            // room for RECORDER_BUFFER_MS of the format actually recorded, in whole frames
+            int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, channel, audioEncoding);
+            bufferSize = Math.max(minBufferSize, frameBytes * (sampleRate * RECORDER_BUFFER_MS / 1000));
+            bufferSize = (bufferSize + frameBytes - 1) / frameBytes * frameBytes;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        this.handoff = new CaptureHandoff(HANDOFF_BLOCKS, readSize);
+    }
+
+    /**
+     * attach analyzer to run on recorded data as it arrives, must be called before startRecording
+     * @param analyzer - analyzer to feed, or null for none
+     */
+    public void setAnalyzer(StreamingSpectrumAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * choose whether to write the wav file directly while recording, must be called before
+     * startRecording
+     * @param directWav - true to write wav directly, false to write raw file and convert on stop
+     */
+    public void setDirectWav(boolean directWav) {
+        this.directWav = directWav;
+    }
+
+    /**
+     * capture into memory only, must be called before startRecording. Takes precedence over the
+     * file writing modes, nothing is written to disk while recording
+     * @param ringBuffer - buffer to record into, or null to record to file
+     */
+    public void setRingBuffer(PcmRingBuffer ringBuffer) {
+        this.ringBuffer = ringBuffer;
+    }
+
+    /**
+     * set the name of the wav file, must be called before startRecording
+     * @param filename - name of the wav file in the directory given on construction
+     */
+    public void setFilename(String filename) {
+        this.tempWavFile = filename;
+    }
+
+    /**
+     * @return sampling rate recorded at
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return number of interleaved channels recorded
+     */
+    public int getChannels() {
+        return channel == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1;
     }
 
     private String getPath(String name) {
@@ -49,80 +177,239 @@ public class WavMaker {
         }
     }
 
-    private void writeRawData() {
-        try {
-            if (filePath != null) {
-                byte[] data = new byte[bufferSize];
-                String path = getPath(tempRawFile);
-                FileOutputStream fileOutputStream = new FileOutputStream(path);
-                if (fileOutputStream != null) {
-                    int read;
-                    while (isRecording) {
-                        read = recorder.read(data, 0, bufferSize);
-                        if (AudioRecord.ERROR_INVALID_OPERATION != read) {
-                            try {
-                                fileOutputStream.write(data);
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
+    /**
+     * destination of recorded blocks, written to by the capture's writer thread
+     */
+    private interface BlockSink extends Closeable {
+        void write(byte[] data, int length) throws IOException;
+    }
+
+    /**
+     * open the destination of the selected mode: the ring buffer, the wav file written
+     * directly (placeholder header first, RIFF and data sizes patched in on close), or the raw
+     * file converted to wav once recording stops
+     */
+    private BlockSink openSink() throws IOException {
+        if (ringBuffer != null) {
+            final PcmRingBuffer buffer = ringBuffer;
+            return new BlockSink() {
+                @Override
+                public void write(byte[] data, int length) {
+                    buffer.write(data, 0, length);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        } else if (filePath == null) {
+            // nowhere to write, only feed the analyzer
+            return new BlockSink() {
+                @Override
+                public void write(byte[] data, int length) {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        } else if (directWav) {
+            final RandomAccessFile file = new RandomAccessFile(getPath(tempWavFile), "rw");
+            final FileChannel channel = file.getChannel();
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(WavFileSource.wavHeaderBytes(sampleRate, getChannels(), bpp, 0)));
+            return new BlockSink() {
+                private long totalAudioLen = 0;
+
+                @Override
+                public void write(byte[] data, int length) throws IOException {
+                    ByteBuffer block = ByteBuffer.wrap(data, 0, length);
+                    while (block.hasRemaining()) {
+                        channel.write(block);
+                    }
+                    totalAudioLen += length;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    PipelineMetrics.Section finalize =
+                            PipelineMetrics.get().begin(PipelineMetrics.WAV_FINALIZE);
+                    try {
+                        patchWavSizes(channel, totalAudioLen);
+                    } finally {
+                        file.close();
+                        finalize.end(totalAudioLen);
                     }
                 }
+            };
+        }
+        final FileOutputStream fileOutputStream = new FileOutputStream(getPath(tempRawFile));
+        return new BlockSink() {
+            @Override
+            public void write(byte[] data, int length) throws IOException {
+                fileOutputStream.write(data, 0, length);
+            }
+
+            @Override
+            public void close() throws IOException {
                 fileOutputStream.close();
             }
+        };
+    }
+
+    /**
+     * capture one recording until it stops: this thread only reads from the recorder and hands
+     * the blocks to a writer thread, which writes them to the sink of the selected mode and
+     * feeds the analyzer. Returns once the writer has written the last block and the sink is
+     * closed
+     */
+    private void capture() {
+        handoff.reset();
+        overruns = 0;
+        shortReads = 0;
+        readErrors = 0;
+        framesRead = 0;
+        try (BlockSink sink = openSink()) {
+            Thread writer = new Thread(() -> drain(sink), "capture-writer");
+            writer.start();
+            try {
+                readBlocks();
+            } finally {
+                handoff.finish();
+                writer.join();
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private void wavHeader(FileOutputStream fileOutputStream, long totalAudioLen, long totalDataLen, int channels, long byteRate) {
+    /**
+     * read blocks from the recorder until recording stops, counting reads that came back short
+     * or failed, and gaps between reads long enough for the recorder's buffer to have overrun
+     */
+    private void readBlocks() throws InterruptedException {
+        long bufferNanos = (long) (1e9 * (bufferSize / frameBytes) / sampleRate);
+        long lastReadNanos = SystemClock.elapsedRealtimeNanos();
+        while (isRecording) {
+            CaptureHandoff.Block block = handoff.acquire(HANDOFF_WAIT_MS);
+            if (block == null) {
+                // the writer is behind (or failed), look at isRecording again
+                continue;
+            }
+            int read = recorder.read(block.getData(), 0, readSize);
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (now - lastReadNanos > bufferNanos) {
+                overruns++;
+            }
+            lastReadNanos = now;
+            markFirstBlock(read);
+            if (read > 0) {
+                // the last read may be cut short by stopping
+                if (read < readSize && isRecording) {
+                    shortReads++;
+                }
+                framesRead += read / frameBytes;
+                handoff.publish(block, read);
+            } else {
+                if (read < 0) {
+                    readErrors++;
+                }
+                handoff.recycle(block);
+            }
+        }
+    }
+
+    /**
+     * writer thread of capture: write every block handed over to sink and the analyzer, until
+     * the reader finishes. A block that fails is logged and skipped, the writer keeps recycling
+     * blocks so the reader never starves
+     */
+    private void drain(BlockSink sink) {
         try {
-            byte[] header = new byte[44];
-            header[0] = 'R'; // RIFF/WAVE header
-            header[1] = 'I';
-            header[2] = 'F';
-            header[3] = 'F';
-            header[4] = (byte) (totalDataLen & 0xff);
-            header[5] = (byte) ((totalDataLen >> 8) & 0xff);
-            header[6] = (byte) ((totalDataLen >> 16) & 0xff);
-            header[7] = (byte) ((totalDataLen >> 24) & 0xff);
-            header[8] = 'W';
-            header[9] = 'A';
-            header[10] = 'V';
-            header[11] = 'E';
-            header[12] = 'f'; // 'fmt ' chunk
-            header[13] = 'm';
-            header[14] = 't';
-            header[15] = ' ';
-            header[16] = 16; // 4 bytes: size of 'fmt ' chunk
-            header[17] = 0;
-            header[18] = 0;
-            header[19] = 0;
-            header[20] = 1; // format = 1
-            header[21] = 0;
-            header[22] = (byte) channels;
-            header[23] = 0;
-            header[24] = (byte) ((long) sampleRate & 0xff);
-            header[25] = (byte) (((long) sampleRate >> 8) & 0xff);
-            header[26] = (byte) (((long) sampleRate >> 16) & 0xff);
-            header[27] = (byte) (((long) sampleRate >> 24) & 0xff);
-            header[28] = (byte) (byteRate & 0xff);
-            header[29] = (byte) ((byteRate >> 8) & 0xff);
-            header[30] = (byte) ((byteRate >> 16) & 0xff);
-            header[31] = (byte) ((byteRate >> 24) & 0xff);
-            header[32] = (byte) (2 * 16 / 8); // block align
-            header[33] = 0;
-            header[34] = bpp; // bits per sample
-            header[35] = 0;
-            header[36] = 'd';
-            header[37] = 'a';
-            header[38] = 't';
-            header[39] = 'a';
-            header[40] = (byte) (totalAudioLen & 0xff);
-            header[41] = (byte) ((totalAudioLen >> 8) & 0xff);
-            header[42] = (byte) ((totalAudioLen >> 16) & 0xff);
-            header[43] = (byte) ((totalAudioLen >> 24) & 0xff);
-            fileOutputStream.write(header, 0, 44);
+            CaptureHandoff.Block block;
+            while ((block = handoff.take()) != null) {
+                try {
+                    try {
+                        sink.write(block.getData(), block.getLength());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    if (analyzer != null) {
+                        PipelineMetrics.Section stft =
+                                PipelineMetrics.get().begin(PipelineMetrics.STFT_STREAM);
+                        try {
+                            analyzer.accept(block.getData(), 0, block.getLength());
+                        } finally {
+                            stft.end(block.getLength());
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // also thrown by the analyzer's early decision listener
+                    e.printStackTrace();
+                } finally {
+                    handoff.recycle(block);
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * note the time the first block of a recording was read
+     * @param read - result of the read
+     */
+    private void markFirstBlock(int read) {
+        if (read > 0 && firstBlockNanos == LatencyEstimator.NO_TIME) {
+            firstBlockNanos = SystemClock.elapsedRealtimeNanos();
+        }
+    }
+
+    /**
+     * body of a warm recorder's capture thread: parked until startRecording hands it a
+     * recording, captures it, and parks again until the next one or release
+     */
+    private void parkedCapture() {
+        while (true) {
+            synchronized (captureLock) {
+                while (!captureRequested && !released) {
+                    try {
+                        captureLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (released) {
+                    return;
+                }
+                captureRequested = false;
+            }
+            capture();
+            synchronized (captureLock) {
+                capturing = false;
+                captureLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * overwrite RIFF chunk size (offset 4) and data chunk size (offset 40) of a wav file whose
+     * header was written before its length was known
+     * @param channel - channel open on the wav file
+     * @param totalAudioLen - number of bytes of pcm following the header
+     */
+    private void patchWavSizes(FileChannel channel, long totalAudioLen) throws IOException {
+        ByteBuffer size = ByteBuffer.allocate(4).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        size.putInt(0, (int) (totalAudioLen + 36));
+        channel.write(size, 4);
+        size.clear();
+        size.putInt(0, (int) totalAudioLen);
+        channel.write(size, 40);
+    }
+
+    private void wavHeader(FileOutputStream fileOutputStream, long totalAudioLen, int channels) {
+        try {
+            fileOutputStream.write(WavFileSource.wavHeaderBytes(sampleRate, channels, bpp, totalAudioLen), 0, 44);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -133,13 +420,11 @@ public class WavMaker {
             FileInputStream fileInputStream = new FileInputStream(tempPath);
             FileOutputStream fileOutputStream = new FileOutputStream(wavPath);
             byte[] data = new byte[bufferSize];
-            int channels = 2;
-            long byteRate = bpp * sampleRate * channels / 8;
             long totalAudioLen = fileInputStream.getChannel().size();
-            long totalDataLen = totalAudioLen + 36;
-            wavHeader(fileOutputStream, totalAudioLen, totalDataLen, channels, byteRate);
-            while (fileInputStream.read(data) != -1) {
-                fileOutputStream.write(data);
+            wavHeader(fileOutputStream, totalAudioLen, getChannels());
+            int read;
+            while ((read = fileInputStream.read(data)) != -1) {
+                fileOutputStream.write(data, 0, read);
             }
             fileInputStream.close();
             fileOutputStream.close();
@@ -148,40 +433,232 @@ public class WavMaker {
         }
     }
 
+    /**
+     * construct the recorder
+     * @return whether the RECORD_AUDIO permission was granted
+     */
+    private boolean createRecorder() {
+        if(ActivityCompat.checkSelfPermission(context, Manifest.permission.RECORD_AUDIO)
+                != PackageManager.PERMISSION_GRANTED)
+            return false;
+        recorder = new AudioRecord(
+                MediaRecorder.AudioSource.MIC,
+                sampleRate,
+                channel,
+                audioEncoding,
+                bufferSize);
+        return true;
+    }
+
+    /**
+     * initialize the recorder and a capture thread parked until startRecording, so that
+     * starting a recording waits for neither. Both are kept across recordings until release
+     * @return whether the recorder was initialized
+     */
+    public boolean prepare() {
+        try {
+            long begin = SystemClock.elapsedRealtimeNanos();
+            if (!createRecorder() || recorder.getState() != 1) {
+                return false;
+            }
+            warm = true;
+            synchronized (captureLock) {
+                released = false;
+            }
+            // parked threads must not keep the process alive
+            recordingThread = new Thread(this::parkedCapture, "warm-recorder");
+            recordingThread.setDaemon(true);
+            recordingThread.start();
+            warmUpNanos = SystemClock.elapsedRealtimeNanos() - begin;
+            return true;
+        }
+        catch (Exception e){
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return whether a recording is in progress
+     */
+    public boolean isRecording() {
+        return isRecording;
+    }
+
+    /**
+     * @return whether prepare initialized the recorder and it has not been released
+     */
+    public boolean isPrepared() {
+        return warm;
+    }
+
+    /**
+     * @return time prepare took to initialize the recorder and capture thread (ns), -1 if the
+     * recorder is not warm
+     */
+    public long getWarmUpNanos() {
+        return warmUpNanos;
+    }
+
+    /**
+     * @return number of gaps between reads of the last recording long enough for the recorder's
+     * buffer to overrun, dropping audio
+     */
+    public int getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return number of reads of the last recording that returned less than asked for, not
+     * counting the one cut short by stopping
+     */
+    public int getShortReads() {
+        return shortReads;
+    }
+
+    /**
+     * @return number of reads of the last recording that failed
+     */
+    public int getReadErrors() {
+        return readErrors;
+    }
+
+    /**
+     * @return number of times the last recording's reader waited for its writer to free a block
+     */
+    public int getWriterStalls() {
+        return handoff.getStalls();
+    }
+
+    /**
+     * @return number of frames read in the last recording
+     */
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    /**
+     * @return SystemClock.elapsedRealtimeNanos when the first block of the last recording was
+     * read, NO_TIME if none was read yet
+     */
+    public long getFirstBlockNanos() {
+        return firstBlockNanos;
+    }
+
     public void startRecording() {
         try {
-            if(ActivityCompat.checkSelfPermission(context, Manifest.permission.RECORD_AUDIO)
-                    != PackageManager.PERMISSION_GRANTED)
+            firstBlockNanos = LatencyEstimator.NO_TIME;
+            if (warm) {
+                recorder.startRecording();
+                startNanos = SystemClock.elapsedRealtimeNanos();
+                isRecording = true;
+                synchronized (captureLock) {
+                    captureRequested = true;
+                    capturing = true;
+                    captureLock.notifyAll();
+                }
+                return;
+            }
+            if (!createRecorder())
                 return;
-            recorder = new AudioRecord(
-                    MediaRecorder.AudioSource.MIC,
-                    sampleRate,
-                    channel,
-                    audioEncoding,
-                    bufferSize);
             int status = recorder.getState();
             if(status == 1){
                 recorder.startRecording();
+                // refined from the recorder's own timestamp on stop where available
+                startNanos = SystemClock.elapsedRealtimeNanos();
                 isRecording = true;
             }
-            recordingThread = new Thread(this::writeRawData);
+            recordingThread = new Thread(this::capture);
             recordingThread.start();
         }
         catch (Exception e){
             e.printStackTrace();
         }
     }
+    /**
+     * place the first recorded frame on the elapsedRealtime clock by the recorder's timestamp of
+     * a recent frame, which does not include the delay of starting the recorder
+     */
+    private void refineStartNanos() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+        AudioTimestamp timestamp = new AudioTimestamp();
+        if (recorder.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_BOOTTIME)
+                == AudioRecord.SUCCESS) {
+            startNanos = timestamp.nanoTime
+                    - (long) (timestamp.framePosition * 1e9 / sampleRate);
+        }
+    }
+
+    /**
+     * @return SystemClock.elapsedRealtimeNanos of the first recorded frame, NO_TIME if not
+     * recording yet. Only exact once stopRecording has returned
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * stop a warm recorder's capture thread and free the recorder, see prepare. Stops the
+     * current recording, if any, first
+     */
+    public void release() {
+        if (!warm) {
+            return;
+        }
+        if (isRecording) {
+            stopRecording();
+        }
+        synchronized (captureLock) {
+            released = true;
+            captureLock.notifyAll();
+        }
+        try {
+            recordingThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        recordingThread = null;
+        recorder.release();
+        recorder = null;
+        warm = false;
+    }
+
     public void stopRecording(){
         try{
             if(recorder != null) {
                 isRecording = false;
+                // let the capture thread finish its last read before the recorder goes away
+                if (warm) {
+                    synchronized (captureLock) {
+                        while (capturing) {
+                            captureLock.wait();
+                        }
+                    }
+                } else if (recordingThread != null) {
+                    recordingThread.join();
+                }
                 int status = recorder.getState();
                 if (status == 1) {
+                    // a reused recorder's frame positions do not start at this recording
+                    if (!warm) {
+                        refineStartNanos();
+                    }
                     recorder.stop();
                 }
-                recorder.release();
-                recordingThread = null;
-                createWavFile(getPath(tempRawFile),getPath(tempWavFile));
+                if (!warm) {
+                    recorder.release();
+                    recordingThread = null;
+                }
+                // a directly written wav file was already finalized by the capture thread, and
+                // a memory capture has no file at all
+                if (ringBuffer == null && !directWav) {
+                    PipelineMetrics.Section finalize =
+                            PipelineMetrics.get().begin(PipelineMetrics.WAV_FINALIZE);
+                    createWavFile(getPath(tempRawFile),getPath(tempWavFile));
+                    finalize.end(framesRead * frameBytes);
+                }
             }
         }
         catch (Exception e){
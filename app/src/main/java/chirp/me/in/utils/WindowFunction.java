@@ -0,0 +1,82 @@
+package chirp.me.in.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Window applied to each time slice before its FFT (see ChirpAnalysisConfig.withWindow). Without
+ * one (RECTANGULAR, what the analysis has always done) a tone leaks into every bin; tapering the
+ * slice trades a wider main lobe for much lower side lobes, which is what lets sub-bin peak
+ * interpolation work.
+ *
+ * Coefficients are periodic (DFT-even) and scaled to a mean of 1, so a tone has the same peak
+ * power with any window and powerFloor keeps its meaning. Tables are cached per size.
+ */
+public enum WindowFunction {
+    RECTANGULAR(new double[]{1.0}),
+    HANN(new double[]{0.5, 0.5}),
+    HAMMING(new double[]{0.54, 0.46}),
+    /**
+     * 4 term Blackman-Harris, -92 dB side lobes
+     */
+    BLACKMAN_HARRIS(new double[]{0.35875, 0.48829, 0.14128, 0.01168});
+
+    /**
+     * cosine series terms a_k of w(n) = sum (-1)^k a_k cos(2 pi k n / size)
+     */
+    private final double[] terms;
+    /**
+     * tables that have already been built, keyed by window size
+     */
+    private final Map<Integer, double[]> tables = new HashMap<>();
+    private final Map<Integer, float[]> floatTables = new HashMap<>();
+
+    WindowFunction(final double[] terms) {
+        this.terms = terms;
+    }
+
+    /**
+     * get (possibly cached) coefficients, shared between callers so they must not be modified
+     * @param size - window size
+     * @return coefficients of the window, mean 1
+     */
+    public synchronized double[] coefficients(final int size) {
+        double[] table = tables.get(size);
+        if (table == null) {
+            table = new double[size];
+            double sum = 0.0;
+            for (int n = 0; n < size; n++) {
+                double value = 0.0;
+                for (int k = 0; k < terms.length; k++) {
+                    double term = terms[k] * Math.cos(2 * Math.PI * k * n / size);
+                    value += k % 2 == 0 ? term : -term;
+                }
+                table[n] = value;
+                sum += value;
+            }
+            for (int n = 0; n < size; n++) {
+                table[n] *= size / sum;
+            }
+            tables.put(size, table);
+        }
+        return table;
+    }
+
+    /**
+     * single precision version of coefficients, for the float analysis path
+     * @param size - window size
+     * @return coefficients of the window, mean 1
+     */
+    public synchronized float[] floatCoefficients(final int size) {
+        float[] table = floatTables.get(size);
+        if (table == null) {
+            double[] coefficients = coefficients(size);
+            table = new float[size];
+            for (int n = 0; n < size; n++) {
+                table[n] = (float) coefficients[n];
+            }
+            floatTables.put(size, table);
+        }
+        return table;
+    }
+}
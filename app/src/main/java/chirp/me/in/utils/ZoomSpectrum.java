@@ -0,0 +1,226 @@
+package chirp.me.in.utils;
+
+/**
+ * Spectrum of overlapped windows evaluated only at points inside the chirp band, zoom points per
+ * fft bin, instead of every bin of a full FFT (see ChirpAnalysisConfig.withZoom).
+ *
+ * A window of windowSize samples is made of windowSize / windowStep blocks of windowStep samples,
+ * and consecutive windows share all but one block. Each block is run through a Goertzel filter per
+ * point once, and its result is phase shifted to the block's position in the recording, so the
+ * DFT of a window is just the sum of the results of its blocks. A new window then costs
+ * windowStep samples per point rather than a whole transform, which is a fraction of a full FFT
+ * when the band is narrow, and points are not limited to the fft bin spacing.
+ *
+ * With zoom 1 the points are exactly the fft bins of the band, and power is normalized as
+ * RealFFTPlan's, so peaks match the full transform. Not thread safe, use one instance per stream.
+ */
+public final class ZoomSpectrum {
+    private final int windowSize;
+    private final int blockSize;
+    /**
+     * number of blocks per window
+     */
+    private final int blocks;
+    /**
+     * fine bin (in 1/zoom fft bins) of the first point
+     */
+    private final int fromPoint;
+    private final int points;
+    /**
+     * number of fine bins in a full turn (zoom * windowSize), angles are kept as integers mod this
+     */
+    private final int period;
+    /**
+     * cos and sin of 2 * pi * k / period
+     */
+    private final double[] cosTable;
+    private final double[] sinTable;
+    /**
+     * Goertzel coefficient 2 cos(w) of each point
+     */
+    private final double[] coefficients;
+    /**
+     * phase aligned DFT of the last blocks pushed, blocks rows of points entries in a ring
+     */
+    private final double[][] blockReal;
+    private final double[][] blockImag;
+    /**
+     * index of the next block in the recording, sets its phase
+     */
+    private long nextBlock = 0;
+    /**
+     * number of blocks pushed since reset
+     */
+    private int pushed = 0;
+
+    /**
+     * @param windowSize - window size the points are spaced relative to
+     * @param windowStep - samples between the starts of consecutive windows, must divide windowSize
+     * @param fromBin - lowest fft bin of the band
+     * @param toBin - highest fft bin of the band
+     * @param zoom - points per fft bin
+     */
+    public ZoomSpectrum(final int windowSize, final int windowStep, final int fromBin,
+                        final int toBin, final int zoom) {
+        if (zoom < 1) {
+            throw new IllegalArgumentException("zoom must be at least 1");
+        }
+        if (windowStep < 1 || windowSize % windowStep != 0) {
+            throw new IllegalArgumentException("window step does not divide window size");
+        }
+        this.windowSize = windowSize;
+        this.blockSize = windowStep;
+        this.blocks = windowSize / windowStep;
+        this.fromPoint = fromBin * zoom;
+        this.points = (toBin - fromBin) * zoom + 1;
+        this.period = zoom * windowSize;
+
+        cosTable = new double[period];
+        sinTable = new double[period];
+        for (int k = 0; k < period; k++) {
+            double arg = 2 * Math.PI * k / period;
+            cosTable[k] = Math.cos(arg);
+            sinTable[k] = Math.sin(arg);
+        }
+        // rounded up to a multiple of 4 for push, the extra points are never read
+        int padded = (points + 3) & ~3;
+        coefficients = new double[padded];
+        for (int j = 0; j < padded; j++) {
+            coefficients[j] = 2 * cosTable[(fromPoint + j) % period];
+        }
+        blockReal = new double[blocks][padded];
+        blockImag = new double[blocks][padded];
+    }
+
+    /**
+     * @return number of points evaluated per window
+     */
+    public int points() {
+        return points;
+    }
+
+    /**
+     * @param j - point index
+     * @return point j in 1/zoom fft bins (0 = DC)
+     */
+    public int fineBin(final int j) {
+        return fromPoint + j;
+    }
+
+    /**
+     * forget pushed blocks
+     * @param block - index in the recording of the next block to be pushed (the block starting
+     *              at sample block * windowStep)
+     */
+    public void reset(final long block) {
+        nextBlock = block;
+        pushed = 0;
+    }
+
+    /**
+     * push the next block of the recording. Once windowSize / windowStep blocks are pushed, the
+     * last ones make up the current window
+     * @param samples - samples of the block
+     * @param offset - index of the first of windowStep samples in samples
+     */
+    public void push(final double[] samples, final int offset) {
+        int slot = (int) (nextBlock % blocks);
+        double[] real = blockReal[slot];
+        double[] imag = blockImag[slot];
+        int end = offset + blockSize;
+        // four points at a time, so the filters' dependency chains overlap instead of stalling
+        for (int j = 0; j < coefficients.length; j += 4) {
+            double c0 = coefficients[j];
+            double c1 = coefficients[j + 1];
+            double c2 = coefficients[j + 2];
+            double c3 = coefficients[j + 3];
+            double a1 = 0.0, a2 = 0.0;
+            double b1 = 0.0, b2 = 0.0;
+            double d1 = 0.0, d2 = 0.0;
+            double e1 = 0.0, e2 = 0.0;
+            for (int m = offset; m < end; m++) {
+                double x = samples[m];
+                double a0 = x + c0 * a1 - a2;
+                double b0 = x + c1 * b1 - b2;
+                double d0 = x + c2 * d1 - d2;
+                double e0 = x + c3 * e1 - e2;
+                a2 = a1;
+                a1 = a0;
+                b2 = b1;
+                b1 = b0;
+                d2 = d1;
+                d1 = d0;
+                e2 = e1;
+                e1 = e0;
+            }
+            finish(j, a1, a2, real, imag);
+            finish(j + 1, b1, b2, real, imag);
+            finish(j + 2, d1, d2, real, imag);
+            finish(j + 3, e1, e2, real, imag);
+        }
+        nextBlock++;
+        pushed++;
+    }
+
+    /**
+     * store phase aligned result of the Goertzel filter of point j over the block being pushed
+     * @param s1 - last filter state
+     * @param s2 - filter state before the last
+     */
+    private void finish(final int j, final double s1, final double s2,
+                        final double[] real, final double[] imag) {
+        // position of the last sample of the block in the recording
+        long last = nextBlock * blockSize + blockSize - 1;
+        // sum of x[m] exp(-i w m) is s1 exp(-i w last) - s2 exp(-i w (last + 1))
+        long fine = fromPoint + j;
+        int angle1 = (int) ((fine * last) % period);
+        int angle2 = (int) ((fine * (last + 1)) % period);
+        real[j] = s1 * cosTable[angle1] - s2 * cosTable[angle2];
+        imag[j] = s2 * sinTable[angle2] - s1 * sinTable[angle1];
+    }
+
+    /**
+     * @return whether a full window has been pushed since reset
+     */
+    public boolean ready() {
+        return pushed >= blocks;
+    }
+
+    /**
+     * power of every point of the current window, normalized as RealFFTPlan's output
+     * @param power - array of at least points() entries, receives the power of each point
+     */
+    public void power(final double[] power) {
+        double scale = 1.0 / windowSize;
+        for (int j = 0; j < points; j++) {
+            double real = 0.0;
+            double imag = 0.0;
+            for (int b = 0; b < blocks; b++) {
+                real += blockReal[b][j];
+                imag += blockImag[b][j];
+            }
+            power[j] = (real * real + imag * imag) * scale;
+        }
+    }
+
+    /**
+     * Find point of highest power in the current window, treating power below floor as floor.
+     * Ties go to the highest point, as in SpectralPeaks.peakBin
+     * @param power - scratch array of at least points() entries, receives the power of each point
+     * @param floor - power threshold
+     * @return peak in 1/zoom fft bins (0 = DC)
+     */
+    public int peak(final double[] power, final double floor) {
+        power(power);
+        int peak = points - 1;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int j = points - 1; j >= 0; j--) {
+            double ampSquare = Math.max(power[j], floor);
+            if (ampSquare > max) {
+                max = ampSquare;
+                peak = j;
+            }
+        }
+        return fromPoint + peak;
+    }
+}
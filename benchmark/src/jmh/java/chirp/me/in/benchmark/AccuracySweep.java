@@ -0,0 +1,103 @@
+package chirp.me.in.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import chirp.me.in.utils.ChirpAnalysisConfig;
+import chirp.me.in.utils.ChirpAnalyzer;
+import chirp.me.in.utils.LinearRegression;
+import chirp.me.in.utils.PcmRingBuffer;
+import chirp.me.in.utils.PeakInterpolation;
+import chirp.me.in.utils.RegressionEstimator;
+import chirp.me.in.utils.WindowFunction;
+
+/**
+ * Slope accuracy against cost of window size, overlap, window function, peak interpolation and
+ * line fit. Every configuration analyzes the same set of synthetic chirps of random slope and
+ * start frequency, and one markdown table row is printed per configuration: slope error, r^2,
+ * share of recordings whose r^2 passes tau and time per recording (single thread).
+ *
+ * usage: AccuracySweep [recordings] [snrDb] [seconds]
+ */
+public class AccuracySweep {
+    private static final int SAMPLE_RATE = 44100;
+    private static final long LATENCY_MS = 300;
+
+    public static void main(String[] args) {
+        int recordings = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        double snrDb = args.length > 1 ? Double.parseDouble(args[1]) : 0.0;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 5.0;
+
+        // same recordings for every configuration
+        Random random = new Random(1);
+        List<PcmRingBuffer> captures = new ArrayList<>();
+        double[] slopes = new double[recordings];
+        for (int r = 0; r < recordings; r++) {
+            slopes[r] = 500 + 1000 * random.nextDouble();
+            double start = 1000 + 2000 * random.nextDouble();
+            byte[] pcm = new SyntheticChirp(seconds, SAMPLE_RATE, snrDb, slopes[r], start, 0.3,
+                    r).pcm();
+            PcmRingBuffer capture = new PcmRingBuffer(SAMPLE_RATE, 2, pcm.length / 4);
+            capture.write(pcm, 0, pcm.length);
+            captures.add(capture);
+        }
+
+        System.out.println("# " + recordings + " recordings of " + seconds + " s at " + snrDb
+                + " dB snr, slopes 500-1500 Hz/s");
+        System.out.println("| window | overlap | window function | interpolation | fit "
+                + "| mean slope error | max slope error | mean r^2 | r^2 > tau "
+                + "| ms per recording |");
+        System.out.println("|---|---|---|---|---|---|---|---|---|---|");
+        for (int windowSize : new int[]{1024, 512, 256}) {
+            for (int overlap : new int[]{8, 4, 2}) {
+                ChirpAnalysisConfig base = ChirpAnalysisConfig.DEFAULT.withWindowSize(windowSize)
+                        .withOverlap(overlap);
+                run(base, captures, slopes);
+                run(base.withEstimator(RegressionEstimator.THEIL_SEN), captures, slopes);
+                run(base.withWindow(WindowFunction.HANN)
+                        .withInterpolation(PeakInterpolation.QUADRATIC), captures, slopes);
+                run(base.withWindow(WindowFunction.HANN)
+                        .withInterpolation(PeakInterpolation.GAUSSIAN), captures, slopes);
+                run(base.withWindow(WindowFunction.HANN)
+                        .withInterpolation(PeakInterpolation.GAUSSIAN)
+                        .withEstimator(RegressionEstimator.THEIL_SEN), captures, slopes);
+                run(base.withWindow(WindowFunction.BLACKMAN_HARRIS)
+                        .withInterpolation(PeakInterpolation.GAUSSIAN), captures, slopes);
+            }
+        }
+    }
+
+    private static void run(final ChirpAnalysisConfig config, final List<PcmRingBuffer> captures,
+                            final double[] slopes) {
+        ChirpAnalyzer analyzer = new ChirpAnalyzer(config);
+        // warm up so the timing below is of compiled code
+        for (int k = 0; k < 3; k++) {
+            analyzer.regression(captures.get(0), LATENCY_MS);
+        }
+
+        double errorSum = 0.0;
+        double maxError = 0.0;
+        double r2Sum = 0.0;
+        int passed = 0;
+        long nanos = 0;
+        for (int r = 0; r < captures.size(); r++) {
+            long start = System.nanoTime();
+            LinearRegression regression = analyzer.regression(captures.get(r), LATENCY_MS);
+            nanos += System.nanoTime() - start;
+            double error = Math.abs(regression.slope() - slopes[r]) / slopes[r];
+            errorSum += error;
+            maxError = Math.max(maxError, error);
+            r2Sum += regression.R2();
+            if (regression.R2() > config.getTau()) {
+                passed++;
+            }
+        }
+        int n = captures.size();
+        System.out.println(String.format(
+                "| %d | %d | %s | %s | %s | %.3f%% | %.3f%% | %.4f | %d%% | %.1f |",
+                config.getWindowSize(), config.getOverlap(), config.getWindow(),
+                config.getInterpolation(), config.getEstimator(), 100 * errorSum / n,
+                100 * maxError, r2Sum / n, 100 * passed / n, nanos / 1e6 / n));
+    }
+}
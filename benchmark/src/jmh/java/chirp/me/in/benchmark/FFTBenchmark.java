@@ -0,0 +1,102 @@
+package chirp.me.in.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import chirp.me.in.utils.FFT;
+import chirp.me.in.utils.FFTPlan;
+import chirp.me.in.utils.FloatRealFFTPlan;
+import chirp.me.in.utils.RealFFTPlan;
+
+/**
+ * Cost of transforming one real window with each of the FFT entry points
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FFTBenchmark {
+    @Param({"256", "512", "1024", "2048", "4096"})
+    public int windowSize;
+
+    private double[] window;
+    private double[] zeros;
+    private double[] real;
+    private double[] imag;
+    private double[] halfReal;
+    private double[] halfImag;
+    private FFTPlan plan;
+    private RealFFTPlan realPlan;
+    private float[] floatWindow;
+    private float[] floatHalfReal;
+    private float[] floatHalfImag;
+    private FloatRealFFTPlan floatRealPlan;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        window = new double[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            window[i] = 8000.0 * random.nextGaussian();
+        }
+        zeros = new double[windowSize];
+        real = new double[windowSize];
+        imag = new double[windowSize];
+        halfReal = new double[windowSize / 2 + 1];
+        halfImag = new double[windowSize / 2 + 1];
+        plan = FFTPlan.forSize(windowSize);
+        realPlan = RealFFTPlan.forSize(windowSize);
+        floatWindow = new float[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            floatWindow[i] = (float) window[i];
+        }
+        floatHalfReal = new float[windowSize / 2 + 1];
+        floatHalfImag = new float[windowSize / 2 + 1];
+        floatRealPlan = FloatRealFFTPlan.forSize(windowSize);
+    }
+
+    /**
+     * compatibility wrapper, allocates copies and an interleaved result every call
+     */
+    @Benchmark
+    public double[] fftWrapper() {
+        return FFT.fft(window, zeros, true);
+    }
+
+    /**
+     * complex plan on caller owned buffers
+     */
+    @Benchmark
+    public double[] complexPlan() {
+        System.arraycopy(window, 0, real, 0, windowSize);
+        System.arraycopy(zeros, 0, imag, 0, windowSize);
+        plan.transform(real, imag, true);
+        return real;
+    }
+
+    /**
+     * real input plan producing the half spectrum
+     */
+    @Benchmark
+    public double[] realPlan() {
+        realPlan.transform(window, 0, halfReal, halfImag);
+        return halfReal;
+    }
+
+    /**
+     * single precision real input plan
+     */
+    @Benchmark
+    public float[] floatRealPlan() {
+        floatRealPlan.transform(floatWindow, 0, floatHalfReal, floatHalfImag);
+        return floatHalfReal;
+    }
+}
@@ -0,0 +1,500 @@
+package chirp.me.in.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import chirp.me.in.utils.ChirpAnalysisConfig;
+import chirp.me.in.utils.ChirpAnalyzer;
+import chirp.me.in.utils.InMemoryTransport;
+import chirp.me.in.utils.LatencyEstimator;
+import chirp.me.in.utils.LinearRegression;
+import chirp.me.in.utils.PcmRingBuffer;
+import chirp.me.in.utils.PcmSlice;
+import chirp.me.in.utils.ProtocolTransport;
+import chirp.me.in.utils.ProtocolWriteBatcher;
+import chirp.me.in.utils.StreamingSpectrumAnalyzer;
+
+/**
+ * Runs simulated phone / web-app pairs through the whole flag protocol (WAKE_UP,
+ * RECORDING_STARTED, PLAYBACK_STARTED, PLAYBACK_STOPPED, PERFORMING_ANALYSIS, AUTH_*) against an
+ * InMemoryTransport, for every combination of concurrency and chirp length, and prints one csv
+ * line per combination: throughput, p50 / p99 time to decision and the p50 of every stage.
+ *
+ * Each pair is one user with its own document, its own "main threads" and its own connection.
+ * The web-app plays a chirp for the given time and the phone records it in real time: a
+ * simulated recorder synthesizes noise, with the chirp in the samples recorded while the web-app
+ * was playing, and streams it into a StreamingSpectrumAnalyzer (or a PcmRingBuffer for post-hoc
+ * analysis of the cropped recording, as SoundProcessor does). The phone handles the flags as
+ * FirebaseHelper does, cropping with a LatencyEstimator and batching its writes per step with a
+ * ProtocolWriteBatcher. Pairs run their sessions back to back.
+ *
+ * Stages: wake (web-app sets WAKE_UP until the phone sees it), start (until the web-app sees
+ * RECORDING_STARTED), playback (chirp length), stopped (until the phone sees PLAYBACK_STOPPED),
+ * stop (recorder stopped), analysis (crop, fit and decision), result (until the web-app sees
+ * AUTH_*). Time to decision is measured from the end of playback, total from WAKE_UP.
+ *
+ * usage: LoadTest [sessions per pair] [concurrencies, e.g. 1,4,16] [chirp seconds, e.g. 2,5]
+ *        [one-way latencyMS] [jitterMS] [snrDb] [streaming|posthoc]
+ */
+public class LoadTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    /**
+     * frames the simulated recorder delivers at a time, about 20 ms
+     */
+    private static final int BLOCK = 882;
+    private static final double AMPLITUDE = 8000.0;
+    private static final double START_FREQUENCY = 2000.0;
+    private static final double SLOPE = 1000.0;
+
+    /**
+     * flags, see integers.xml
+     */
+    private static final int IDLE = 0;
+    private static final int WAKE_UP = 1;
+    private static final int RECORDING_STARTED = 2;
+    private static final int PLAYBACK_STARTED = 3;
+    private static final int PLAYBACK_STOPPED = 4;
+    private static final int PERFORMING_ANALYSIS = 5;
+    private static final int AUTH_SUCCESS = 7;
+    private static final int AUTH_FAILURE = 8;
+
+    private static final String[] STAGES =
+            {"wake", "start", "playback", "stopped", "stop", "analysis", "result"};
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int[] concurrencies = args.length > 1 ? parseInts(args[1]) : new int[] {1, 4, 16};
+        double[] chirpSeconds = args.length > 2 ? parseDoubles(args[2]) : new double[] {2, 5};
+        double latencyMS = args.length > 3 ? Double.parseDouble(args[3]) : 40.0;
+        double jitterMS = args.length > 4 ? Double.parseDouble(args[4]) : 10.0;
+        double snrDb = args.length > 5 ? Double.parseDouble(args[5]) : 0.0;
+        boolean streaming = args.length <= 6 || !args[6].equals("posthoc");
+
+        System.out.println("# " + sessions + " sessions per pair, one-way latency " + latencyMS
+                + " ms + up to " + jitterMS + " ms, snr " + snrDb + " dB, "
+                + (streaming ? "streaming" : "post-hoc") + " analysis, "
+                + ChirpAnalysisConfig.DEFAULT);
+        StringBuilder header = new StringBuilder("concurrency,chirp_s,sessions,per_minute,"
+                + "total_p50_ms,total_p99_ms,decision_p50_ms,decision_p99_ms");
+        for (String stage : STAGES) {
+            header.append(',').append(stage).append("_p50_ms");
+        }
+        header.append(",accepted,slope_error_p50,r2_p50,commits_per_session");
+        System.out.println(header);
+
+        for (double seconds : chirpSeconds) {
+            for (int concurrency : concurrencies) {
+                run(concurrency, sessions, seconds, latencyMS, jitterMS, snrDb, streaming);
+            }
+        }
+    }
+
+    /**
+     * run concurrency pairs of sessions sessions each and print their csv line
+     */
+    private static void run(final int concurrency, final int sessions, final double seconds,
+                            final double latencyMS, final double jitterMS, final double snrDb,
+                            final boolean streaming) throws InterruptedException {
+        InMemoryTransport.Server server = new InMemoryTransport.Server();
+        CountDownLatch finished = new CountDownLatch(concurrency);
+        List<Pair> pairs = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int p = 0; p < concurrency; p++) {
+            Pair pair = new Pair(server, p, sessions, seconds, latencyMS, jitterMS, snrDb,
+                    streaming, finished);
+            pairs.add(pair);
+            pair.start();
+        }
+        boolean complete = finished.await((long) (60 + sessions * (seconds + 10)),
+                TimeUnit.SECONDS);
+        double elapsedS = (System.nanoTime() - start) / 1e9;
+        for (Pair pair : pairs) {
+            pair.shutdown();
+        }
+        server.shutdown();
+
+        List<Session> done = new ArrayList<>();
+        for (Pair pair : pairs) {
+            done.addAll(pair.completed);
+        }
+        StringBuilder line = new StringBuilder();
+        line.append(concurrency).append(',').append(seconds).append(',').append(done.size())
+                .append(',').append(String.format("%.1f", done.size() / elapsedS * 60));
+        line.append(',').append(percentile(done, -1, 0.5))
+                .append(',').append(percentile(done, -1, 0.99))
+                .append(',').append(percentile(done, -2, 0.5))
+                .append(',').append(percentile(done, -2, 0.99));
+        for (int stage = 0; stage < STAGES.length; stage++) {
+            line.append(',').append(percentile(done, stage, 0.5));
+        }
+        int accepted = 0;
+        double[] errors = new double[done.size()];
+        double[] r2s = new double[done.size()];
+        for (int i = 0; i < done.size(); i++) {
+            if (done.get(i).accepted) accepted++;
+            errors[i] = Math.abs(done.get(i).slope - SLOPE) / SLOPE;
+            r2s[i] = done.get(i).r2;
+        }
+        Arrays.sort(errors);
+        Arrays.sort(r2s);
+        line.append(',').append(accepted)
+                .append(',').append(errors.length == 0 ? "" :
+                        String.format("%.4f", errors[errors.length / 2]))
+                .append(',').append(r2s.length == 0 ? "" :
+                        String.format("%.4f", r2s[r2s.length / 2]))
+                .append(',').append(done.isEmpty() ? "" :
+                        String.format("%.1f", (double) server.getCommits() / done.size()));
+        if (!complete) {
+            line.append(",incomplete");
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * p-th percentile (nearest rank) in ms of a stage, of the total (-1) or of the time to
+     * decision (-2)
+     */
+    private static String percentile(final List<Session> sessions, final int stage,
+                                     final double p) {
+        if (sessions.isEmpty()) {
+            return "";
+        }
+        List<Long> values = new ArrayList<>();
+        for (Session session : sessions) {
+            values.add(stage == -1 ? session.t[7] - session.t[0]
+                    : stage == -2 ? session.t[7] - session.t[3]
+                    : session.t[stage + 1] - session.t[stage]);
+        }
+        Collections.sort(values);
+        int rank = (int) Math.ceil(p * values.size()) - 1;
+        return String.format("%.1f", values.get(Math.max(0, rank)) / 1e6);
+    }
+
+    /**
+     * one authentication, t holds System.nanoTime() of: 0 WAKE_UP set, 1 seen by phone,
+     * 2 RECORDING_STARTED seen by web-app, 3 playback stopped, 4 PLAYBACK_STOPPED seen by phone,
+     * 5 recorder stopped, 6 decided, 7 AUTH_* seen by web-app
+     */
+    private static final class Session {
+        private final int number;
+        private final long[] t = new long[8];
+        private volatile long playbackStartNanos = Long.MAX_VALUE;
+        private volatile long playbackStopNanos = Long.MAX_VALUE;
+        private boolean accepted;
+        private double slope = Double.NaN;
+        private double r2 = Double.NaN;
+
+        private Session(final int number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * simulated phone and web-app of one user
+     */
+    private static final class Pair {
+        private final String path;
+        private final int sessions;
+        private final double seconds;
+        private final double noise;
+        private final boolean streaming;
+        private final CountDownLatch finished;
+        private final ScheduledExecutorService phoneMain = Executors.newSingleThreadScheduledExecutor();
+        private final ScheduledExecutorService webMain = Executors.newSingleThreadScheduledExecutor();
+        private final ProtocolTransport phone;
+        private final ProtocolTransport web;
+        private final ProtocolWriteBatcher phoneWrites;
+        private final ChirpAnalyzer analyzer = new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT);
+        private final LatencyEstimator latencyEstimator = new LatencyEstimator();
+        private final PcmRingBuffer ringBuffer;
+        private final Random random;
+        private final List<Session> completed = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * current session, as seen by the web-app and by the phone (only used on their main
+         * threads)
+         */
+        private volatile Session webSession;
+        private Session phoneSession;
+        private Recorder recorder;
+        private boolean recordingDecided;
+
+        private Pair(final InMemoryTransport.Server server, final int index, final int sessions,
+                     final double seconds, final double latencyMS, final double jitterMS,
+                     final double snrDb, final boolean streaming, final CountDownLatch finished) {
+            this.path = "users/pair" + index;
+            this.sessions = sessions;
+            this.seconds = seconds;
+            this.noise = AMPLITUDE / Math.sqrt(2.0) / Math.pow(10.0, snrDb / 20.0);
+            this.streaming = streaming;
+            this.finished = finished;
+            this.phone = new InMemoryTransport(server, latencyMS, jitterMS, 2L * index, phoneMain);
+            this.web = new InMemoryTransport(server, latencyMS, jitterMS, 2L * index + 1, webMain);
+            this.phoneWrites = new ProtocolWriteBatcher(phone, phoneMain::execute);
+            this.ringBuffer = streaming ? null
+                    : new PcmRingBuffer(SAMPLE_RATE, CHANNELS, (int) ((seconds + 10) * SAMPLE_RATE));
+            this.random = new Random(index);
+        }
+
+        private void start() {
+            phone.subscribe(path, (data, e) -> {
+                if (data != null) {
+                    onPhoneUpdate(data);
+                }
+            });
+            web.subscribe(path, (data, e) -> {
+                if (data != null) {
+                    onWebUpdate(data);
+                }
+            });
+            webMain.execute(() -> wakeUp(0));
+        }
+
+        private void shutdown() {
+            if (recorder != null) {
+                recorder.finish();
+            }
+            phoneMain.shutdownNow();
+            webMain.shutdownNow();
+        }
+
+        /**
+         * web-app: start session number
+         */
+        private void wakeUp(final int number) {
+            webSession = new Session(number);
+            webSession.t[0] = System.nanoTime();
+            Map<String, Object> fields = new HashMap<>();
+            fields.put("flag", WAKE_UP);
+            fields.put("slope", SLOPE);
+            fields.put("session", number);
+            web.merge(path, fields, () -> { }, Throwable::printStackTrace);
+        }
+
+        private void onWebUpdate(final Map<String, Object> data) {
+            Session session = webSession;
+            if (session == null || number(data, "session") != session.number) {
+                return;
+            }
+            int flag = number(data, "flag");
+            if (flag == RECORDING_STARTED && session.t[2] == 0) {
+                session.t[2] = System.nanoTime();
+                session.playbackStartNanos = System.nanoTime();
+                Map<String, Object> fields = new HashMap<>();
+                fields.put("flag", PLAYBACK_STARTED);
+                fields.put("playbackStartedAt", ProtocolTransport.SERVER_TIMESTAMP);
+                web.merge(path, fields, () -> { }, Throwable::printStackTrace);
+                webMain.schedule(() -> {
+                    session.playbackStopNanos = System.nanoTime();
+                    session.t[3] = session.playbackStopNanos;
+                    Map<String, Object> stopped = new HashMap<>();
+                    stopped.put("flag", PLAYBACK_STOPPED);
+                    stopped.put("playbackStoppedAt", ProtocolTransport.SERVER_TIMESTAMP);
+                    web.merge(path, stopped, () -> { }, Throwable::printStackTrace);
+                }, (long) (seconds * 1e9), TimeUnit.NANOSECONDS);
+            } else if ((flag == AUTH_SUCCESS || flag == AUTH_FAILURE) && session.t[7] == 0
+                    && session.t[3] != 0) {
+                session.t[7] = System.nanoTime();
+                completed.add(session);
+                if (session.number + 1 < sessions) {
+                    wakeUp(session.number + 1);
+                } else {
+                    webSession = null;
+                    web.merge(path, Collections.singletonMap("flag", (Object) IDLE), () -> { },
+                            Throwable::printStackTrace);
+                    finished.countDown();
+                }
+            }
+        }
+
+        /**
+         * phone: handle flags as FirebaseHelper does
+         */
+        private void onPhoneUpdate(final Map<String, Object> data) {
+            int flag = number(data, "flag");
+            int number = number(data, "session");
+            if (flag == WAKE_UP && (phoneSession == null || phoneSession.number != number)) {
+                phoneSession = webSession(number);
+                phoneSession.t[1] = System.nanoTime();
+                recordingDecided = false;
+                latencyEstimator.startSession();
+                recorder = new Recorder(phoneSession);
+                latencyEstimator.recordingStarted(recorder.sampleZeroNanos);
+                recorder.start();
+                Map<String, Object> fields = new HashMap<>();
+                fields.put("flag", RECORDING_STARTED);
+                fields.put("recordingStartedAt", ProtocolTransport.SERVER_TIMESTAMP);
+                latencyEstimator.anchorSent(System.nanoTime());
+                phoneWrites.write(path, fields,
+                        () -> latencyEstimator.anchorAcknowledged(System.nanoTime()),
+                        Throwable::printStackTrace);
+            } else if (phoneSession == null || phoneSession.number != number) {
+                return;
+            } else if (flag == PLAYBACK_STARTED) {
+                long arrival = System.nanoTime();
+                latencyEstimator.anchorServerTime(serverNanos(data, "recordingStartedAt"));
+                latencyEstimator.playbackStarted(arrival, serverNanos(data, "playbackStartedAt"));
+            } else if (flag == PLAYBACK_STOPPED && !recordingDecided) {
+                recordingDecided = true;
+                Session session = phoneSession;
+                session.t[4] = System.nanoTime();
+                latencyEstimator.anchorServerTime(serverNanos(data, "recordingStartedAt"));
+                latencyEstimator.playbackStopped(session.t[4], serverNanos(data, "playbackStoppedAt"));
+                phoneWrites.write(path, "flag", PERFORMING_ANALYSIS, null, null);
+                recorder.finish();
+                session.t[5] = System.nanoTime();
+
+                LinearRegression regression;
+                if (latencyEstimator.hasChirpWindow()) {
+                    double from = latencyEstimator.getChirpStartSeconds();
+                    double to = latencyEstimator.getChirpEndSeconds();
+                    regression = streaming ? recorder.analyzer.getLinearRegression(from, to)
+                            : analyzer.regression(analyzer.peaks(PcmSlice.of(ringBuffer,
+                                    from - ringBuffer.getStartSeconds(),
+                                    to - ringBuffer.getStartSeconds())),
+                                    0.0, Double.POSITIVE_INFINITY);
+                } else {
+                    long latencyMS = latencyEstimator.getLatencyMS();
+                    regression = streaming ? recorder.analyzer.getLinearRegression(latencyMS)
+                            : analyzer.regression(ringBuffer, latencyMS);
+                }
+                session.slope = regression.slope();
+                session.r2 = regression.R2();
+                // the app's decision: r^2 > tau and slope within delta, see ChirpAnalyzer
+                session.accepted = analyzer.accepts(regression, SLOPE);
+                session.t[6] = System.nanoTime();
+                phoneWrites.write(path, "flag", session.accepted ? AUTH_SUCCESS : AUTH_FAILURE,
+                        null, Throwable::printStackTrace);
+            }
+        }
+
+        /**
+         * the web-app's session of the given number, which the phone records the same
+         * timestamps into
+         */
+        private Session webSession(final int number) {
+            Session session = webSession;
+            return session != null && session.number == number ? session : new Session(number);
+        }
+
+        /**
+         * simulated recording thread, delivering pcm in real time
+         */
+        private final class Recorder extends Thread {
+            private final Session session;
+            private final long sampleZeroNanos = System.nanoTime();
+            private final StreamingSpectrumAnalyzer analyzer;
+            private final byte[] block = new byte[BLOCK * CHANNELS * 2];
+            private volatile boolean recording = true;
+            private long frames = 0;
+
+            private Recorder(final Session session) {
+                super("recorder-" + path);
+                this.session = session;
+                this.analyzer = streaming ? new StreamingSpectrumAnalyzer(
+                        ChirpAnalysisConfig.DEFAULT, SAMPLE_RATE, CHANNELS) : null;
+                if (ringBuffer != null) {
+                    ringBuffer.clear();
+                }
+            }
+
+            @Override
+            public void run() {
+                while (recording) {
+                    long due = (System.nanoTime() - sampleZeroNanos) * SAMPLE_RATE / 1000000000L;
+                    if (due - frames < BLOCK) {
+                        try {
+                            Thread.sleep(2);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        continue;
+                    }
+                    synthesize();
+                    if (analyzer != null) {
+                        analyzer.accept(block, 0, block.length);
+                    } else {
+                        ringBuffer.write(block, 0, block.length);
+                    }
+                }
+            }
+
+            /**
+             * next block of noise, with the chirp where it was playing
+             */
+            private void synthesize() {
+                long playbackStart = session.playbackStartNanos;
+                long playbackStop = session.playbackStopNanos;
+                for (int i = 0; i < BLOCK; i++, frames++) {
+                    long nanos = sampleZeroNanos + frames * 1000000000L / SAMPLE_RATE;
+                    double chirp = 0.0;
+                    if (nanos >= playbackStart && nanos < playbackStop) {
+                        double tc = (nanos - playbackStart) / 1e9;
+                        chirp = AMPLITUDE * Math.sin(2 * Math.PI
+                                * (START_FREQUENCY * tc + 0.5 * SLOPE * tc * tc));
+                    }
+                    for (int c = 0; c < CHANNELS; c++) {
+                        short sample = clip(chirp + noise * random.nextGaussian());
+                        int at = (i * CHANNELS + c) * 2;
+                        block[at] = (byte) sample;
+                        block[at + 1] = (byte) (sample >> 8);
+                    }
+                }
+            }
+
+            /**
+             * stop recording and wait for the last block, like WavMaker.stopRecording
+             */
+            private void finish() {
+                recording = false;
+                try {
+                    join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static int number(final Map<String, Object> data, final String field) {
+        Object value = data.get(field);
+        return value instanceof Number ? ((Number) value).intValue() : -1;
+    }
+
+    private static long serverNanos(final Map<String, Object> data, final String field) {
+        Object value = data.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : LatencyEstimator.NO_TIME;
+    }
+
+    private static short clip(final double value) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+    }
+
+    private static int[] parseInts(final String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static double[] parseDoubles(final String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,100 @@
+package chirp.me.in.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import chirp.me.in.utils.PcmRingBuffer;
+import chirp.me.in.utils.WavFileSource;
+
+/**
+ * Cost of turning a stereo recording into mono samples, from a mapped wav file and from the in
+ * memory capture
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PcmDecodeBenchmark {
+    @Param({"5", "30"})
+    public double seconds;
+
+    @Param({"44100"})
+    public int sampleRate;
+
+    private File wavFile;
+    private WavFileSource mapped;
+    private PcmRingBuffer ring;
+    private double[] mono;
+    private double[] window;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticChirp chirp = new SyntheticChirp(seconds, sampleRate, 10.0, 1000.0);
+        wavFile = File.createTempFile("chirp", ".wav");
+        chirp.writeWav(wavFile);
+        mapped = new WavFileSource(wavFile);
+
+        byte[] pcm = chirp.pcm();
+        ring = new PcmRingBuffer(sampleRate, 2, chirp.frames());
+        ring.write(pcm, 0, pcm.length);
+
+        mono = new double[chirp.frames()];
+        window = new double[1024];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        wavFile.delete();
+    }
+
+    /**
+     * map the file, parse the header and decode everything
+     */
+    @Benchmark
+    public double[] openAndDecodeFile() throws IOException {
+        WavFileSource source = new WavFileSource(wavFile);
+        source.read(0, mono, 0, source.length());
+        return mono;
+    }
+
+    /**
+     * decode everything from an already mapped file
+     */
+    @Benchmark
+    public double[] decodeMapped() {
+        mapped.read(0, mono, 0, mapped.length());
+        return mono;
+    }
+
+    /**
+     * decode everything in window sized pieces, the way the analyzers read
+     */
+    @Benchmark
+    public double[] decodeMappedWindows() {
+        int length = mapped.length();
+        for (int start = 0; start + window.length <= length; start += window.length) {
+            mapped.read(start, window, 0, window.length);
+        }
+        return window;
+    }
+
+    /**
+     * decode everything from the in memory capture
+     */
+    @Benchmark
+    public double[] decodeRingBuffer() {
+        ring.read(0, mono, 0, ring.length());
+        return mono;
+    }
+}
@@ -0,0 +1,70 @@
+package chirp.me.in.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import chirp.me.in.utils.LinearRegression;
+import chirp.me.in.utils.RunningRegression;
+import chirp.me.in.utils.TheilSenRegression;
+
+/**
+ * Cost of fitting peak frequency over time, n is the number of frames kept after cropping
+ * (about 1700 for a 5 s recording)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RegressionBenchmark {
+    @Param({"200", "1700", "10000"})
+    public int n;
+
+    private double[] x;
+    private double[] y;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        x = new double[n];
+        y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i * 0.003;
+            // peak frequencies snap to ~43 Hz bins, with the odd noise driven jump
+            y[i] = 2000.0 + 1000.0 * x[i] + 43.0 * Math.round(random.nextGaussian())
+                    + (random.nextInt(50) == 0 ? 5000.0 * random.nextDouble() : 0.0);
+        }
+    }
+
+    @Benchmark
+    public LinearRegression linearRegression() {
+        return new LinearRegression(x, y);
+    }
+
+    /**
+     * the same fit accumulated one point at a time, as the analyzers now do
+     */
+    @Benchmark
+    public LinearRegression runningRegression() {
+        RunningRegression fit = new RunningRegression();
+        for (int i = 0; i < n; i++) {
+            fit.add(x[i], y[i]);
+        }
+        return fit.toLinearRegression();
+    }
+
+    /**
+     * robust fit that ignores the jumps, see ChirpAnalysisConfig.withEstimator
+     */
+    @Benchmark
+    public LinearRegression theilSen() {
+        return new TheilSenRegression(x, y);
+    }
+}
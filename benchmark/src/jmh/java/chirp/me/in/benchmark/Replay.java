@@ -0,0 +1,145 @@
+package chirp.me.in.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import chirp.me.in.utils.ChirpAnalysisConfig;
+import chirp.me.in.utils.ChirpAnalyzer;
+import chirp.me.in.utils.DechirpDetector;
+import chirp.me.in.utils.DechirpResult;
+import chirp.me.in.utils.EarlyDecision;
+import chirp.me.in.utils.LinearRegression;
+import chirp.me.in.utils.PcmSource;
+import chirp.me.in.utils.PeakTrack;
+import chirp.me.in.utils.StreamingSpectrumAnalyzer;
+import chirp.me.in.utils.WavFileSource;
+
+/**
+ * Runs recorded .wav files (e.g. the recording.wav uploads of debug builds) through the same
+ * analysis the app performs, printing one csv line per file so thresholds can be tuned offline.
+ * Every file is analyzed in double (the reference) and in single precision. The single precision
+ * path must find the same peak as the reference in every window up to FLOAT_BIN_FRACTION of
+ * windows off by one bin (near ties), match slope and r^2 to within FLOAT_SLOPE_TOLERANCE and
+ * FLOAT_R2_TOLERANCE and reach the same auth decision; files where it does not are counted and
+ * reported. The SNR and decision of the dechirp
+ * detector for the true slope are printed alongside, as is the outcome of the early decision and
+ * how far into the recording it was made
+ *
+ * usage: Replay <wav file or directory> [latencyMS] [trueSlope] [windowSize] [overlap] [sigma]
+ *        [tau] [delta]
+ */
+public class Replay {
+    /**
+     * share of windows whose float peak may be one bin from the double one
+     */
+    private static final double FLOAT_BIN_FRACTION = 0.01;
+    /**
+     * greatest relative slope difference and absolute r^2 difference of the float path
+     */
+    private static final double FLOAT_SLOPE_TOLERANCE = 1e-4;
+    private static final double FLOAT_R2_TOLERANCE = 1e-4;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: Replay <wav file or directory> [latencyMS] [trueSlope]"
+                    + " [windowSize] [overlap] [sigma] [tau] [delta]");
+            return;
+        }
+        long latencyMS = args.length > 1 ? Long.parseLong(args[1]) : 300;
+        double trueSlope = args.length > 2 ? Double.parseDouble(args[2]) : 1000.0;
+        ChirpAnalysisConfig config = ChirpAnalysisConfig.DEFAULT;
+        if (args.length > 3) config = config.withWindowSize(Integer.parseInt(args[3]));
+        if (args.length > 4) config = config.withOverlap(Integer.parseInt(args[4]));
+        if (args.length > 5) config = config.withSigma(Double.parseDouble(args[5]));
+        if (args.length > 6) config = config.withTau(Double.parseDouble(args[6]));
+        if (args.length > 7) config = config.withDelta(Double.parseDouble(args[7]));
+        ChirpAnalyzer analyzer = new ChirpAnalyzer(config.withSinglePrecision(false));
+        ChirpAnalyzer floatAnalyzer = new ChirpAnalyzer(config.withSinglePrecision(true));
+        DechirpDetector dechirpDetector = new DechirpDetector(config);
+
+        List<File> files = new ArrayList<>();
+        File root = new File(args[0]);
+        if (root.isDirectory()) {
+            File[] wavs = root.listFiles((dir, name) -> name.toLowerCase().endsWith(".wav"));
+            if (wavs != null) {
+                Arrays.sort(wavs);
+                files.addAll(Arrays.asList(wavs));
+            }
+        } else {
+            files.add(root);
+        }
+
+        System.out.println("# " + config);
+        System.out.println("file,slope,r2,accepted,float_slope,float_r2,float_accepted,"
+                + "float_bins_off,float_within_tolerance,dechirp_snr_db,dechirp_slope,dechirp_accepted,early_decision,early_seconds");
+        int accepted = 0;
+        int mismatches = 0;
+        for (File file : files) {
+            try {
+                WavFileSource pcm = new WavFileSource(file);
+                PeakTrack track = analyzer.peaks(pcm);
+                PeakTrack floatTrack = floatAnalyzer.peaks(pcm);
+                LinearRegression regression = analyzer.regression(track, latencyMS);
+                boolean ok = analyzer.accepts(regression, trueSlope);
+                LinearRegression floatRegression = floatAnalyzer.regression(floatTrack, latencyMS);
+                boolean floatOk = floatAnalyzer.accepts(floatRegression, trueSlope);
+                int binsOff = 0;
+                boolean within = track.frames() == floatTrack.frames();
+                for (int i = 0; within && i < track.frames(); i++) {
+                    int difference = Math.abs(track.peakBin(i) - floatTrack.peakBin(i));
+                    within = difference <= 1;
+                    if (difference > 0) binsOff++;
+                }
+                within = within && binsOff <= FLOAT_BIN_FRACTION * track.frames()
+                        && Math.abs(floatRegression.slope() - regression.slope())
+                        <= FLOAT_SLOPE_TOLERANCE * Math.abs(regression.slope())
+                        && Math.abs(floatRegression.R2() - regression.R2()) <= FLOAT_R2_TOLERANCE
+                        && ok == floatOk;
+                DechirpResult dechirp = dechirpDetector.detect(pcm, trueSlope, latencyMS);
+                EarlyDecision early = decideEarly(pcm, config, trueSlope);
+                if (ok) accepted++;
+                if (!within) mismatches++;
+                System.out.println(file.getName() + "," + regression.slope() + ","
+                        + regression.R2() + "," + ok + "," + floatRegression.slope() + ","
+                        + floatRegression.R2() + "," + floatOk + "," + binsOff + "," + within + ","
+                        + dechirp.snrDb() + ","
+                        + dechirp.slope() + ","
+                        + dechirpDetector.accepts(dechirp, trueSlope) + "," + early.getOutcome() + ","
+                        + early.getDecisionTime());
+            } catch (Exception e) {
+                System.out.println(file.getName() + ",,,,,,,,,,,,," + e);
+            }
+        }
+        System.out.println("# accepted " + accepted + " of " + files.size()
+                + ", float path outside tolerance on " + mismatches);
+    }
+
+    /**
+     * stream a recording through the analyzer the way the recording thread does, as mono 16 bit
+     * pcm, until the early decision is conclusive or the recording ends
+     */
+    private static EarlyDecision decideEarly(final PcmSource pcm, final ChirpAnalysisConfig config,
+                                             final double trueSlope) {
+        StreamingSpectrumAnalyzer analyzer = new StreamingSpectrumAnalyzer(config,
+                pcm.getSampleRate(), 1);
+        EarlyDecision decision = new EarlyDecision(config, trueSlope,
+                analyzer.framesFor(EarlyDecision.DEFAULT_MIN_SECONDS));
+        analyzer.setEarlyDecision(decision, null);
+        double[] samples = new double[4096];
+        byte[] block = new byte[2 * samples.length];
+        for (int start = 0; start < pcm.length() && !decision.isDecided();
+             start += samples.length) {
+            int count = Math.min(samples.length, pcm.length() - start);
+            pcm.read(start, samples, 0, count);
+            for (int i = 0; i < count; i++) {
+                short sample = (short) Math.round(samples[i]);
+                block[2 * i] = (byte) sample;
+                block[2 * i + 1] = (byte) (sample >> 8);
+            }
+            analyzer.accept(block, 0, 2 * count);
+        }
+        return decision;
+    }
+}
@@ -0,0 +1,136 @@
+package chirp.me.in.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import chirp.me.in.utils.ChirpAnalysisConfig;
+import chirp.me.in.utils.ChirpAnalyzer;
+import chirp.me.in.utils.DechirpDetector;
+import chirp.me.in.utils.DechirpResult;
+import chirp.me.in.utils.LinearRegression;
+import chirp.me.in.utils.PcmRingBuffer;
+import chirp.me.in.utils.StreamingSpectrumAnalyzer;
+
+/**
+ * Full spectrogram analysis of a synthetic recording: STFT, per frame peak search, crop and
+ * regression, with pcm delivered in blocks the size the recorder reads
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StftBenchmark {
+    @Param({"5", "30"})
+    public double seconds;
+
+    @Param({"44100"})
+    public int sampleRate;
+
+    @Param({"10"})
+    public double snrDb;
+
+    @Param({"1000"})
+    public double slope;
+
+    /**
+     * bytes delivered per read, matches the recorder's buffer size
+     */
+    @Param({"3584"})
+    public int blockBytes;
+
+    private byte[] pcm;
+
+    /**
+     * the same recording held in memory, for the batch analysis
+     */
+    private PcmRingBuffer capture;
+
+    private final ChirpAnalyzer chirpAnalyzer = new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT);
+
+    private final ChirpAnalyzer floatAnalyzer =
+            new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT.withSinglePrecision(true));
+
+    /**
+     * band covering the first seconds of the synthetic chirp, decimated by 4 with a 4 times
+     * smaller window for the same frequency resolution
+     */
+    private final ChirpAnalyzer bandLimitedAnalyzer = new ChirpAnalyzer(
+            ChirpAnalysisConfig.DEFAULT.withBand(1500, 5000, 4).withWindowSize(256));
+
+    /**
+     * the same band evaluated by ZoomSpectrum instead of full transforms, at 1 and 4 points per
+     * fft bin
+     */
+    private final ChirpAnalyzer zoomAnalyzer = new ChirpAnalyzer(
+            ChirpAnalysisConfig.DEFAULT.withBand(1500, 5000, 1).withZoom(1));
+
+    private final ChirpAnalyzer fineZoomAnalyzer = new ChirpAnalyzer(
+            ChirpAnalysisConfig.DEFAULT.withBand(1500, 5000, 1).withZoom(4));
+
+    private final DechirpDetector dechirpDetector = new DechirpDetector(ChirpAnalysisConfig.DEFAULT);
+
+    private final ChirpAnalyzer parallelAnalyzer =
+            new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT, ChirpAnalyzer.sharedPool());
+
+    @Setup
+    public void setUp() {
+        pcm = new SyntheticChirp(seconds, sampleRate, snrDb, slope).pcm();
+        capture = new PcmRingBuffer(sampleRate, 2, pcm.length / 4);
+        capture.write(pcm, 0, pcm.length);
+    }
+
+    @Benchmark
+    public LinearRegression streamingStft() {
+        StreamingSpectrumAnalyzer analyzer =
+                new StreamingSpectrumAnalyzer(ChirpAnalysisConfig.DEFAULT, sampleRate, 2);
+        for (int offset = 0; offset < pcm.length; offset += blockBytes) {
+            analyzer.accept(pcm, offset, Math.min(blockBytes, pcm.length - offset));
+        }
+        return analyzer.getLinearRegression(300);
+    }
+
+    @Benchmark
+    public LinearRegression batchStft() {
+        return chirpAnalyzer.regression(capture, 300);
+    }
+
+    @Benchmark
+    public LinearRegression parallelStft() {
+        return parallelAnalyzer.regression(capture, 300);
+    }
+
+    @Benchmark
+    public LinearRegression floatStft() {
+        return floatAnalyzer.regression(capture, 300);
+    }
+
+    @Benchmark
+    public LinearRegression bandLimitedStft() {
+        return bandLimitedAnalyzer.regression(capture, 300);
+    }
+
+    @Benchmark
+    public LinearRegression zoomStft() {
+        return zoomAnalyzer.regression(capture, 300);
+    }
+
+    @Benchmark
+    public LinearRegression fineZoomStft() {
+        return fineZoomAnalyzer.regression(capture, 300);
+    }
+
+    /**
+     * matched filter alternative to the STFT and regression
+     */
+    @Benchmark
+    public DechirpResult dechirp() {
+        return dechirpDetector.detect(capture, slope, 300);
+    }
+}
@@ -0,0 +1,137 @@
+package chirp.me.in.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Generates synthetic recordings of a linear FMCW chirp in white noise, laid out like the ones
+ * WavMaker produces (16 bit little endian stereo pcm behind a 44 byte header). The chirp starts
+ * at startFrequency after leadSeconds of noise only, rises at slope Hz/s, and ends leadSeconds
+ * before the end of the recording.
+ */
+public class SyntheticChirp {
+    /**
+     * peak amplitude of the chirp
+     */
+    private static final double AMPLITUDE = 8000.0;
+    private final double seconds;
+    private final int sampleRate;
+    private final double snrDb;
+    private final double slope;
+    private final double startFrequency;
+    private final double leadSeconds;
+    private final long seed;
+
+    /**
+     * @param seconds - length of recording
+     * @param sampleRate - sampling rate
+     * @param snrDb - chirp to noise power ratio in dB
+     * @param slope - chirp slope in Hz/s
+     */
+    public SyntheticChirp(double seconds, int sampleRate, double snrDb, double slope) {
+        this(seconds, sampleRate, snrDb, slope, 2000.0, 0.3, 42L);
+    }
+
+    /**
+     * @param seconds - length of recording
+     * @param sampleRate - sampling rate
+     * @param snrDb - chirp to noise power ratio in dB
+     * @param slope - chirp slope in Hz/s
+     * @param startFrequency - frequency the chirp starts at in Hz
+     * @param leadSeconds - noise only time before and after the chirp
+     * @param seed - noise seed, the same seed always gives the same recording
+     */
+    public SyntheticChirp(double seconds, int sampleRate, double snrDb, double slope,
+                          double startFrequency, double leadSeconds, long seed) {
+        this.seconds = seconds;
+        this.sampleRate = sampleRate;
+        this.snrDb = snrDb;
+        this.slope = slope;
+        this.startFrequency = startFrequency;
+        this.leadSeconds = leadSeconds;
+        this.seed = seed;
+    }
+
+    /**
+     * @return number of pcm frames in the recording
+     */
+    public int frames() {
+        return (int) (seconds * sampleRate);
+    }
+
+    /**
+     * @return stereo 16 bit pcm of the recording, without header
+     */
+    public byte[] pcm() {
+        int frames = frames();
+        Random random = new Random(seed);
+        // chirp power is AMPLITUDE^2 / 2
+        double noise = AMPLITUDE / Math.sqrt(2.0) / Math.pow(10.0, snrDb / 20.0);
+        double chirpEnd = seconds - leadSeconds;
+
+        ByteBuffer out = ByteBuffer.allocate(frames * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / sampleRate;
+            double chirp = 0.0;
+            if (t >= leadSeconds && t < chirpEnd) {
+                double tc = t - leadSeconds;
+                chirp = AMPLITUDE * Math.sin(2 * Math.PI * (startFrequency * tc + 0.5 * slope * tc * tc));
+            }
+            out.putShort(clip(chirp + noise * random.nextGaussian()));
+            out.putShort(clip(chirp + noise * random.nextGaussian()));
+        }
+        return out.array();
+    }
+
+    /**
+     * @return the recording as the bytes of a .wav file
+     */
+    public byte[] wav() {
+        byte[] pcm = pcm();
+        ByteBuffer out = ByteBuffer.allocate(44 + pcm.length).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(new byte[]{'R', 'I', 'F', 'F'}).putInt(36 + pcm.length)
+                .put(new byte[]{'W', 'A', 'V', 'E'})
+                .put(new byte[]{'f', 'm', 't', ' '}).putInt(16)
+                .putShort((short) 1).putShort((short) 2)
+                .putInt(sampleRate).putInt(sampleRate * 4)
+                .putShort((short) 4).putShort((short) 16)
+                .put(new byte[]{'d', 'a', 't', 'a'}).putInt(pcm.length)
+                .put(pcm);
+        return out.array();
+    }
+
+    /**
+     * write the recording to a .wav file
+     * @param file - destination, overwritten if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void writeWav(File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(wav());
+        }
+    }
+
+    private static short clip(double value) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+    }
+
+    /**
+     * write a synthetic chirp recording
+     * @param args - output file, then optionally seconds, sample rate, snr (dB) and slope (Hz/s)
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: SyntheticChirp <out.wav> [seconds] [sampleRate] [snrDb] [slope]");
+            return;
+        }
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 5.0;
+        int sampleRate = args.length > 2 ? Integer.parseInt(args[2]) : 44100;
+        double snrDb = args.length > 3 ? Double.parseDouble(args[3]) : 10.0;
+        double slope = args.length > 4 ? Double.parseDouble(args[4]) : 1000.0;
+        new SyntheticChirp(seconds, sampleRate, snrDb, slope).writeWav(new File(args[0]));
+    }
+}
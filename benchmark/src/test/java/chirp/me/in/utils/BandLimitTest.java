@@ -0,0 +1,146 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * PolyphaseDecimator against filtering every sample and then dropping samples, and BandLimit
+ * mapping peaks found in the decimated signal back to the frequencies that were recorded,
+ * including bands that alias down mirrored.
+ */
+public class BandLimitTest {
+    private static final int SAMPLE_RATE = 44100;
+
+    /**
+     * @param start - frequency (Hz) at t = 0
+     * @param slope - chirp slope in Hz/s, 0 for a steady tone
+     * @return 2 s mono recording of the chirp in a little noise
+     */
+    private static PcmRingBuffer chirp(final double start, final double slope) {
+        int frames = 2 * SAMPLE_RATE;
+        Random random = new Random(7);
+        ByteBuffer pcm = ByteBuffer.allocate(frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double sample = 8000 * Math.sin(2 * Math.PI * (start * t + 0.5 * slope * t * t));
+            pcm.putShort((short) (sample + 100 * random.nextGaussian()));
+        }
+        PcmRingBuffer capture = new PcmRingBuffer(SAMPLE_RATE, 1, frames);
+        capture.write(pcm.array(), 0, pcm.capacity());
+        return capture;
+    }
+
+    @Test
+    public void decimatorKeepsEveryFactorthFilterOutput() {
+        double[] taps = PolyphaseDecimator.bandPass(SAMPLE_RATE, 1000, 4000, 65);
+        int factor = 4;
+        Random random = new Random(1);
+        double[] input = new double[1000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextGaussian();
+        }
+        PolyphaseDecimator decimator = new PolyphaseDecimator(taps, factor);
+        int outputs = 0;
+        for (int n = 0; n < input.length; n++) {
+            boolean ready = decimator.push(input[n]);
+            assertEquals("input " + n, n % factor == factor - 1, ready);
+            if (ready) {
+                double expected = 0.0;
+                for (int k = 0; k < taps.length && k <= n; k++) {
+                    expected += taps[k] * input[n - k];
+                }
+                assertEquals("input " + n, expected, decimator.output(), 1e-12);
+                outputs++;
+            }
+        }
+        assertEquals(input.length / factor, outputs);
+    }
+
+    @Test
+    public void bandPassPassesBandAndStopsTheRest() {
+        double[] taps = PolyphaseDecimator.bandPass(SAMPLE_RATE, 4000, 8000, 129);
+        assertEquals(1.0, gain(taps, 6000), 0.01);
+        assertTrue(gain(taps, 1000) < 0.01);
+        assertTrue(gain(taps, 12000) < 0.01);
+    }
+
+    /**
+     * @return magnitude of the frequency response of taps at frequency (Hz)
+     */
+    private static double gain(final double[] taps, final double frequency) {
+        double re = 0.0;
+        double im = 0.0;
+        for (int k = 0; k < taps.length; k++) {
+            double phase = 2 * Math.PI * frequency * k / SAMPLE_RATE;
+            re += taps[k] * Math.cos(phase);
+            im -= taps[k] * Math.sin(phase);
+        }
+        return Math.hypot(re, im);
+    }
+
+    @Test
+    public void zonesMapBackToRecordedFrequencies() {
+        // decimated rate 11025 Hz, nyquist zones 5512.5 Hz wide
+        BandLimit baseband = BandLimit.forConfig(
+                ChirpAnalysisConfig.DEFAULT.withBand(1500, 5000, 4), SAMPLE_RATE);
+        assertEquals(11025.0, baseband.getOutputRate(), 0.0);
+        assertEquals(0.0, baseband.getFrequencyOffset(), 0.0);
+        assertEquals(1.0, baseband.getFrequencyScale(), 0.0);
+
+        BandLimit mirrored = BandLimit.forConfig(
+                ChirpAnalysisConfig.DEFAULT.withBand(6000, 10000, 4), SAMPLE_RATE);
+        assertEquals(11025.0, mirrored.getFrequencyOffset(), 0.0);
+        assertEquals(-1.0, mirrored.getFrequencyScale(), 0.0);
+        // 10000 Hz aliases to 1025 Hz, 6000 Hz to 5025 Hz
+        assertEquals((int) Math.floor(1025 * 1024 / 11025.0), mirrored.getFromBin());
+        assertEquals((int) Math.ceil(5025 * 1024 / 11025.0), mirrored.getToBin());
+
+        BandLimit upper = BandLimit.forConfig(
+                ChirpAnalysisConfig.DEFAULT.withBand(12000, 16000, 4), SAMPLE_RATE);
+        assertEquals(11025.0, upper.getFrequencyOffset(), 0.0);
+        assertEquals(1.0, upper.getFrequencyScale(), 0.0);
+
+        BandLimit full = BandLimit.forConfig(ChirpAnalysisConfig.DEFAULT, SAMPLE_RATE);
+        assertEquals(1, full.getDecimation());
+        assertEquals(0, full.getFromBin());
+        assertEquals(512, full.getToBin());
+        assertNull(full.newDecimator());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bandAcrossZoneEdgeIsRejected() {
+        BandLimit.forConfig(ChirpAnalysisConfig.DEFAULT.withBand(4000, 7000, 4), SAMPLE_RATE);
+    }
+
+    @Test
+    public void toneIsFoundAtItsFrequencyInEveryZone() {
+        double[][] cases = {{3000, 1500, 5000}, {8000, 6000, 10000}, {14000, 12000, 16000}};
+        for (double[] c : cases) {
+            ChirpAnalysisConfig config = ChirpAnalysisConfig.DEFAULT.withBand(c[1], c[2], 4);
+            PeakTrack track = new ChirpAnalyzer(config).peaks(chirp(c[0], 0));
+            // decimated bins are 11025 / 1024 Hz wide; skip the windows the filter is filling
+            for (int i = 10; i < track.frames(); i++) {
+                assertEquals(c[0] + " Hz, window " + i, c[0], track.frequency(i), 11.0);
+            }
+        }
+    }
+
+    @Test
+    public void mirroredChirpKeepsItsSlope() {
+        ChirpAnalysisConfig config = ChirpAnalysisConfig.DEFAULT.withBand(6000, 10000, 4);
+        ChirpAnalyzer analyzer = new ChirpAnalyzer(config);
+        LinearRegression fit =
+                analyzer.regression(analyzer.peaks(chirp(6500, 1000)), 0.2, 1.8);
+        assertEquals(1000, fit.slope(), 10);
+        assertTrue(analyzer.accepts(fit, 1000));
+        assertFalse(analyzer.accepts(fit, -1000));
+    }
+}
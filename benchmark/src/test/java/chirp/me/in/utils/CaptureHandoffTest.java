@@ -0,0 +1,68 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * CaptureHandoff passing blocks between one reader and one writer, and the reader giving up
+ * waiting on a writer that stopped recycling.
+ */
+public class CaptureHandoffTest {
+    @Test
+    public void blocksArriveInOrderThenEnd() throws InterruptedException {
+        CaptureHandoff handoff = new CaptureHandoff(2, 16);
+        CaptureHandoff.Block first = handoff.acquire(100);
+        first.getData()[0] = 1;
+        handoff.publish(first, 5);
+        CaptureHandoff.Block second = handoff.acquire(100);
+        second.getData()[0] = 2;
+        handoff.publish(second, 16);
+        handoff.finish();
+
+        CaptureHandoff.Block taken = handoff.take();
+        assertSame(first, taken);
+        assertEquals(5, taken.getLength());
+        handoff.recycle(taken);
+        taken = handoff.take();
+        assertSame(second, taken);
+        assertEquals(2, taken.getData()[0]);
+        handoff.recycle(taken);
+        assertNull(handoff.take());
+        assertEquals(0, handoff.getStalls());
+    }
+
+    @Test
+    public void readerStopsWaitingOnStuckWriter() throws InterruptedException {
+        CaptureHandoff handoff = new CaptureHandoff(2, 16);
+        handoff.publish(handoff.acquire(100), 16);
+        handoff.publish(handoff.acquire(100), 16);
+        // the writer never recycles, so the reader has to time out instead of hanging
+        assertNull(handoff.acquire(10));
+        assertEquals(1, handoff.getStalls());
+        handoff.reset();
+        assertEquals(0, handoff.getStalls());
+    }
+
+    @Test
+    public void readerResumesOnceWriterRecycles() throws InterruptedException {
+        final CaptureHandoff handoff = new CaptureHandoff(2, 16);
+        handoff.publish(handoff.acquire(100), 16);
+        handoff.publish(handoff.acquire(100), 16);
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+                handoff.recycle(handoff.take());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        writer.start();
+        assertNotNull(handoff.acquire(5000));
+        writer.join();
+        assertEquals(1, handoff.getStalls());
+    }
+}
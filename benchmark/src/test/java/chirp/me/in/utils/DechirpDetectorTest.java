@@ -0,0 +1,69 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * DechirpDetector accepting a recording of the chirp it is given the slope of, and rejecting
+ * noise and chirps of other slopes, strong as they may be.
+ */
+public class DechirpDetectorTest {
+    private static final long LATENCY_MS = 300;
+
+    private static final DechirpDetector DETECTOR =
+            new DechirpDetector(ChirpAnalysisConfig.DEFAULT);
+
+    @Test
+    public void trueSlopeIsAccepted() {
+        PcmRingBuffer capture = ParallelPeaksTest.chirp(3.0, 1000);
+        DechirpResult result = DETECTOR.detect(capture, 1000, LATENCY_MS);
+        assertTrue(result.toString(), DETECTOR.accepts(result, 1000));
+        // 0.42 s cropped off the start, where the chirp is at 2420 Hz
+        assertEquals(2420, result.toneFrequency(), 10);
+        assertEquals(1000, result.slope(), 10);
+        assertTrue(result.concentration() > 0.5);
+    }
+
+    @Test
+    public void otherSlopesAreRejected() {
+        PcmRingBuffer capture = ParallelPeaksTest.chirp(3.0, 1000);
+        for (double slope : new double[]{800, 1200, -1000}) {
+            DechirpResult result = DETECTOR.detect(capture, slope, LATENCY_MS);
+            assertFalse("slope " + slope + ": " + result, DETECTOR.accepts(result, slope));
+        }
+    }
+
+    @Test
+    public void noiseIsRejected() {
+        int frames = 3 * 44100;
+        Random random = new Random(3);
+        ByteBuffer pcm = ByteBuffer.allocate(frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            pcm.putShort((short) (3000 * random.nextGaussian()));
+        }
+        PcmRingBuffer capture = new PcmRingBuffer(44100, 1, frames);
+        capture.write(pcm.array(), 0, pcm.capacity());
+        DechirpResult result = DETECTOR.detect(capture, 1000, LATENCY_MS);
+        assertFalse(result.toString(), DETECTOR.accepts(result, 1000));
+    }
+
+    @Test
+    public void tooShortForOneSegment() {
+        DechirpResult result =
+                DETECTOR.detect(ParallelPeaksTest.chirp(0.5, 1000), 1000, LATENCY_MS);
+        assertEquals(0, result.segments());
+        assertFalse(DETECTOR.accepts(result, 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void segmentSizeMustBePowerOf2() {
+        new DechirpDetector(ChirpAnalysisConfig.DEFAULT, 10000, 10.0);
+    }
+}
@@ -0,0 +1,83 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * FFTPlan, and FFT.fft on top of it, against the baseline FFT: the same butterflies with the
+ * same twiddles, so the output must be bit identical, not just close.
+ */
+public class FFTPlanTest {
+    /**
+     * @param n - number of values
+     * @param seed - random seed
+     * @return n gaussian values
+     */
+    static double[] random(final int n, final long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextGaussian();
+        }
+        return values;
+    }
+
+    @Test
+    public void fftIsBitIdenticalToBaseline() {
+        for (int n = 1; n <= 1024; n *= 2) {
+            double[] real = random(n, n);
+            double[] imag = random(n, -n);
+            for (boolean direct : new boolean[]{true, false}) {
+                assertArrayEquals("n = " + n + ", direct = " + direct,
+                        BaselineFFT.fft(real, imag, direct), FFT.fft(real, imag, direct), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void planTransformsInPlaceLikeBaseline() {
+        for (int n = 1; n <= 1024; n *= 2) {
+            double[] real = random(n, 3L * n);
+            double[] imag = random(n, 5L * n);
+            double[] expected = BaselineFFT.fft(real, imag, true);
+            FFTPlan.forSize(n).transform(real, imag, true);
+            for (int i = 0; i < n; i++) {
+                assertArrayEquals("n = " + n + ", bin " + i,
+                        new double[]{expected[2 * i], expected[2 * i + 1]},
+                        new double[]{real[i], imag[i]}, 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void fftLeavesInputUntouched() {
+        double[] real = random(64, 1);
+        double[] imag = random(64, 2);
+        double[] realCopy = real.clone();
+        double[] imagCopy = imag.clone();
+        FFT.fft(real, imag, true);
+        assertArrayEquals(realCopy, real, 0.0);
+        assertArrayEquals(imagCopy, imag, 0.0);
+    }
+
+    @Test
+    public void plansAreCachedPerSize() {
+        assertSame(FFTPlan.forSize(256), FFTPlan.forSize(256));
+    }
+
+    @Test
+    public void fftRejectsSizesNotPowersOf2() {
+        assertNull(FFT.fft(new double[3], new double[3], true));
+        assertNull(FFT.fft(new double[0], new double[0], true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void planRejectsSizesNotPowersOf2() {
+        FFTPlan.forSize(48);
+    }
+}
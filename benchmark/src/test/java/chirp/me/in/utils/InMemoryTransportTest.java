@@ -0,0 +1,118 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * InMemoryTransport storing documents as Firestore would, delivering messages in order despite
+ * jitter, and delaying them by the configured latency.
+ */
+public class InMemoryTransportTest {
+    private final InMemoryTransport.Server server = new InMemoryTransport.Server();
+
+    @After
+    public void shutdown() {
+        server.shutdown();
+    }
+
+    private static Map<String, Object> fields(final Object... namesAndValues) {
+        Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            fields.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return fields;
+    }
+
+    /**
+     * wait for the acknowledgement of a write issued by write
+     */
+    private static void await(final CountDownLatch done) throws InterruptedException {
+        assertTrue("write not acknowledged", done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void setMergeAndBatchAsFirestore() throws InterruptedException {
+        InMemoryTransport client = new InMemoryTransport(server, 0, 0, 1, Runnable::run);
+        CountDownLatch done = new CountDownLatch(1);
+        client.set("users/a", fields("COUNT", 3, "RATIO", 0.5f,
+                "TIME", ProtocolTransport.SERVER_TIMESTAMP), done::countDown, null);
+        await(done);
+        Map<String, Object> document = server.read("users/a");
+        // whole numbers read back as Long, others as Double, timestamps as epoch nanoseconds
+        assertEquals(3L, document.get("COUNT"));
+        assertEquals(0.5, document.get("RATIO"));
+        long stamp = (Long) document.get("TIME");
+        assertTrue(stamp <= server.now());
+
+        done = new CountDownLatch(1);
+        client.merge("users/a", fields("FLAG", true), done::countDown, null);
+        await(done);
+        assertEquals(3L, server.read("users/a").get("COUNT"));
+        assertEquals(true, server.read("users/a").get("FLAG"));
+
+        done = new CountDownLatch(1);
+        client.batch().set("users/a", fields("FLAG", false))
+                .merge("users/b", fields("COUNT", 1L))
+                .commit(done::countDown, null);
+        await(done);
+        assertNull(server.read("users/a").get("COUNT"));
+        assertEquals(false, server.read("users/a").get("FLAG"));
+        assertEquals(1L, server.read("users/b").get("COUNT"));
+        assertEquals(3, server.getCommits());
+        assertEquals(4, server.getDocumentWrites());
+    }
+
+    @Test
+    public void listenerSeesEveryWriteInOrder() throws InterruptedException {
+        // jitter of many times the latency, so messages would overtake each other if allowed
+        InMemoryTransport writer = new InMemoryTransport(server, 0.1, 5, 2, Runnable::run);
+        InMemoryTransport reader = new InMemoryTransport(server, 0.1, 5, 3, Runnable::run);
+        final List<Object> seen = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch last = new CountDownLatch(1);
+        ProtocolTransport.Subscription subscription = reader.subscribe("users/a",
+                (data, error) -> {
+                    Object step = data == null ? null : data.get("STEP");
+                    seen.add(step);
+                    if (Long.valueOf(20).equals(step)) {
+                        last.countDown();
+                    }
+                });
+        for (int step = 1; step <= 20; step++) {
+            writer.merge("users/a", fields("STEP", step), () -> { }, null);
+        }
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+        subscription.remove();
+
+        // the document did not exist when subscribing unless the first write got there first
+        long previous = 0;
+        for (Object step : seen) {
+            if (step != null) {
+                assertTrue("seen " + seen, (Long) step > previous);
+                previous = (Long) step;
+            }
+        }
+        assertEquals(20L, previous);
+    }
+
+    @Test
+    public void roundTripTakesTwiceTheLatency() throws InterruptedException {
+        InMemoryTransport client = new InMemoryTransport(server, 20, 0, 4, Runnable::run);
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        client.merge("users/a", fields("FLAG", true), done::countDown, null);
+        await(done);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+    }
+}
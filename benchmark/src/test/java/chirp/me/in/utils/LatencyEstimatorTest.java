@@ -0,0 +1,124 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * LatencyEstimator placing the chirp in the recording, from server timestamps once server time is
+ * anchored to the phone's clock, and from flag arrivals and the smoothed round trip otherwise.
+ */
+public class LatencyEstimatorTest {
+    private static final long MS = 1000000L;
+    /**
+     * server clock, epoch nanoseconds, at phone time 0
+     */
+    private static final long SERVER_ZERO = 1700000000000L * MS;
+
+    /**
+     * session whose recording starts at phone time 1000 ms, and whose RECORDING_STARTED write
+     * takes 100 ms there and back, reaching the server at 1050 ms
+     */
+    private static LatencyEstimator session(final boolean anchored) {
+        LatencyEstimator estimator = new LatencyEstimator();
+        estimator.startSession();
+        estimator.recordingStarted(1000 * MS);
+        estimator.anchorSent(1000 * MS);
+        estimator.anchorAcknowledged(1100 * MS);
+        if (anchored) {
+            estimator.anchorServerTime(SERVER_ZERO + 1050 * MS);
+        }
+        return estimator;
+    }
+
+    @Test
+    public void roundTripIsSmoothed() {
+        LatencyEstimator estimator = new LatencyEstimator();
+        assertTrue(Double.isNaN(estimator.getRoundTripMS()));
+        estimator.addRoundTrip(100 * MS);
+        assertEquals(100.0, estimator.getRoundTripMS(), 1e-9);
+        estimator.addRoundTrip(200 * MS);
+        assertEquals(112.5, estimator.getRoundTripMS(), 1e-9);
+        // clock went backwards, ignored
+        estimator.addRoundTrip(-MS);
+        assertEquals(112.5, estimator.getRoundTripMS(), 1e-9);
+    }
+
+    @Test
+    public void anchoredServerTimestampsPlaceChirp() {
+        LatencyEstimator estimator = session(true);
+        assertTrue(estimator.isAnchored());
+        // played from 1450 to 3450 ms on the phone's clock, flags arriving much later
+        estimator.playbackStarted(1600 * MS, SERVER_ZERO + 1450 * MS);
+        assertTrue(estimator.hasChirpStart());
+        assertFalse(estimator.hasChirpWindow());
+        assertTrue(Double.isNaN(estimator.getChirpEndSeconds()));
+        estimator.playbackStopped(3700 * MS, SERVER_ZERO + 3450 * MS);
+        assertTrue(estimator.hasChirpWindow());
+
+        assertEquals(450, estimator.getLatencyMS());
+        // 50 ms anchor error and the playback margin on both sides
+        assertEquals(0.45 + 0.05 + 0.1, estimator.getChirpStartSeconds(), 1e-9);
+        assertEquals(2.45 - 0.05 - 0.1, estimator.getChirpEndSeconds(), 1e-9);
+    }
+
+    @Test
+    public void eventIsNeverPlacedAfterItsFlagArrived() {
+        LatencyEstimator estimator = session(true);
+        estimator.playbackStarted(1200 * MS, SERVER_ZERO + 1300 * MS);
+        assertEquals(200, estimator.getLatencyMS());
+    }
+
+    @Test
+    public void withoutTimestampsFlagsArePlacedHalfRoundTripEarlier() {
+        LatencyEstimator estimator = session(false);
+        assertFalse(estimator.isAnchored());
+        estimator.playbackStarted(1600 * MS, LatencyEstimator.NO_TIME);
+        estimator.playbackStopped(3600 * MS, LatencyEstimator.NO_TIME);
+        // one 100 ms round trip: placed 50 ms before arrival, error 50 ms + 4 * 50 ms variation
+        assertEquals(550, estimator.getLatencyMS());
+        assertEquals(0.55 + 0.25 + 0.1, estimator.getChirpStartSeconds(), 1e-9);
+        assertEquals(2.55 - 0.25 - 0.1, estimator.getChirpEndSeconds(), 1e-9);
+    }
+
+    @Test
+    public void timestampsWithoutAnchorFallBackToArrival() {
+        LatencyEstimator estimator = session(false);
+        estimator.playbackStarted(1600 * MS, SERVER_ZERO + 1450 * MS);
+        assertEquals(550, estimator.getLatencyMS());
+    }
+
+    @Test
+    public void newSessionKeepsOnlyRoundTrip() {
+        LatencyEstimator estimator = session(true);
+        estimator.playbackStarted(1600 * MS, SERVER_ZERO + 1450 * MS);
+        estimator.startSession();
+        assertFalse(estimator.hasChirpStart());
+        assertFalse(estimator.isAnchored());
+        assertEquals(0, estimator.getLatencyMS());
+        assertTrue(Double.isNaN(estimator.getChirpStartSeconds()));
+        assertEquals(100.0, estimator.getRoundTripMS(), 1e-9);
+        // an acknowledgement without a write sent this session is not a round trip
+        estimator.anchorAcknowledged(5000 * MS);
+        assertEquals(100.0, estimator.getRoundTripMS(), 1e-9);
+    }
+
+    @Test
+    public void anchorIsSetOncePerSession() {
+        LatencyEstimator estimator = session(true);
+        // a later snapshot of the same write with a different stamp changes nothing
+        estimator.anchorServerTime(SERVER_ZERO + 2000 * MS);
+        estimator.playbackStarted(1600 * MS, SERVER_ZERO + 1450 * MS);
+        assertEquals(450, estimator.getLatencyMS());
+    }
+
+    @Test
+    public void chirpStartIsNotBeforeRecording() {
+        LatencyEstimator estimator = session(true);
+        estimator.playbackStarted(1600 * MS, SERVER_ZERO + 500 * MS);
+        assertEquals(0, estimator.getLatencyMS());
+        assertEquals(0.0, estimator.getChirpStartSeconds(), 0.0);
+    }
+}
@@ -0,0 +1,92 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * ChirpAnalyzer splitting the windows across a pool against the same analyzer without one. Every
+ * window is transformed by the same code either way, so peaks and spectrogram must be identical.
+ */
+public class ParallelPeaksTest {
+    private static final int SAMPLE_RATE = 44100;
+
+    /**
+     * @param seconds - length of the recording
+     * @param slope - chirp slope in Hz/s
+     * @return stereo recording of a chirp from 2000 Hz in a little noise
+     */
+    static PcmRingBuffer chirp(final double seconds, final double slope) {
+        byte[] pcm = chirpPcm(seconds, slope);
+        PcmRingBuffer capture = new PcmRingBuffer(SAMPLE_RATE, 2, pcm.length / 4);
+        capture.write(pcm, 0, pcm.length);
+        return capture;
+    }
+
+    /**
+     * @return the bytes of chirp(seconds, slope), as AudioRecord would deliver them
+     */
+    static byte[] chirpPcm(final double seconds, final double slope) {
+        int frames = (int) (seconds * SAMPLE_RATE);
+        Random random = new Random(42);
+        ByteBuffer pcm = ByteBuffer.allocate(frames * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double sample = 8000 * Math.sin(2 * Math.PI * (2000 * t + 0.5 * slope * t * t));
+            pcm.putShort((short) (sample + 100 * random.nextGaussian()));
+            pcm.putShort((short) (sample + 100 * random.nextGaussian()));
+        }
+        return pcm.array();
+    }
+
+    @Test
+    public void defaultPeaksAndSpectrogramMatchSequential() {
+        PcmRingBuffer capture = chirp(2.0, 1000);
+        ChirpAnalyzer sequential = new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT);
+        ChirpAnalyzer parallel =
+                new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT, ChirpAnalyzer.sharedPool());
+        int frames = sequential.frames(capture.length());
+        int bins = sequential.bins(SAMPLE_RATE);
+        double[][] expected = new double[frames][bins];
+        double[][] actual = new double[frames][bins];
+
+        assertSameTrack(sequential.peaks(capture, expected), parallel.peaks(capture, actual));
+        for (int i = 0; i < frames; i++) {
+            assertArrayEquals("window " + i, expected[i], actual[i], 0.0);
+        }
+    }
+
+    @Test
+    public void configuredPeaksMatchSequential() {
+        PcmRingBuffer capture = chirp(2.0, 1000);
+        ChirpAnalysisConfig[] configs = {
+                ChirpAnalysisConfig.DEFAULT.withSinglePrecision(true),
+                ChirpAnalysisConfig.DEFAULT.withWindowSize(512).withOverlap(4)
+                        .withWindow(WindowFunction.HANN)
+                        .withInterpolation(PeakInterpolation.QUADRATIC),
+                ChirpAnalysisConfig.DEFAULT.withBand(1500, 5000, 4).withWindowSize(256),
+                ChirpAnalysisConfig.DEFAULT.withBand(1500, 5000, 1).withZoom(4),
+        };
+        for (ChirpAnalysisConfig config : configs) {
+            assertSameTrack(new ChirpAnalyzer(config).peaks(capture),
+                    new ChirpAnalyzer(config, ChirpAnalyzer.sharedPool()).peaks(capture));
+        }
+    }
+
+    private static void assertSameTrack(final PeakTrack expected, final PeakTrack actual) {
+        // enough windows that the parallel path actually splits them
+        assertTrue(expected.frames() >= 128);
+        assertEquals(expected.frames(), actual.frames());
+        for (int i = 0; i < expected.frames(); i++) {
+            assertEquals("window " + i, expected.peakBin(i), actual.peakBin(i));
+            assertEquals("window " + i, expected.frequency(i), actual.frequency(i), 0.0);
+            assertEquals("window " + i, expected.time(i), actual.time(i), 0.0);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * PcmRingBuffer keeping the newest frames once it wraps around, samples and frames split across
+ * writes, and the held frames read back downmixed or through a wav file.
+ */
+public class PcmRingBufferTest {
+    private static final int SAMPLE_RATE = 8000;
+    private static final int CAPACITY = 10;
+
+    /**
+     * @return stereo pcm of frames [from, to), frame k downmixing to mono(k)
+     */
+    private static byte[] frames(final int from, final int to) {
+        ByteBuffer pcm = ByteBuffer.allocate((to - from) * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int k = from; k < to; k++) {
+            pcm.putShort((short) (mono(k) - 1));
+            pcm.putShort((short) (mono(k) + 1));
+        }
+        return pcm.array();
+    }
+
+    /**
+     * negative for the first frames, so the sign of the high byte is exercised too
+     */
+    private static double mono(final int k) {
+        return -1000.0 + 100 * k;
+    }
+
+    /**
+     * write data in chunks of the given sizes, in turn
+     */
+    private static void write(final PcmRingBuffer buffer, final byte[] data, final int... chunks) {
+        int offset = 0;
+        for (int i = 0; offset < data.length; i++) {
+            int length = Math.min(chunks[i % chunks.length], data.length - offset);
+            buffer.write(data, offset, length);
+            offset += length;
+        }
+    }
+
+    private static void assertHolds(final PcmRingBuffer buffer, final int first, final int count) {
+        assertEquals(count, buffer.length());
+        assertEquals(first, buffer.getOverwrittenFrames());
+        assertEquals((double) first / SAMPLE_RATE, buffer.getStartSeconds(), 0.0);
+        double[] samples = new double[count];
+        float[] floatSamples = new float[count];
+        buffer.read(0, samples, 0, count);
+        buffer.read(0, floatSamples, 0, count);
+        for (int i = 0; i < count; i++) {
+            assertEquals("frame " + i, mono(first + i), samples[i], 0.0);
+            assertEquals("frame " + i, mono(first + i), floatSamples[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void holdsEverythingUntilFull() {
+        PcmRingBuffer buffer = new PcmRingBuffer(SAMPLE_RATE, 2, CAPACITY);
+        write(buffer, frames(0, CAPACITY), 4);
+        assertHolds(buffer, 0, CAPACITY);
+    }
+
+    @Test
+    public void keepsNewestFramesOnceWrapped() {
+        PcmRingBuffer buffer = new PcmRingBuffer(SAMPLE_RATE, 2, CAPACITY);
+        write(buffer, frames(0, 25), 4);
+        assertHolds(buffer, 15, CAPACITY);
+
+        // reading part way in continues across the end of the ring
+        double[] samples = new double[3];
+        buffer.read(7, samples, 0, 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(mono(22 + i), samples[i], 0.0);
+        }
+    }
+
+    @Test
+    public void samplesAndFramesSplitAcrossWrites() {
+        PcmRingBuffer buffer = new PcmRingBuffer(SAMPLE_RATE, 2, CAPACITY);
+        // odd sizes split both the 2 byte samples and the 4 byte frames
+        write(buffer, frames(0, 23), 3, 1, 5, 7);
+        assertHolds(buffer, 13, CAPACITY);
+    }
+
+    @Test
+    public void partialFrameIsNotHeld() {
+        PcmRingBuffer buffer = new PcmRingBuffer(SAMPLE_RATE, 2, CAPACITY);
+        write(buffer, frames(0, 20), 4);
+        byte[] last = frames(20, 21);
+        // half of a sample: nothing stored yet
+        buffer.write(last, 0, 1);
+        assertHolds(buffer, 10, CAPACITY);
+        // the left sample of frame 20 overwrites half of the oldest frame held
+        buffer.write(last, 1, 1);
+        assertHolds(buffer, 11, CAPACITY - 1);
+        buffer.write(last, 2, 2);
+        assertHolds(buffer, 11, CAPACITY);
+    }
+
+    @Test
+    public void clearStartsOver() {
+        PcmRingBuffer buffer = new PcmRingBuffer(SAMPLE_RATE, 2, CAPACITY);
+        write(buffer, frames(0, 25), 3);
+        buffer.clear();
+        assertHolds(buffer, 0, 0);
+        write(buffer, frames(0, 5), 4);
+        assertHolds(buffer, 0, 5);
+    }
+
+    @Test
+    public void wavHoldsNewestFramesInOrder() throws IOException {
+        PcmRingBuffer buffer = new PcmRingBuffer(SAMPLE_RATE, 2, CAPACITY);
+        write(buffer, frames(0, 17), 6);
+        File file = File.createTempFile("ring", ".wav");
+        try {
+            buffer.writeWav(file);
+            WavFileSource wav = new WavFileSource(file);
+            assertEquals(SAMPLE_RATE, wav.getSampleRate());
+            assertEquals(2, wav.getChannels());
+            assertEquals(CAPACITY, wav.length());
+            double[] samples = new double[CAPACITY];
+            wav.read(0, samples, 0, CAPACITY);
+            for (int i = 0; i < CAPACITY; i++) {
+                assertEquals("frame " + i, mono(7 + i), samples[i], 0.0);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import chirp.me.in.base.OnFailureCallback;
+import chirp.me.in.base.OnSuccessCallback;
+
+/**
+ * ProtocolWriteBatcher sending each step's writes as one batch, against a transport that records
+ * the batches and a main thread whose posted tasks are run by hand.
+ */
+public class ProtocolWriteBatcherTest {
+    /**
+     * transport keeping the merges of every committed batch, and the callbacks to finish it with
+     */
+    private static final class RecordingTransport implements ProtocolTransport {
+        private final List<Map<String, Map<String, Object>>> batches = new ArrayList<>();
+        private final List<OnSuccessCallback> successes = new ArrayList<>();
+        private final List<OnFailureCallback> failures = new ArrayList<>();
+
+        @Override
+        public Batch batch() {
+            final Map<String, Map<String, Object>> merges = new LinkedHashMap<>();
+            return new Batch() {
+                @Override
+                public Batch set(final String path, final Map<String, Object> fields) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Batch merge(final String path, final Map<String, Object> fields) {
+                    merges.put(path, new HashMap<>(fields));
+                    return this;
+                }
+
+                @Override
+                public void commit(final OnSuccessCallback onSuccess,
+                                   final OnFailureCallback onFailure) {
+                    batches.add(merges);
+                    successes.add(onSuccess);
+                    failures.add(onFailure);
+                }
+            };
+        }
+
+        @Override
+        public void set(final String path, final Map<String, Object> fields,
+                        final OnSuccessCallback onSuccess, final OnFailureCallback onFailure) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void merge(final String path, final Map<String, Object> fields,
+                          final OnSuccessCallback onSuccess, final OnFailureCallback onFailure) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Subscription subscribe(final String path, final DocumentListener listener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final RecordingTransport transport = new RecordingTransport();
+    /**
+     * tasks posted to the main thread, run by runPosted
+     */
+    private final List<Runnable> posted = new ArrayList<>();
+    private final ProtocolWriteBatcher batcher = new ProtocolWriteBatcher(transport, posted::add);
+
+    /**
+     * end the current step: run what was posted to the main thread
+     */
+    private void runPosted() {
+        List<Runnable> tasks = new ArrayList<>(posted);
+        posted.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void stepIsSentAsOneBatch() {
+        final int[] successes = {0};
+        batcher.write("users/a", "FLAG_A", true, () -> successes[0]++, null);
+        batcher.write("users/a", "SLOPE", 1000L, () -> successes[0]++, null);
+        batcher.write("users/b", "FLAG_B", "x", null, null);
+        // a field written twice is only sent with its last value
+        batcher.write("users/a", "FLAG_A", false, null, null);
+        assertEquals(1, posted.size());
+        assertTrue(transport.batches.isEmpty());
+
+        runPosted();
+        assertEquals(1, transport.batches.size());
+        Map<String, Map<String, Object>> batch = transport.batches.get(0);
+        assertEquals(2, batch.size());
+        assertEquals(false, batch.get("users/a").get("FLAG_A"));
+        assertEquals(1000L, batch.get("users/a").get("SLOPE"));
+        assertEquals("x", batch.get("users/b").get("FLAG_B"));
+
+        // callbacks run once the batch has committed
+        assertEquals(0, successes[0]);
+        transport.successes.get(0).OnSuccess();
+        assertEquals(2, successes[0]);
+    }
+
+    @Test
+    public void eachStepGetsItsOwnBatch() {
+        batcher.write("users/a", "STEP", 1L, null, null);
+        runPosted();
+        batcher.write("users/a", "STEP", 2L, null, null);
+        runPosted();
+        assertEquals(2, transport.batches.size());
+        assertEquals(1L, transport.batches.get(0).get("users/a").get("STEP"));
+        assertEquals(2L, transport.batches.get(1).get("users/a").get("STEP"));
+        // nothing written, nothing sent
+        runPosted();
+        assertEquals(2, transport.batches.size());
+    }
+
+    @Test
+    public void failureReachesEveryWriteOfBatch() {
+        final List<Exception> failures = new ArrayList<>();
+        batcher.write("users/a", "FLAG_A", true, null, failures::add);
+        batcher.write("users/b", "FLAG_B", true, null, failures::add);
+        runPosted();
+        Exception error = new Exception("offline");
+        transport.failures.get(0).OnFailure(error);
+        assertEquals(2, failures.size());
+        assertSame(error, failures.get(0));
+        assertSame(error, failures.get(1));
+    }
+
+    @Test
+    public void flushSendsWithoutWaitingForStep() {
+        batcher.write("users/a", "FLAG_A", true, null, null);
+        batcher.flush();
+        assertEquals(1, transport.batches.size());
+        // the flush posted for the step has nothing left to send
+        runPosted();
+        assertEquals(1, transport.batches.size());
+        // and writes after it post a new one
+        batcher.write("users/a", "FLAG_A", false, null, null);
+        assertEquals(1, posted.size());
+    }
+}
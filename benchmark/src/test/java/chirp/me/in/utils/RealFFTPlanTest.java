@@ -0,0 +1,73 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * RealFFTPlan against bins 0..n/2 of the baseline FFT of the same real input. The packed half
+ * size transform rounds differently, so results only agree to within a few ulps of the largest
+ * bin.
+ */
+public class RealFFTPlanTest {
+    /**
+     * largest error allowed, relative to the largest magnitude in the spectrum
+     */
+    private static final double TOLERANCE = 1.6e-12;
+
+    @Test
+    public void realFftMatchesBaseline() {
+        for (int n = 2; n <= 1024; n *= 2) {
+            double[] input = FFTPlanTest.random(n, 7L * n);
+            double[] expected = BaselineFFT.fft(input, new double[n], true);
+            double[] actual = FFT.realFft(input);
+            assertEquals(n + 2, actual.length);
+            double scale = largestMagnitude(expected);
+            for (int i = 0; i < n + 2; i++) {
+                assertEquals("n = " + n + ", entry " + i, expected[i], actual[i],
+                        TOLERANCE * scale);
+            }
+        }
+    }
+
+    @Test
+    public void planReadsWindowAtOffset() {
+        int n = 512;
+        int offset = 100;
+        double[] recording = FFTPlanTest.random(offset + n, 11);
+        double[] window = new double[n];
+        System.arraycopy(recording, offset, window, 0, n);
+        double[] expected = BaselineFFT.fft(window, new double[n], true);
+        RealFFTPlan plan = RealFFTPlan.forSize(n);
+        double[] real = new double[plan.bins()];
+        double[] imag = new double[plan.bins()];
+        plan.transform(recording, offset, real, imag);
+        double scale = largestMagnitude(expected);
+        for (int i = 0; i < plan.bins(); i++) {
+            assertEquals("bin " + i, expected[2 * i], real[i], TOLERANCE * scale);
+            assertEquals("bin " + i, expected[2 * i + 1], imag[i], TOLERANCE * scale);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void realFftRejectsSingleSample() {
+        FFT.realFft(new double[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void realFftRejectsSizesNotPowersOf2() {
+        FFT.realFft(new double[12]);
+    }
+
+    /**
+     * @param interleaved - interleaved real and imaginary parts
+     * @return largest magnitude among them
+     */
+    private static double largestMagnitude(final double[] interleaved) {
+        double largest = 0.0;
+        for (int i = 0; i < interleaved.length; i += 2) {
+            largest = Math.max(largest, Math.hypot(interleaved[i], interleaved[i + 1]));
+        }
+        return largest;
+    }
+}
@@ -0,0 +1,117 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * RunningRegression against LinearRegression on the same points, while growing and while
+ * sliding over a range by adding and removing points.
+ */
+public class RunningRegressionTest {
+    /**
+     * largest relative difference allowed between the two fits
+     */
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    public void growingFitMatchesBatch() {
+        double[][] points = peaks(400, 0.0, 11);
+        RunningRegression running = new RunningRegression();
+        for (int n = 1; n <= points[0].length; n++) {
+            running.add(points[0][n - 1], points[1][n - 1]);
+            if (n >= 3) {
+                assertSameFit("n = " + n, batch(points, 0, n), running);
+            }
+        }
+    }
+
+    @Test
+    public void slidingFitMatchesBatch() {
+        double[][] points = peaks(1000, 0.0, 13);
+        int width = 50;
+        RunningRegression running = new RunningRegression();
+        for (int i = 0; i < points[0].length; i++) {
+            running.add(points[0][i], points[1][i]);
+            if (i >= width) {
+                running.remove(points[0][i - width], points[1][i - width]);
+            }
+            if (i >= width - 1) {
+                assertEquals(width, running.count());
+                assertSameFit("ending at " + i, batch(points, i + 1 - width, i + 1), running);
+            }
+        }
+    }
+
+    @Test
+    public void timesFarFromZeroStayAccurate() {
+        // an hour into a session, where sums of x^2 would lose most of their digits
+        double[][] points = peaks(200, 3600.0, 17);
+        RunningRegression running = new RunningRegression();
+        for (int i = 0; i < points[0].length; i++) {
+            running.add(points[0][i], points[1][i]);
+        }
+        assertSameFit("offset", batch(points, 0, points[0].length), running);
+    }
+
+    @Test
+    public void removingEveryPointClearsFit() {
+        RunningRegression running = new RunningRegression();
+        running.add(1.0, 2.0);
+        running.add(2.0, 4.0);
+        running.remove(2.0, 4.0);
+        running.remove(1.0, 2.0);
+        assertEquals(0, running.count());
+        running.add(0.0, 1.0);
+        running.add(1.0, 3.0);
+        running.add(2.0, 5.0);
+        assertEquals(2.0, running.slope(), 0.0);
+        assertEquals(1.0, running.intercept(), 0.0);
+    }
+
+    /**
+     * @param n - number of points
+     * @param start - time of the first point (s)
+     * @param seed - random seed
+     * @return times and frequencies of a 1000 Hz/s chirp's peaks with some noise
+     */
+    private static double[][] peaks(final int n, final double start, final long seed) {
+        Random random = new Random(seed);
+        double[][] points = new double[2][n];
+        for (int i = 0; i < n; i++) {
+            points[0][i] = start + i * 128.0 / 44100;
+            points[1][i] = 2000 + 1000 * (points[0][i] - start) + 20 * random.nextGaussian();
+        }
+        return points;
+    }
+
+    private static LinearRegression batch(final double[][] points, final int from, final int to) {
+        double[] x = new double[to - from];
+        double[] y = new double[to - from];
+        System.arraycopy(points[0], from, x, 0, x.length);
+        System.arraycopy(points[1], from, y, 0, y.length);
+        return new LinearRegression(x, y);
+    }
+
+    private static void assertSameFit(final String message, final LinearRegression expected,
+                                      final RunningRegression actual) {
+        assertClose(message + ": slope", expected.slope(), actual.slope());
+        assertClose(message + ": intercept", expected.intercept(), actual.intercept());
+        assertClose(message + ": r^2", expected.R2(), actual.R2());
+        assertClose(message + ": slope std err", expected.slopeStdErr(), actual.slopeStdErr());
+        assertClose(message + ": intercept std err", expected.interceptStdErr(),
+                actual.interceptStdErr());
+        LinearRegression snapshot = actual.toLinearRegression();
+        assertClose(message + ": snapshot slope", expected.slope(), snapshot.slope());
+        assertClose(message + ": snapshot r^2", expected.R2(), snapshot.R2());
+    }
+
+    private static void assertClose(final String message, final double expected,
+                                    final double actual) {
+        assertTrue(message + ": expected " + expected + " but was " + actual,
+                Math.abs(expected - actual) <= TOLERANCE * Math.max(Math.abs(expected), 1e-12));
+    }
+}
@@ -0,0 +1,151 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The slope test every auth decision shares (ChirpAnalyzer.slopeMatches), and EarlyDecision
+ * applying it to a sliding fit while recording.
+ */
+public class SlopeDecisionTest {
+    /**
+     * seconds between windows of the default config at 44100 Hz
+     */
+    private static final double STEP = 128.0 / 44100;
+    /**
+     * about a second of windows, as FirebaseHelper uses
+     */
+    private static final int MIN_FRAMES = 345;
+
+    @Test
+    public void slopeWithinDeltaMatches() {
+        assertTrue(ChirpAnalyzer.slopeMatches(1000, 0, 1000, 0.25));
+        assertTrue(ChirpAnalyzer.slopeMatches(1249.9, 0, 1000, 0.25));
+        assertTrue(ChirpAnalyzer.slopeMatches(750.1, 0, 1000, 0.25));
+        assertFalse(ChirpAnalyzer.slopeMatches(1300, 0, 1000, 0.25));
+        assertFalse(ChirpAnalyzer.slopeMatches(700, 0, 1000, 0.25));
+    }
+
+    @Test
+    public void slopeExactlyDeltaOffDoesNotMatch() {
+        assertFalse(ChirpAnalyzer.slopeMatches(1250, 0, 1000, 0.25));
+        assertFalse(ChirpAnalyzer.slopeMatches(750, 0, 1000, 0.25));
+    }
+
+    @Test
+    public void negativeTrueSlope() {
+        assertTrue(ChirpAnalyzer.slopeMatches(-1040, 0, -1000, 0.05));
+        assertTrue(ChirpAnalyzer.slopeMatches(-960, 0, -1000, 0.05));
+        assertFalse(ChirpAnalyzer.slopeMatches(-1060, 0, -1000, 0.05));
+        // the right steepness in the wrong direction
+        assertFalse(ChirpAnalyzer.slopeMatches(1000, 0, -1000, 0.05));
+    }
+
+    @Test
+    public void marginMustFitInsideDelta() {
+        // 30 off, delta allows 50
+        assertTrue(ChirpAnalyzer.slopeMatches(1030, 10, 1000, 0.05));
+        assertFalse(ChirpAnalyzer.slopeMatches(1030, 25, 1000, 0.05));
+        // a negative margin widens the range, as EarlyDecision's reject test does
+        assertFalse(ChirpAnalyzer.slopeMatches(1060, 0, 1000, 0.05));
+        assertTrue(ChirpAnalyzer.slopeMatches(1060, -25, 1000, 0.05));
+    }
+
+    @Test
+    public void notANumberNeverMatches() {
+        assertFalse(ChirpAnalyzer.slopeMatches(Double.NaN, 0, 1000, 0.05));
+        assertFalse(ChirpAnalyzer.slopeMatches(1000, Double.NaN, 1000, 0.05));
+    }
+
+    /**
+     * feed count peaks of a chirp of the given slope, with a little noise on the frequency
+     */
+    private static EarlyDecision.Outcome feed(final EarlyDecision decision, final double slope,
+                                              final int from, final int count,
+                                              final Random random) {
+        EarlyDecision.Outcome outcome = decision.getOutcome();
+        for (int i = from; i < from + count; i++) {
+            double time = i * STEP;
+            outcome = decision.add(time, 2000 + slope * time + 5 * random.nextGaussian());
+        }
+        return outcome;
+    }
+
+    @Test
+    public void noiseStaysUndecided() {
+        Random random = new Random(1);
+        EarlyDecision decision = new EarlyDecision(ChirpAnalysisConfig.DEFAULT, 1000, MIN_FRAMES);
+        for (int i = 0; i < 5 * MIN_FRAMES; i++) {
+            assertEquals(EarlyDecision.Outcome.UNDECIDED,
+                    decision.add(i * STEP, 100 + 10000 * random.nextDouble()));
+        }
+        // a constant peak (e.g. the noise floor) has no r^2 either
+        for (int i = 0; i < 2 * MIN_FRAMES; i++) {
+            decision.add(i * STEP, 43.0);
+        }
+        assertFalse(decision.isDecided());
+        assertNull(decision.getDecidingFit());
+        assertTrue(Double.isNaN(decision.getDecisionTime()));
+    }
+
+    @Test
+    public void trueSlopeAccepts() {
+        EarlyDecision decision = new EarlyDecision(ChirpAnalysisConfig.DEFAULT, 1000, MIN_FRAMES);
+        assertEquals(EarlyDecision.Outcome.ACCEPT, feed(decision, 1000, 0, 2 * MIN_FRAMES,
+                new Random(2)));
+        assertTrue(decision.accepted());
+        // decided as soon as the window is full, not before
+        assertEquals(MIN_FRAMES, decision.getFrames());
+        assertEquals(1000, decision.getDecidingFit().slope(), 10);
+    }
+
+    @Test
+    public void twentyPercentOffRejects() {
+        for (double slope : new double[]{800, 1200}) {
+            EarlyDecision decision =
+                    new EarlyDecision(ChirpAnalysisConfig.DEFAULT, 1000, MIN_FRAMES);
+            assertEquals("slope " + slope, EarlyDecision.Outcome.REJECT,
+                    feed(decision, slope, 0, 2 * MIN_FRAMES, new Random(3)));
+            assertFalse(decision.accepted());
+        }
+        EarlyDecision decision = new EarlyDecision(ChirpAnalysisConfig.DEFAULT, -1000, MIN_FRAMES);
+        assertEquals(EarlyDecision.Outcome.REJECT,
+                feed(decision, -1200, 0, 2 * MIN_FRAMES, new Random(4)));
+    }
+
+    @Test
+    public void decisionIsKeptOnceMade() {
+        Random random = new Random(5);
+        EarlyDecision decision = new EarlyDecision(ChirpAnalysisConfig.DEFAULT, 1000, MIN_FRAMES);
+        // noise first, then the chirp
+        for (int i = 0; i < MIN_FRAMES; i++) {
+            decision.add(i * STEP, 100 + 10000 * random.nextDouble());
+        }
+        assertEquals(EarlyDecision.Outcome.ACCEPT,
+                feed(decision, 1000, MIN_FRAMES, 2 * MIN_FRAMES, random));
+        LinearRegression decidingFit = decision.getDecidingFit();
+        assertNotNull(decidingFit);
+        int frames = decision.getFrames();
+        double decisionTime = decision.getDecisionTime();
+
+        // a wrong slope later on changes nothing
+        assertEquals(EarlyDecision.Outcome.ACCEPT,
+                feed(decision, 1500, 3 * MIN_FRAMES, 2 * MIN_FRAMES, random));
+        assertSame(decidingFit, decision.getDecidingFit());
+        assertEquals(frames, decision.getFrames());
+        assertEquals(decisionTime, decision.getDecisionTime(), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fitNeedsThreeFrames() {
+        new EarlyDecision(ChirpAnalysisConfig.DEFAULT, 1000, 2);
+    }
+}
@@ -0,0 +1,82 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * StreamingSpectrumAnalyzer fed a recording in blocks as it is captured, against
+ * ChirpAnalyzer.peaks on the whole recording. Both transform the same windows, so they must find
+ * the same peaks.
+ */
+public class StreamingPeaksTest {
+    private static final int SAMPLE_RATE = 44100;
+
+    /**
+     * feed pcm to a new streaming analyzer in blocks of the given sizes, in turn
+     */
+    private static StreamingSpectrumAnalyzer stream(final ChirpAnalysisConfig config,
+                                                    final byte[] pcm, final int... blocks) {
+        StreamingSpectrumAnalyzer analyzer = new StreamingSpectrumAnalyzer(config, SAMPLE_RATE, 2);
+        int offset = 0;
+        for (int i = 0; offset < pcm.length; i++) {
+            int length = Math.min(blocks[i % blocks.length], pcm.length - offset);
+            analyzer.accept(pcm, offset, length);
+            offset += length;
+        }
+        return analyzer;
+    }
+
+    @Test
+    public void defaultPeaksMatchBatch() {
+        byte[] pcm = ParallelPeaksTest.chirpPcm(2.0, 1000);
+        PeakTrack expected = new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT)
+                .peaks(ParallelPeaksTest.chirp(2.0, 1000));
+        // whole frames, and blocks that split frames and samples
+        assertSameTrack(expected, stream(ChirpAnalysisConfig.DEFAULT, pcm, 4096).getPeakTrack());
+        assertSameTrack(expected,
+                stream(ChirpAnalysisConfig.DEFAULT, pcm, 1001, 3, 1, 2050).getPeakTrack());
+    }
+
+    @Test
+    public void configuredPeaksMatchBatch() {
+        byte[] pcm = ParallelPeaksTest.chirpPcm(2.0, 1000);
+        PcmRingBuffer capture = ParallelPeaksTest.chirp(2.0, 1000);
+        ChirpAnalysisConfig[] configs = {
+                ChirpAnalysisConfig.DEFAULT.withWindowSize(512).withOverlap(4)
+                        .withWindow(WindowFunction.HANN)
+                        .withInterpolation(PeakInterpolation.QUADRATIC),
+                ChirpAnalysisConfig.DEFAULT.withBand(1500, 5000, 4).withWindowSize(256),
+                ChirpAnalysisConfig.DEFAULT.withBand(1500, 5000, 1).withZoom(4),
+        };
+        for (ChirpAnalysisConfig config : configs) {
+            assertSameTrack(new ChirpAnalyzer(config).peaks(capture),
+                    stream(config, pcm, 3842, 7).getPeakTrack());
+        }
+    }
+
+    @Test
+    public void regressionMatchesBatch() {
+        byte[] pcm = ParallelPeaksTest.chirpPcm(2.0, 1000);
+        ChirpAnalyzer analyzer = new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT);
+        LinearRegression expected =
+                analyzer.regression(ParallelPeaksTest.chirp(2.0, 1000), 300);
+        LinearRegression actual =
+                stream(ChirpAnalysisConfig.DEFAULT, pcm, 4096).getLinearRegression(300);
+        assertEquals(expected.slope(), actual.slope(), 0.0);
+        assertEquals(expected.R2(), actual.R2(), 0.0);
+        assertTrue(analyzer.accepts(actual, 1000));
+    }
+
+    private static void assertSameTrack(final PeakTrack expected, final PeakTrack actual) {
+        assertTrue(expected.frames() > 0);
+        assertEquals(expected.frames(), actual.frames());
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.frames(); i++) {
+            assertEquals("window " + i, expected.peakBin(i), actual.peakBin(i));
+            assertEquals("window " + i, expected.frequency(i), actual.frequency(i), 0.0);
+            assertEquals("window " + i, expected.time(i), actual.time(i), 0.0);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * TheilSenRegression's O(n log n) median slope against the brute force median of every pair
+ * slope, and the inlier share that acceptance asks for.
+ */
+public class TheilSenRegressionTest {
+    /**
+     * @return median of the slopes of all pairs of distinct x, the mean of the two middle ones
+     * for an even count, NaN if there are none
+     */
+    private static double bruteForceSlope(final double[] x, final double[] y) {
+        int n = x.length;
+        double[] slopes = new double[n * (n - 1) / 2];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (x[i] != x[j]) {
+                    slopes[count++] = (y[j] - y[i]) / (x[j] - x[i]);
+                }
+            }
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        Arrays.sort(slopes, 0, count);
+        return (slopes[(count - 1) / 2] + slopes[count / 2]) / 2;
+    }
+
+    private static void assertMedianSlope(final String message, final double[] x,
+                                          final double[] y) {
+        double expected = bruteForceSlope(x, y);
+        assertEquals(message, expected, new TheilSenRegression(x, y).slope(),
+                1e-12 * Math.max(Math.abs(expected), 1.0));
+    }
+
+    @Test
+    public void randomDataMatchesBruteForce() {
+        Random random = new Random(1);
+        for (int n = 2; n <= 600; n += n < 40 ? 1 : 37) {
+            double[] x = new double[n];
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = random.nextDouble() * 10;
+                y[i] = 3 * x[i] + random.nextGaussian();
+                if (random.nextInt(5) == 0) {
+                    // stray peaks far off the line
+                    y[i] += 1000 * random.nextGaussian();
+                }
+            }
+            assertMedianSlope("n = " + n, x, y);
+        }
+    }
+
+    @Test
+    public void orderedPeakTrackMatchesBruteForce() {
+        Random random = new Random(2);
+        int n = 1000;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i * 128.0 / 44100;
+            y[i] = 2000 + 1000 * x[i] + 15 * random.nextGaussian();
+        }
+        assertMedianSlope("peak track", x, y);
+    }
+
+    @Test
+    public void tiedXMatchesBruteForce() {
+        Random random = new Random(3);
+        for (int n = 3; n <= 300; n += 17) {
+            double[] x = new double[n];
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++) {
+                // only a handful of distinct x, in no particular order
+                x[i] = random.nextInt(6);
+                y[i] = -2 * x[i] + random.nextGaussian();
+            }
+            assertMedianSlope("n = " + n, x, y);
+        }
+    }
+
+    @Test
+    public void tiedSlopesMatchBruteForce() {
+        // whole bin peaks: a staircase, so most pair slopes are one of a few values
+        for (int n = 3; n <= 500; n += 31) {
+            double[] x = new double[n];
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = i;
+                y[i] = 43.06640625 * Math.floor(i / 3.0);
+            }
+            assertMedianSlope("n = " + n, x, y);
+        }
+        double[] x = {0, 1, 2, 3, 4, 5};
+        double[] y = {0, 2, 4, 6, 8, 10};
+        assertEquals(2.0, new TheilSenRegression(x, y).slope(), 0.0);
+    }
+
+    @Test
+    public void smallInputs() {
+        assertTrue(Double.isNaN(new TheilSenRegression(new double[0], new double[0]).slope()));
+        TheilSenRegression one = new TheilSenRegression(new double[]{1}, new double[]{5});
+        assertTrue(Double.isNaN(one.slope()));
+        assertEquals(0.0, one.inlierFraction(), 0.0);
+        assertEquals(-1.5, new TheilSenRegression(new double[]{2, 0},
+                new double[]{1, 4}).slope(), 0.0);
+        // pair slopes 1, 3 and 2
+        assertEquals(2.0, new TheilSenRegression(new double[]{0, 1, 2},
+                new double[]{0, 1, 4}).slope(), 0.0);
+        // all x equal, no pair has a slope
+        assertTrue(Double.isNaN(new TheilSenRegression(new double[]{1, 1, 1},
+                new double[]{0, 1, 2}).slope()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsArraysOfDifferentLength() {
+        new TheilSenRegression(new double[3], new double[2]);
+    }
+
+    @Test
+    public void strayPeaksLeaveLineAndAreNotInliers() {
+        Random random = new Random(4);
+        int n = 400;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i * 0.01;
+            y[i] = 2000 + 1000 * x[i] + random.nextGaussian();
+        }
+        for (int i = 0; i < n; i += 10) {
+            y[i] = 8000;
+        }
+        TheilSenRegression fit = new TheilSenRegression(x, y);
+        assertEquals(1000, fit.slope(), 1.0);
+        assertEquals(0.9, fit.inlierFraction(), 0.01);
+        assertTrue(fit.R2() > 0.99);
+    }
+
+    @Test
+    public void exactStaircaseNeedsEnoughInliers() {
+        // just over half the peaks exactly on a line, the rest scattered: the robust deviation
+        // is 0, so r^2 over the inliers is 1 although nearly half the peaks were dropped
+        Random random = new Random(5);
+        int n = 200;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i * 0.01;
+            y[i] = i % 20 < 11 ? 2000 + 1000 * x[i] : 2000 + 3000 * random.nextDouble();
+        }
+        TheilSenRegression fit = new TheilSenRegression(x, y);
+        assertEquals(1.0, fit.R2(), 0.0);
+        assertTrue(fit.inlierFraction() > 0.5 && fit.inlierFraction() <= 0.55);
+
+        ChirpAnalysisConfig config =
+                ChirpAnalysisConfig.DEFAULT.withEstimator(RegressionEstimator.THEIL_SEN);
+        assertFalse(new ChirpAnalyzer(config).accepts(fit, fit.slope()));
+        assertTrue(new ChirpAnalyzer(config.withMinInlierFraction(0.5)).accepts(fit, fit.slope()));
+    }
+
+    @Test
+    public void leastSquaresKeepsEveryPoint() {
+        LinearRegression fit = new LinearRegression(new double[]{0, 1, 2}, new double[]{0, 1, 2});
+        assertEquals(1.0, fit.inlierFraction(), 0.0);
+        assertTrue(new ChirpAnalyzer(ChirpAnalysisConfig.DEFAULT).accepts(fit, 1.0));
+    }
+}
@@ -0,0 +1,86 @@
+package chirp.me.in.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * ZoomSpectrum's sliding Goertzel points against a direct DFT of each window, and the zoomed
+ * analysis against the full FFT it replaces.
+ */
+public class ZoomSpectrumTest {
+    @Test
+    public void pointsMatchDirectDft() {
+        int windowSize = 256;
+        int windowStep = 64;
+        int zoom = 4;
+        ZoomSpectrum spectrum = new ZoomSpectrum(windowSize, windowStep, 10, 20, zoom);
+        assertEquals(41, spectrum.points());
+        double[] samples = FFTPlanTest.random(20 * windowStep, 5);
+        double[] power = new double[spectrum.points()];
+
+        spectrum.reset(0);
+        for (int block = 0; block < 20; block++) {
+            spectrum.push(samples, block * windowStep);
+            assertEquals(block >= 3, spectrum.ready());
+            if (!spectrum.ready()) {
+                continue;
+            }
+            spectrum.power(power);
+            int start = (block - 3) * windowStep;
+            for (int j = 0; j < spectrum.points(); j++) {
+                double w = 2 * Math.PI * spectrum.fineBin(j) / (zoom * windowSize);
+                double re = 0.0;
+                double im = 0.0;
+                for (int m = 0; m < windowSize; m++) {
+                    re += samples[start + m] * Math.cos(w * m);
+                    im -= samples[start + m] * Math.sin(w * m);
+                }
+                // normalized as RealFFTPlan's output
+                double expected = (re * re + im * im) / windowSize;
+                assertEquals("window " + (block - 3) + ", point " + j, expected, power[j],
+                        1e-9 * windowSize);
+            }
+        }
+    }
+
+    @Test
+    public void zoomOneFindsFullFftPeaks() {
+        PcmRingBuffer capture = ParallelPeaksTest.chirp(2.0, 1000);
+        ChirpAnalysisConfig band = ChirpAnalysisConfig.DEFAULT.withBand(1500, 5000, 1);
+        PeakTrack expected = new ChirpAnalyzer(band).peaks(capture);
+        PeakTrack actual = new ChirpAnalyzer(band.withZoom(1)).peaks(capture);
+        assertEquals(expected.frames(), actual.frames());
+        for (int i = 0; i < expected.frames(); i++) {
+            assertEquals("window " + i, expected.peakBin(i), actual.peakBin(i));
+            assertEquals("window " + i, expected.frequency(i), actual.frequency(i), 0.0);
+        }
+    }
+
+    @Test
+    public void zoomedPeaksFindSlope() {
+        PcmRingBuffer capture = ParallelPeaksTest.chirp(2.0, 1000);
+        ChirpAnalyzer analyzer = new ChirpAnalyzer(
+                ChirpAnalysisConfig.DEFAULT.withBand(1500, 5000, 1).withZoom(4));
+        PeakTrack track = analyzer.peaks(capture);
+        assertEquals(4, track.getZoom());
+        // the chirp is at 2000 + 1000 t Hz. A zoomed point is an eighth of a bin from the
+        // frequency at the window center, give or take the sweep over the window
+        double halfPoint = 44100.0 / 1024 / 8;
+        double sweep = 1000 * 1024 / 44100.0;
+        Random random = new Random(6);
+        for (int n = 0; n < 20; n++) {
+            int i = 20 + random.nextInt(track.frames() - 40);
+            double center = (i * 128 + 512) / 44100.0;
+            double found = SpectralPeaks.binFrequency(track.peakBin(i) / 4.0, 1024, 44100);
+            assertEquals("window " + i, 2000 + 1000 * center, found, halfPoint + sweep / 2);
+        }
+        LinearRegression fit = analyzer.regression(track, 300);
+        assertTrue(analyzer.accepts(fit, 1000));
+        assertFalse(analyzer.accepts(fit, 1100));
+    }
+}